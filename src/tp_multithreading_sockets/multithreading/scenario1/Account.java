@@ -0,0 +1,15 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+
+/**
+ * A shared account that several threads withdraw from. Unlike the {@link BankAccount} of the
+ * demo, implementations do no sleeping or printing while they hold a lock or retry, so they can
+ * be compared under contention (see {@link AccountContentionBenchmark}).
+ */
+public interface Account {
+
+    /** Withdraws {@code amount} if the balance covers it; never leaves the balance negative. */
+    boolean withdraw(long amount);
+
+    long getBalance();
+}
@@ -0,0 +1,184 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongFunction;
+
+
+/**
+ * Compares the {@link Account} strategies under contention: N threads withdraw 1 at a time from
+ * one shared account for a fixed time, and a share of the operations are balance reads.
+ *
+ * Reported per strategy and thread count:
+ * - throughput (operations per second, all threads together)
+ * - fairness: Jain's index over the operations each thread completed (1.0 means every thread got
+ *   the same share, 1/N means one thread got everything) and the min/max share ratio
+ * - whether the balance matches the successful withdrawals
+ *
+ * Before measuring, each strategy drains a small account with all threads, to check that no
+ * withdrawal is lost and the balance never goes below zero.
+ *
+ * Usage: java AccountContentionBenchmark [seconds=2] [readPercent=10] [threads=2,8,32,128]
+ */
+public class AccountContentionBenchmark {
+    private static final long DRAIN_BALANCE = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length >= 1 ? Double.parseDouble(args[0]) : 2;
+        int readPercent = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+        String threadList = args.length >= 3 ? args[2] : "2,8,32,128";
+
+        List<String> names = List.of("synchronized", "atomic", "stamped", "varhandle");
+        List<LongFunction<Account>> strategies = List.of(
+                SynchronizedAccount::new, AtomicAccount::new, StampedAccount::new, VarHandleAccount::new);
+
+        System.out.println("cpus=" + Runtime.getRuntime().availableProcessors() + " read_percent=" + readPercent);
+        for (int i = 0; i < strategies.size(); i++) {
+            checkDrain(names.get(i), strategies.get(i), 8);
+            run(strategies.get(i).apply(Long.MAX_VALUE), 8, 0.5, readPercent);      // warm-up
+        }
+        for (String part : threadList.split(",")) {
+            int threads = Integer.parseInt(part.trim());
+            for (int i = 0; i < strategies.size(); i++) {
+                Account account = strategies.get(i).apply(Long.MAX_VALUE);
+                Result result = run(account, threads, seconds, readPercent);
+                long withdrawals = 0;
+                for (long count : result.withdrawals) {
+                    withdrawals += count;
+                }
+                boolean balanceOk = account.getBalance() == Long.MAX_VALUE - withdrawals;
+                System.out.printf("strategy=%s threads=%d ops_per_sec=%.0f jain_fairness=%.3f min_max_ratio=%.3f balance_ok=%s "
+                                + "read_checksum=%x%n",
+                        names.get(i), threads, result.total() / result.seconds, result.jain(), result.minMaxRatio(), balanceOk,
+                        result.readChecksum);
+            }
+        }
+    }
+
+    /** All threads withdraw until the account refuses: exactly DRAIN_BALANCE must succeed and 0 remain. */
+    private static void checkDrain(String name, LongFunction<Account> strategy, int threads) throws InterruptedException {
+        Account account = strategy.apply(DRAIN_BALANCE);
+        long[] succeeded = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers.add(Thread.ofPlatform().start(() -> {
+                long count = 0;
+                while (account.withdraw(1)) {
+                    count++;
+                }
+                succeeded[index] = count;
+            }));
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            total += succeeded[t];
+        }
+        if (total != DRAIN_BALANCE || account.getBalance() != 0) {
+            throw new IllegalStateException(name + ": " + total + " withdrawals succeeded, balance " + account.getBalance());
+        }
+    }
+
+    private static Result run(Account account, int threads, double seconds, int readPercent) throws InterruptedException {
+        long[] operations = new long[threads];
+        long[] withdrawals = new long[threads];
+        long[] balanceSums = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        Flag go = new Flag();
+        Flag stop = new Flag();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers.add(Thread.ofPlatform().name("client-" + t).start(() -> {
+                long ops = 0;
+                long withdrawn = 0;
+                long sink = 0;
+                int random = index * 0x9E3779B9 + 1;
+                ready.countDown();
+                // Every thread stays runnable until the start: a latch would wake them one after
+                // the other, and the first ones could keep the CPUs before the last ones are woken
+                while (!go.value) {
+                    Thread.yield();
+                }
+                while (!stop.value) {
+                    // xorshift: a cheap per-thread choice between a read and a withdrawal
+                    random ^= random << 13;
+                    random ^= random >>> 17;
+                    random ^= random << 5;
+                    if (Integer.remainderUnsigned(random, 100) < readPercent) {
+                        sink += account.getBalance();
+                    } else if (account.withdraw(1)) {
+                        withdrawn++;
+                    }
+                    ops++;
+                }
+                operations[index] = ops;
+                withdrawals[index] = withdrawn;
+                balanceSums[index] = sink;      // the reads are used, so they cannot be optimised away
+            }));
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.value = true;
+        Thread.sleep((long) (seconds * 1000));
+        stop.value = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long readChecksum = 0;
+        for (long sum : balanceSums) {
+            readChecksum ^= sum;
+        }
+        return new Result(operations, withdrawals, readChecksum, (System.nanoTime() - start) / 1e9);
+    }
+
+
+    private static class Flag {
+        volatile boolean value;
+    }
+
+
+    private static class Result {
+        final long[] operations;
+        final long[] withdrawals;
+        final long readChecksum;
+        final double seconds;
+
+        Result(long[] operations, long[] withdrawals, long readChecksum, double seconds) {
+            this.operations = operations;
+            this.withdrawals = withdrawals;
+            this.readChecksum = readChecksum;
+            this.seconds = seconds;
+        }
+
+        long total() {
+            long total = 0;
+            for (long count : operations) {
+                total += count;
+            }
+            return total;
+        }
+
+        double jain() {
+            double sum = 0;
+            double squares = 0;
+            for (long count : operations) {
+                sum += count;
+                squares += (double) count * count;
+            }
+            return squares == 0 ? 1 : sum * sum / (operations.length * squares);
+        }
+
+        double minMaxRatio() {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (long count : operations) {
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+            }
+            return max == 0 ? 1 : (double) min / max;
+        }
+    }
+}
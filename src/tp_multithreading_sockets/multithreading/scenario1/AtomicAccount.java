@@ -0,0 +1,35 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Lock-free: the check and the subtraction are one compare-and-set on an {@link AtomicLong}.
+ * If another thread changed the balance in between, the CAS fails and the loop checks again,
+ * so the balance can never go negative and no thread ever waits for a lock holder.
+ */
+public class AtomicAccount implements Account {
+    private final AtomicLong balance;
+
+    public AtomicAccount(long initialBalance) {
+        this.balance = new AtomicLong(initialBalance);
+    }
+
+    @Override
+    public boolean withdraw(long amount) {
+        while (true) {
+            long current = balance.get();
+            if (current < amount) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long getBalance() {
+        return balance.get();
+    }
+}
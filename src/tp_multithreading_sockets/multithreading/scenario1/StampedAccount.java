@@ -0,0 +1,53 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * Writes take the write lock of a {@link StampedLock}; reads are optimistic: they read the
+ * balance without locking and only take the read lock if a write happened meanwhile. Readers
+ * therefore never block each other or the writers.
+ *
+ * A withdrawal that the balance cannot cover is also decided optimistically, without the lock.
+ */
+public class StampedAccount implements Account {
+    private final StampedLock lock = new StampedLock();
+    private long balance;
+
+    public StampedAccount(long initialBalance) {
+        this.balance = initialBalance;
+    }
+
+    @Override
+    public boolean withdraw(long amount) {
+        long stamp = lock.tryOptimisticRead();
+        if (balance < amount && lock.validate(stamp)) {
+            return false;
+        }
+        stamp = lock.writeLock();
+        try {
+            if (balance >= amount) {
+                balance -= amount;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long getBalance() {
+        long stamp = lock.tryOptimisticRead();
+        long current = balance;
+        if (lock.validate(stamp)) {
+            return current;
+        }
+        stamp = lock.readLock();
+        try {
+            return balance;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
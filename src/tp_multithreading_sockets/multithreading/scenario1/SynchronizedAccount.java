@@ -0,0 +1,25 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+
+/** The withdrawSynchronized strategy of {@link BankAccount}: one monitor for reads and writes. */
+public class SynchronizedAccount implements Account {
+    private long balance;
+
+    public SynchronizedAccount(long initialBalance) {
+        this.balance = initialBalance;
+    }
+
+    @Override
+    public synchronized boolean withdraw(long amount) {
+        if (balance >= amount) {
+            balance -= amount;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized long getBalance() {
+        return balance;
+    }
+}
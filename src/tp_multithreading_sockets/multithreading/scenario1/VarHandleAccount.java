@@ -0,0 +1,51 @@
+package tp_multithreading_sockets.multithreading.scenario1;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+
+/**
+ * The CAS loop of {@link AtomicAccount} on a plain field through a {@link VarHandle}, which saves
+ * the separate AtomicLong object (one less indirection, one less allocation per account).
+ *
+ * It also uses weaker orderings than AtomicLong's volatile ones: the balance is read with
+ * acquire, and a weak CAS with release semantics publishes the new one. A weak CAS may fail
+ * spuriously, which the retry loop absorbs anyway. The field is not volatile: a volatile field
+ * would make every access volatile whatever mode the handle asks for, so after the constructor it
+ * is only read and written through {@code BALANCE}.
+ */
+public class VarHandleAccount implements Account {
+    private static final VarHandle BALANCE;
+
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(VarHandleAccount.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private long balance;
+
+    public VarHandleAccount(long initialBalance) {
+        this.balance = initialBalance;
+    }
+
+    @Override
+    public boolean withdraw(long amount) {
+        while (true) {
+            long current = (long) BALANCE.getAcquire(this);
+            if (current < amount) {
+                return false;
+            }
+            if (BALANCE.weakCompareAndSetRelease(this, current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long getBalance() {
+        return (long) BALANCE.getAcquire(this);
+    }
+}
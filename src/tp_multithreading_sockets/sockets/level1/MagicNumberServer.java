@@ -1,8 +1,14 @@
 package tp_multithreading_sockets.sockets.level1;
 
+import tp_multithreading_sockets.sockets.level2.LatencyHistogram;
+import tp_multithreading_sockets.sockets.level2.MetricsEndpoint;
+import tp_multithreading_sockets.sockets.level2.MetricsRegistry;
+import tp_multithreading_sockets.sockets.level2.TlsConfig;
+
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class MagicNumberServer {
@@ -10,15 +16,56 @@ public class MagicNumberServer {
     private static final int MIN_NUMBER = 0;
     private static final int MAX_NUMBER = 100;
 
+    // Same metrics registry as the level2 servers, served by the same endpoint
+    private static final MetricsRegistry METRICS = new MetricsRegistry();
+    private static final LongAdder CONNECTIONS_OPENED = METRICS.counter("connections_opened_total");
+    private static final LongAdder CONNECTIONS_CLOSED = METRICS.counter("connections_closed_total");
+    private static final LongAdder GAMES_FINISHED = METRICS.counter("games_finished_total");
+    private static final LongAdder GUESSES = METRICS.counter("guesses_total");
+    private static final LongAdder INVALID_INPUTS = METRICS.counter("invalid_inputs_total");
+    private static final LatencyHistogram GUESS_STEP = METRICS.histogram("step_guess");
+
+    static {
+        METRICS.gauge("connections_active", () -> CONNECTIONS_OPENED.sum() - CONNECTIONS_CLOSED.sum());
+        METRICS.rate("guesses_per_sec", GUESSES);
+    }
+
+    /**
+     * Usage: java MagicNumberServer [port] [metricsPort] [keystore.p12|self-signed] [keystorePassword]
+     *
+     * A keystore (or "self-signed") turns on TLS; use -1 as metricsPort to skip the endpoint.
+     */
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        int port = PORT;
+        if (args.length >= 1) {
+            port = Integer.parseInt(args[0]);
+        }
+        if (args.length >= 2 && Integer.parseInt(args[1]) >= 0) {
+            try {
+                MetricsEndpoint endpoint = MetricsEndpoint.start(METRICS, Integer.parseInt(args[1]));
+                System.out.println("📊 Metrics: http://127.0.0.1:" + endpoint.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Cannot start metrics endpoint: " + e.getMessage());
+            }
+        }
+
+        TlsConfig tls;
+        try {
+            tls = args.length >= 3 ? TlsConfig.of(args[2], args.length >= 4 ? args[3] : "changeit") : TlsConfig.NONE;
+        } catch (IOException e) {
+            System.err.println("Cannot start TLS: " + e.getMessage());
+            return;
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("🎮 Magic Number Guessing Game Server");
-            System.out.println("Server listening on port " + PORT);
+            System.out.println("Server listening on port " + port);
+            System.out.println("Transport: " + tls);
             System.out.println("Waiting for client connection...");
 
             while (true) {
-                // Accept client connection
-                Socket clientSocket = serverSocket.accept();
+                // Accept client connection (the TLS handshake happens at the welcome line)
+                Socket clientSocket = tls.wrap(serverSocket.accept());
                 System.out.println("\n✅ Client connected: " + clientSocket.getInetAddress());
 
                 // Handle client in the same thread (single-threaded)
@@ -32,6 +79,7 @@ public class MagicNumberServer {
 
 
     private static void handleClient(Socket clientSocket) {
+        CONNECTIONS_OPENED.increment();
         try (BufferedReader in = new BufferedReader(
                 new InputStreamReader(clientSocket.getInputStream()));
              PrintWriter out = new PrintWriter(
@@ -57,31 +105,38 @@ public class MagicNumberServer {
                 }
 
                 try {
+                    long start = System.nanoTime();
                     int guess = Integer.parseInt(guessStr);
                     attempts++;
+                    GUESSES.increment();
 
                     if (guess < magicNumber) {
                         response = "TOO_LOW";
                         out.println(response);
                         System.out.println("Client guess: " + guess + " -> " + response);
+                        GUESS_STEP.record(System.nanoTime() - start);
                     } else if (guess > magicNumber) {
                         response = "TOO_HIGH";
                         out.println(response);
                         System.out.println("Client guess: " + guess + " -> " + response);
+                        GUESS_STEP.record(System.nanoTime() - start);
                     } else {
                         response = "CORRECT";
                         out.println(response);
                         out.println("Congratulations! You found it in " + attempts + " attempt(s).");
                         System.out.println("Client found the number in " + attempts + " attempt(s)!");
+                        GAMES_FINISHED.increment();
                         break;
                     }
                 } catch (NumberFormatException e) {
+                    INVALID_INPUTS.increment();
                     out.println("INVALID: Please enter a valid number.");
                 }
             }
         } catch (IOException e) {
             System.err.println("Error handling client: " + e.getMessage());
         } finally {
+            CONNECTIONS_CLOSED.increment();
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -0,0 +1,133 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * The accept side of {@link MultiThreadedMagicNumberServer}, split over several threads.
+ * With SO_REUSEPORT every acceptor owns a listening socket on the same port, and the kernel
+ * spreads new connections (and the SYN backlog) over them; without it the acceptors share one
+ * socket, which still takes the per-connection work after {@code accept()} off a single thread.
+ *
+ * It also keeps every connection it handed out until its handler finishes, so a draining server
+ * can close the ones left at its deadline whatever the timeouts are (they may all be disabled).
+ */
+class AcceptorGroup implements Closeable {
+    private final ServerSocket[] serverSockets;
+    private final Thread[] acceptors;
+    private final LongAdder accepted = new LongAdder();
+    private final Set<ClientHandler> open = ConcurrentHashMap.newKeySet();
+
+    AcceptorGroup(int port, int acceptorCount, int backlog) throws IOException {
+        this(port, acceptorCount, backlog, false);
+    }
+
+    /**
+     * With {@code shareWithNextProcess} the listening sockets always use SO_REUSEPORT (if the OS has
+     * it), even with a single acceptor, so a new server process can bind the same port before this
+     * one drains: the hot-restart handoff.
+     */
+    AcceptorGroup(int port, int acceptorCount, int backlog, boolean shareWithNextProcess) throws IOException {
+        ServerSocket first = new ServerSocket();
+        boolean reusePort = (acceptorCount > 1 || shareWithNextProcess)
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        this.serverSockets = new ServerSocket[reusePort ? acceptorCount : 1];
+        try {
+            serverSockets[0] = bind(first, port, backlog, reusePort);
+            int boundPort = first.getLocalPort();
+            for (int i = 1; i < serverSockets.length; i++) {
+                serverSockets[i] = bind(new ServerSocket(), boundPort, backlog, true);
+            }
+        } catch (IOException e) {
+            // Do not leave the listeners already bound holding the port
+            for (ServerSocket serverSocket : serverSockets) {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+            }
+            throw e;
+        }
+        this.acceptors = new Thread[acceptorCount];
+    }
+
+    /** Binds {@code serverSocket}, or closes it if that fails. */
+    private static ServerSocket bind(ServerSocket serverSocket, int port, int backlog, boolean reusePort)
+            throws IOException {
+        try {
+            if (reusePort) {
+                serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            serverSocket.bind(new InetSocketAddress(port), backlog);
+            return serverSocket;
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    void start(ServerContext context, ExecutorService executor, Semaphore admission) {
+        for (int i = 0; i < acceptors.length; i++) {
+            ServerSocket serverSocket = serverSockets[i % serverSockets.length];
+            acceptors[i] = new Thread(() -> {
+                try {
+                    MultiThreadedMagicNumberServer.serve(serverSocket, context, executor, admission, accepted, open);
+                } catch (SocketException e) {
+                    // server socket closed
+                } catch (IOException e) {
+                    System.err.println("Acceptor error: " + e.getMessage());
+                }
+            }, "acceptor-" + i);
+            acceptors[i].start();
+        }
+    }
+
+    void join() throws InterruptedException {
+        for (Thread acceptor : acceptors) {
+            acceptor.join();
+        }
+    }
+
+    int getPort() {
+        return serverSockets[0].getLocalPort();
+    }
+
+    int getListenerCount() {
+        return serverSockets.length;
+    }
+
+    long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /** Connections accepted whose handler has not finished yet. */
+    int getOpenCount() {
+        return open.size();
+    }
+
+    /** Closes every open connection, ending its game; returns how many. */
+    int closeOpenConnections() {
+        int count = 0;
+        for (ClientHandler handler : open) {
+            handler.closeByServer();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ServerSocket serverSocket : serverSockets) {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Non-blocking client library for the level2 and NIO servers. A few I/O threads, each with its own
+ * selector, carry any number of games; nothing blocks a thread while a reply is on its way.
+ *
+ * Games speak the binary protocol, so every reply is an opcode followed by varints and is decoded
+ * in place from the read buffer. The handshake (HELLO, RANGE, JOIN, NAME) goes out in one write
+ * without waiting for the prompt. Guesses can be pipelined: each {@link Game#guess} appends to the
+ * connection's output and queues a future, the replies complete those futures in order, and
+ * guesses made before the loop gets to flush go out together in one write.
+ *
+ * Futures complete on an I/O thread. Callbacks should be short and must not block; use the
+ * {@code ...Async} variants of {@link CompletableFuture} to run heavier work elsewhere. A reply
+ * that never comes (a stalled server) leaves its future pending, so callers that care should add
+ * {@link CompletableFuture#orTimeout}.
+ *
+ * <pre>
+ * try (AsyncGameClient client = AsyncGameClient.open(1)) {
+ *     client.connect(address, "bot").thenCompose(game -&gt; game.solve(3)).join();
+ * }
+ * </pre>
+ */
+public final class AsyncGameClient implements Closeable {
+    private static final int READ_BUFFER_BYTES = 4096;
+    private static final int MAX_BOARD_BYTES = 1 << 20;
+    private static final int MAX_TOKEN_BYTES = 64;
+    private static final int MAX_NAME_BYTES = 200;
+    /** Wait before asking again after a round the rate limit refused, doubled each time up to the max. */
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private AsyncGameClient(IoLoop[] loops) {
+        this.loops = loops;
+    }
+
+    /** Starts {@code ioThreads} daemon I/O threads; games are spread over them round-robin. */
+    public static AsyncGameClient open(int ioThreads) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("Need at least one I/O thread: " + ioThreads);
+        }
+        IoLoop[] loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop();
+            loops[i].thread = Thread.ofPlatform().name("game-client-io-" + i).daemon().start(loops[i]);
+        }
+        return new AsyncGameClient(loops);
+    }
+
+    /** Starts a game in the server's default range; completes once the server has welcomed the player. */
+    public CompletableFuture<Game> connect(InetSocketAddress address, String name) {
+        return connect(address, name, null, null);
+    }
+
+    /**
+     * Starts a game; {@code range} picks one of the server's other ranges and {@code room} joins a
+     * multiplayer room, both optional (null). Fails with an {@link IOException} if the server
+     * turns the connection away or refuses the range or room.
+     */
+    public CompletableFuture<Game> connect(InetSocketAddress address, String name, NumberRange range, String room) {
+        IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        Game game = new Game(loop);
+        synchronized (game) {
+            game.outbound.append(BinaryProtocol.HELLO);
+            if (range != null) {
+                BinaryProtocol.writeRange(game.outbound, range);
+            }
+            if (room != null) {
+                BinaryProtocol.writeJoin(game.outbound, room);
+            }
+            BinaryProtocol.writeName(game.outbound, name);
+            game.flushScheduled = true;             // flushed once connected
+        }
+        loop.execute(() -> game.open(address));
+        return game.ready;
+    }
+
+    /** Closes every game (their pending futures fail) and stops the I/O threads. */
+    @Override
+    public void close() {
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (IoLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    public enum Outcome { TOO_LOW, TOO_HIGH, CORRECT, INVALID }
+
+    /**
+     * The server's reply to one guess. {@code attempts}, {@code rank} and {@code leaderboard}
+     * are only set for {@link Outcome#CORRECT}. INVALID also covers guesses refused by a rate limit.
+     */
+    public record GuessResult(Outcome outcome, int attempts, long rank, String leaderboard) {
+        static final GuessResult TOO_LOW = new GuessResult(Outcome.TOO_LOW, 0, 0, null);
+        static final GuessResult TOO_HIGH = new GuessResult(Outcome.TOO_HIGH, 0, 0, null);
+        static final GuessResult INVALID = new GuessResult(Outcome.INVALID, 0, 0, null);
+    }
+
+    /** What another member of the room did: a miss ({@code winner} false) or the winning guess. */
+    public record RoomEvent(String player, long guess, boolean winner, boolean tooLow, int attempts) {
+    }
+
+
+    /**
+     * One connection and the game played on it. {@link #guess} may be called from any thread,
+     * including from a callback on the I/O thread.
+     */
+    public static final class Game {
+        private final IoLoop loop;
+        private final CompletableFuture<Game> ready = new CompletableFuture<>();
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        private volatile Consumer<RoomEvent> roomListener;
+        private volatile NumberRange range;
+        private volatile String sessionToken;
+
+        // Guarded by this: what the callers queued and the futures waiting for replies, in order
+        private ResponseBuffer outbound = new ResponseBuffer(64);
+        private final ArrayDeque<CompletableFuture<GuessResult>> pending = new ArrayDeque<>();
+        private boolean flushScheduled;
+        private boolean over;
+
+        // Owned by the I/O thread
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ResponseBuffer sending = new ResponseBuffer(64);
+        private ByteBuffer writing;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private boolean prompted;
+
+        private Game(IoLoop loop) {
+            this.loop = loop;
+        }
+
+        /** The range the number is drawn from, as announced in the welcome. */
+        public NumberRange getRange() {
+            return range;
+        }
+
+        /** Empty if the server keeps no sessions. */
+        public String getSessionToken() {
+            return sessionToken;
+        }
+
+        /** Completes when the connection is closed, by either side. */
+        public CompletableFuture<Void> closed() {
+            return closed;
+        }
+
+        /** Called on the I/O thread for every hint and for the winner of this player's room. */
+        public void onRoomEvent(Consumer<RoomEvent> listener) {
+            this.roomListener = listener;
+        }
+
+        /**
+         * Sends a guess without waiting for the replies to earlier ones. Once a guess is CORRECT
+         * (or someone in the room wins) the futures of the guesses after it fail with an
+         * {@link IllegalStateException}; if the connection is lost they fail with an {@link IOException}.
+         */
+        public CompletableFuture<GuessResult> guess(long guess) {
+            CompletableFuture<GuessResult> result = new CompletableFuture<>();
+            boolean schedule;
+            synchronized (this) {
+                if (over) {
+                    result.completeExceptionally(new IllegalStateException("Game is over"));
+                    return result;
+                }
+                BinaryProtocol.writeGuess(outbound, guess);
+                pending.add(result);
+                schedule = !flushScheduled;
+                flushScheduled = true;
+            }
+            if (schedule) {
+                loop.execute(this::flush);
+            }
+            return result;
+        }
+
+        /**
+         * Finds the number with rounds of {@code depth} pipelined guesses that split what is left
+         * into {@code depth + 1} equal parts: depth 1 is a binary search, and larger depths trade
+         * extra guesses for fewer round trips. Completes with the CORRECT reply. A round the rate
+         * limit refused is asked again after a back-off, which doubles from 10 ms up to 1 s while
+         * whole rounds are refused.
+         */
+        public CompletableFuture<GuessResult> solve(int depth) {
+            if (depth < 1) {
+                throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+            }
+            CompletableFuture<GuessResult> done = new CompletableFuture<>();
+            NumberRange current = range;
+            solveRound(current.min(), current.max(), depth, 0, done);
+            return done;
+        }
+
+        private void solveRound(long low, long high, int depth, long backoffMillis, CompletableFuture<GuessResult> done) {
+            long span = high - low;                 // unsigned: the range may be all of long
+            long first;
+            long step;
+            int count;
+            if (Long.compareUnsigned(span, depth) < 0) {
+                count = (int) span + 1;             // few enough candidates to guess them all
+                first = low;
+                step = 1;
+            } else {
+                count = depth;
+                step = Math.max(1, Long.divideUnsigned(span, depth + 1));
+                first = low + step;
+            }
+            long[] guesses = new long[count];
+            List<CompletableFuture<GuessResult>> replies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                guesses[i] = first + step * i;
+                replies.add(guess(guesses[i]));
+            }
+
+            CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+                long nextLow = low;
+                long nextHigh = high;
+                boolean refused = false;
+                for (int i = 0; i < count; i++) {
+                    CompletableFuture<GuessResult> reply = replies.get(i);
+                    if (reply.isCompletedExceptionally()) {
+                        continue;
+                    }
+                    GuessResult result = reply.join();
+                    switch (result.outcome()) {
+                        case CORRECT -> {
+                            done.complete(result);
+                            return;
+                        }
+                        case TOO_LOW -> nextLow = Math.max(nextLow, guesses[i] + 1);
+                        case TOO_HIGH -> nextHigh = Math.min(nextHigh, guesses[i] - 1);
+                        case INVALID -> refused = true;     // rate limit: that part is asked again later
+                    }
+                }
+                if (error != null) {
+                    done.completeExceptionally(error instanceof CompletionException
+                            && error.getCause() != null ? error.getCause() : error);
+                } else if (nextLow > nextHigh) {
+                    done.completeExceptionally(new IllegalStateException(
+                            "No number left between " + nextLow + " and " + nextHigh));
+                } else if (refused) {
+                    // Doubles only while whole rounds are refused; a round that narrowed the range starts over
+                    boolean progress = nextLow != low || nextHigh != high;
+                    long wait = progress || backoffMillis == 0 ? MIN_BACKOFF_MILLIS
+                            : Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+                    long retryLow = nextLow;
+                    long retryHigh = nextHigh;
+                    CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS)
+                            .execute(() -> solveRound(retryLow, retryHigh, depth, wait, done));
+                } else {
+                    solveRound(nextLow, nextHigh, depth, 0, done);
+                }
+            });
+        }
+
+        /** Tells the server this player gives up; completes when the connection is closed. */
+        public CompletableFuture<Void> quit() {
+            List<CompletableFuture<GuessResult>> abandoned;
+            boolean schedule = false;
+            synchronized (this) {
+                if (!over) {
+                    BinaryProtocol.writeQuit(outbound);
+                    schedule = !flushScheduled;
+                    flushScheduled = true;
+                }
+                abandoned = endGame();
+            }
+            failAll(abandoned, new IllegalStateException("Game is over"));
+            if (schedule) {
+                loop.execute(this::flush);
+            }
+            return closed;
+        }
+
+        /** Closes the connection; pending futures fail with an {@link IOException}. */
+        public void close() {
+            loop.execute(() -> fail(new IOException("Game closed by the client")));
+        }
+
+        // ---- I/O thread ----
+
+        private void open(InetSocketAddress address) {
+            if (!loop.running) {
+                fail(new IOException("Client closed"));
+                return;
+            }
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                boolean connected = channel.connect(address);
+                key = channel.register(loop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+                if (connected) {
+                    flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void onConnectable() throws IOException {
+            if (channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                flush();
+            }
+        }
+
+        /** Swaps the queued bytes out from under the callers' lock and writes them. */
+        private void flush() {
+            if (writing != null || key == null || !key.isValid() || !channel.isConnected()) {
+                return;                             // the write in progress or the connect picks them up
+            }
+            synchronized (this) {
+                flushScheduled = false;
+                if (outbound.isEmpty()) {
+                    return;
+                }
+                ResponseBuffer swap = sending;
+                sending = outbound;
+                outbound = swap;
+            }
+            writing = sending.toByteBuffer();
+            try {
+                onWritable();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void onWritable() throws IOException {
+            channel.write(writing);
+            if (writing.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            writing = null;
+            sending.reset();
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            flush();                                // anything queued meanwhile
+        }
+
+        private void onReadable() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            in.flip();
+            if (!prompted && !skipPrompt()) {
+                in.compact();
+                return;
+            }
+            while (in.hasRemaining()) {
+                int start = in.position();
+                try {
+                    decodeFrame();
+                } catch (BufferUnderflowException e) {
+                    in.position(start);             // wait for the rest of the frame
+                    break;
+                }
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                in = larger.put(in);
+            }
+        }
+
+        /**
+         * The server greets every connection with one text line before it sees HELLO. Anything
+         * but the name prompt there is a refusal (BUSY), which ends the connection.
+         */
+        private boolean skipPrompt() throws IOException {
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    byte[] line = new byte[i - in.position()];
+                    in.get(line);
+                    in.get();
+                    if (line.length >= 4 && line[0] == 'B' && line[1] == 'U' && line[2] == 'S' && line[3] == 'Y') {
+                        throw new IOException(new String(line, StandardCharsets.UTF_8));
+                    }
+                    prompted = true;
+                    return true;
+                }
+            }
+            if (in.limit() == in.capacity()) {
+                throw new IOException("Prompt line too long");
+            }
+            return false;
+        }
+
+        /** Decodes one server frame; throws {@link BufferUnderflowException} if it is not complete yet. */
+        private void decodeFrame() throws IOException {
+            byte opcode = in.get();
+            switch (opcode) {
+                case BinaryProtocol.WELCOME -> {
+                    long min = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    long max = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    String token = BinaryProtocol.readString(in, MAX_TOKEN_BYTES);
+                    welcomed(min, max, token);
+                }
+                case BinaryProtocol.RESUMED -> {
+                    long min = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    long max = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    BinaryProtocol.readVarint(in);  // attempts so far
+                    String token = BinaryProtocol.readString(in, MAX_TOKEN_BYTES);
+                    welcomed(min, max, token);
+                }
+                case BinaryProtocol.TOO_LOW -> reply(GuessResult.TOO_LOW);
+                case BinaryProtocol.TOO_HIGH -> reply(GuessResult.TOO_HIGH);
+                case BinaryProtocol.INVALID -> {
+                    if (!ready.isDone()) {
+                        throw new IOException("Server refused the range, room or name");
+                    }
+                    reply(GuessResult.INVALID);
+                }
+                case BinaryProtocol.CORRECT -> {
+                    int attempts = (int) BinaryProtocol.readVarint(in);
+                    long rank = BinaryProtocol.readVarint(in);
+                    String board = BinaryProtocol.readString(in, MAX_BOARD_BYTES);
+                    reply(new GuessResult(Outcome.CORRECT, attempts, rank, board));
+                    gameOver();
+                }
+                case BinaryProtocol.ROOM_HINT -> {
+                    long guess = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    boolean tooLow = in.get() == 0;
+                    String player = BinaryProtocol.readString(in, MAX_NAME_BYTES);
+                    notifyRoom(new RoomEvent(player, guess, false, tooLow, 0));
+                }
+                case BinaryProtocol.ROOM_WINNER -> {
+                    long number = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+                    int attempts = (int) BinaryProtocol.readVarint(in);
+                    String player = BinaryProtocol.readString(in, MAX_NAME_BYTES);
+                    notifyRoom(new RoomEvent(player, number, true, false, attempts));
+                    gameOver();
+                }
+                default -> throw new IOException("Unknown opcode from server: " + opcode);
+            }
+        }
+
+        private void welcomed(long min, long max, String token) {
+            range = new NumberRange(min, max);
+            sessionToken = token;
+            ready.complete(this);
+        }
+
+        private void reply(GuessResult result) throws IOException {
+            CompletableFuture<GuessResult> head;
+            synchronized (this) {
+                head = pending.poll();
+            }
+            if (head == null) {
+                throw new IOException("Reply without a guess: " + result.outcome());
+            }
+            head.complete(result);
+        }
+
+        private void notifyRoom(RoomEvent event) {
+            Consumer<RoomEvent> listener = roomListener;
+            if (listener != null) {
+                listener.accept(event);
+            }
+        }
+
+        private void gameOver() {
+            List<CompletableFuture<GuessResult>> abandoned;
+            synchronized (this) {
+                abandoned = endGame();
+            }
+            failAll(abandoned, new IllegalStateException("Game is over"));
+        }
+
+        /** Must hold this; returns the futures that will get no reply. */
+        private List<CompletableFuture<GuessResult>> endGame() {
+            over = true;
+            List<CompletableFuture<GuessResult>> abandoned = new ArrayList<>(pending);
+            pending.clear();
+            return abandoned;
+        }
+
+        private void fail(Throwable cause) {
+            List<CompletableFuture<GuessResult>> abandoned;
+            synchronized (this) {
+                abandoned = endGame();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                // closing anyway
+            }
+            ready.completeExceptionally(cause);
+            failAll(abandoned, cause);
+            closed.complete(null);
+        }
+
+        private static void failAll(List<CompletableFuture<GuessResult>> futures, Throwable cause) {
+            for (CompletableFuture<GuessResult> future : futures) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+
+    /** One selector thread owning a share of the games, in the style of the server's event loops. */
+    private static final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+        private Thread thread;
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /** Runs {@code task} on the loop thread; from the loop itself it runs after the current wakeup. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Client I/O loop error: " + e.getMessage());
+            } finally {
+                IOException closedByClient = new IOException("Client closed");
+                for (SelectionKey key : selector.keys()) {
+                    ((Game) key.attachment()).fail(closedByClient);
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();                     // games still opening fail below
+                }
+                for (SelectionKey key : selector.keys()) {
+                    ((Game) key.attachment()).fail(closedByClient);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private static void handle(SelectionKey key) {
+            Game game = (Game) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    game.onConnectable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    game.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    game.onReadable();
+                }
+            } catch (IOException | RuntimeException e) {
+                game.fail(e);
+            }
+        }
+    }
+}
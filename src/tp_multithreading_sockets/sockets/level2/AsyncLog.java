@@ -0,0 +1,85 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Console logging off the game threads: messages are queued and printed in batches by one
+ * daemon thread. When the queue is full a message is dropped (and counted) rather than
+ * making a player wait for the terminal.
+ */
+final class AsyncLog {
+    private static final int CAPACITY = 65536;
+    private static final int MAX_BATCH = 512;
+
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(CAPACITY);
+    private static final AtomicLong ENQUEUED = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile long printed;
+
+    static {
+        Thread writer = new Thread(AsyncLog::drainLoop, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private AsyncLog() {
+    }
+
+    static void log(String message) {
+        if (QUEUE.offer(message)) {
+            ENQUEUED.incrementAndGet();
+        } else {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    static long getDropped() {
+        return DROPPED.get();
+    }
+
+    /**
+     * Waits (up to {@code timeoutMillis}) until every message queued before this call is printed.
+     */
+    static void flush(long timeoutMillis) {
+        long target = ENQUEUED.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (printed < target && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void drainLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE.drainTo(batch, MAX_BATCH - 1);
+
+            for (String message : batch) {
+                text.append(message).append(System.lineSeparator());
+            }
+            PrintStream out = System.out;
+            out.print(text);
+            out.flush();
+
+            printed += batch.size();
+            batch.clear();
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Compact protocol: every message is a 1-byte opcode followed by varint fields
+ * (LEB128, zigzag for signed numbers, length-prefixed UTF-8 for strings).
+ *
+ * A client asks for it by sending {@link #HELLO} as the very first byte of the connection. The
+ * server has already sent the text prompt at that point, so a binary client skips one text line.
+ *
+ * Client → server: NAME [len][utf8], GUESS [zigzag], QUIT, RESUME [len][token],
+ * RANGE [zigzag min][zigzag max] (before NAME; INVALID if the server does not offer it),
+ * JOIN [len][room] (before NAME).
+ * Server → client: WELCOME [zigzag min][zigzag max][len][token], TOO_LOW, TOO_HIGH, INVALID,
+ * CORRECT [attempts][rank][len][leaderboard utf8],
+ * RESUMED [zigzag min][zigzag max][attempts][len][token],
+ * ROOM_HINT [zigzag guess][0 = too low, 1 = too high][len][player],
+ * ROOM_WINNER [zigzag number][attempts][len][player].
+ * The token is empty when the server does not park games; an unknown token gets INVALID.
+ */
+final class BinaryProtocol implements Protocol {
+    static final BinaryProtocol INSTANCE = new BinaryProtocol();
+
+    /** Never the first byte of a text line (not valid on its own in UTF-8). */
+    static final byte HELLO = (byte) 0xB1;
+
+    static final byte NAME = 0x01;
+    static final byte GUESS = 0x02;
+    static final byte QUIT = 0x03;
+    static final byte RESUME = 0x04;
+    static final byte RANGE = 0x05;
+    static final byte JOIN = 0x06;
+
+    static final byte WELCOME = 0x11;
+    static final byte TOO_LOW = 0x12;
+    static final byte TOO_HIGH = 0x13;
+    static final byte INVALID = 0x14;
+    static final byte CORRECT = 0x15;
+    static final byte RESUMED = 0x16;
+    static final byte ROOM_HINT = 0x17;
+    static final byte ROOM_WINNER = 0x18;
+
+    private static final int MAX_NAME_BYTES = 200;
+    private static final int MAX_TOKEN_BYTES = 64;
+
+    private BinaryProtocol() {
+    }
+
+    @Override
+    public void prompt(ResponseBuffer out) {
+        // The text prompt went out before the client switched protocols
+    }
+
+    @Override
+    public void welcome(String playerName, long min, long max, String sessionToken, ResponseBuffer out) {
+        out.append(WELCOME);
+        writeSignedVarint(out, min);
+        writeSignedVarint(out, max);
+        writeString(out, sessionToken == null ? "" : sessionToken, MAX_TOKEN_BYTES);
+    }
+
+    @Override
+    public void resumed(String playerName, long min, long max, int attempts, String sessionToken, ResponseBuffer out) {
+        out.append(RESUMED);
+        writeSignedVarint(out, min);
+        writeSignedVarint(out, max);
+        writeVarint(out, attempts);
+        writeString(out, sessionToken, MAX_TOKEN_BYTES);
+    }
+
+    @Override
+    public void unknownSession(ResponseBuffer out) {
+        out.append(INVALID);
+    }
+
+    @Override
+    public void tooLow(ResponseBuffer out) {
+        out.append(TOO_LOW);
+    }
+
+    @Override
+    public void tooHigh(ResponseBuffer out) {
+        out.append(TOO_HIGH);
+    }
+
+    @Override
+    public void invalid(String message, ResponseBuffer out) {
+        out.append(INVALID);
+    }
+
+    @Override
+    public void roomHint(String playerName, long guess, boolean tooLow, ResponseBuffer out) {
+        out.append(ROOM_HINT);
+        writeSignedVarint(out, guess);
+        out.append(tooLow ? (byte) 0 : (byte) 1);
+        writeString(out, playerName, MAX_NAME_BYTES);
+    }
+
+    @Override
+    public void roomWinner(String playerName, int attempts, long magicNumber, ResponseBuffer out) {
+        out.append(ROOM_WINNER);
+        writeSignedVarint(out, magicNumber);
+        writeVarint(out, attempts);
+        writeString(out, playerName, MAX_NAME_BYTES);
+    }
+
+    @Override
+    public void correct(String playerName, int attempts, int binarySearchAttempts, Leaderboard.Snapshot board,
+                        long rank, ResponseBuffer out) {
+        ByteBuffer boardBytes = board.toByteBuffer();
+        out.append(CORRECT);
+        writeVarint(out, attempts);
+        writeVarint(out, rank);
+        writeVarint(out, boardBytes.remaining());
+        out.append(boardBytes);
+    }
+
+    // ---- server side decoding ----
+
+    /**
+     * Feeds every complete frame in {@code in} to the session and leaves a trailing partial frame
+     * in the buffer. Returns false if the client sent something that is not a valid frame.
+     */
+    static boolean decode(ByteBuffer in, GameSession session, ResponseBuffer out) {
+        while (in.hasRemaining() && !session.isDone()) {
+            int start = in.position();
+            try {
+                byte opcode = in.get();
+                if (opcode == NAME || opcode == RESUME || opcode == JOIN) {
+                    long length = readVarint(in);
+                    if (length < 0 || length > (opcode == NAME ? MAX_NAME_BYTES : MAX_TOKEN_BYTES)) {
+                        return false;
+                    }
+                    if (length > in.remaining()) {
+                        in.position(start);
+                        return true;
+                    }
+                    String text = new String(in.array(), in.arrayOffset() + in.position(), (int) length,
+                            StandardCharsets.UTF_8);
+                    in.position(in.position() + (int) length);
+                    if (opcode == NAME) {
+                        session.onName(text, out);
+                    } else if (opcode == JOIN) {
+                        session.onJoin(text, out);
+                    } else {
+                        session.onResume(text, out);
+                    }
+                } else if (opcode == RANGE) {
+                    long min = zigzagDecode(readVarint(in));
+                    session.onRange(new NumberRange(min, zigzagDecode(readVarint(in))), out);
+                } else if (opcode == GUESS) {
+                    session.onGuess(zigzagDecode(readVarint(in)), out);
+                } else if (opcode == QUIT) {
+                    session.onQuit();
+                } else {
+                    return false;
+                }
+            } catch (BufferUnderflowException e) {
+                in.position(start);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Blocking counterpart of {@link #decode}: reads one frame and feeds it to the session.
+     * Returns false if the frame is not valid; throws {@link EOFException} when the peer closed
+     * the connection, so a normal disconnect is not mistaken for bad input.
+     */
+    static boolean readFrame(DataInputStream in, GameSession session, ResponseBuffer out) throws IOException {
+        int opcode = in.read();
+        if (opcode < 0) {
+            throw new EOFException("Connection closed");
+        }
+        if (opcode == NAME || opcode == RESUME || opcode == JOIN) {
+            long length = readVarint(in);
+            if (length < 0 || length > (opcode == NAME ? MAX_NAME_BYTES : MAX_TOKEN_BYTES)) {
+                return false;
+            }
+            byte[] text = new byte[(int) length];
+            in.readFully(text);
+            if (opcode == NAME) {
+                session.onName(new String(text, StandardCharsets.UTF_8), out);
+            } else if (opcode == JOIN) {
+                session.onJoin(new String(text, StandardCharsets.UTF_8), out);
+            } else {
+                session.onResume(new String(text, StandardCharsets.UTF_8), out);
+            }
+        } else if (opcode == RANGE) {
+            long min = zigzagDecode(readVarint(in));
+            long max = zigzagDecode(readVarint(in));
+            if (min > max) {
+                return false;
+            }
+            session.onRange(new NumberRange(min, max), out);
+        } else if (opcode == GUESS) {
+            session.onGuess(zigzagDecode(readVarint(in)), out);
+        } else if (opcode == QUIT) {
+            session.onQuit();
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // ---- client side encoding ----
+
+    static void writeName(ResponseBuffer out, String name) {
+        out.append(NAME);
+        writeString(out, name, MAX_NAME_BYTES);
+    }
+
+    static void writeResume(ResponseBuffer out, String token) {
+        out.append(RESUME);
+        writeString(out, token, MAX_TOKEN_BYTES);
+    }
+
+    /** Reads the length-prefixed token that ends WELCOME and RESUMED; empty means none. */
+    static String readToken(DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > MAX_TOKEN_BYTES) {
+            throw new IOException("Invalid session token length: " + length);
+        }
+        byte[] token = new byte[(int) length];
+        in.readFully(token);
+        return new String(token, StandardCharsets.UTF_8);
+    }
+
+    /** Cut to at most {@code maxBytes}, never inside a character, so the peer decodes no U+FFFD. */
+    static void writeString(ResponseBuffer out, String text, int maxBytes) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, maxBytes);
+        if (length < bytes.length) {
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;                           // bytes[length] continues the character before it
+            }
+        }
+        writeVarint(out, length);
+        out.append(Arrays.copyOf(bytes, length));
+    }
+
+    /** Throws {@link BufferUnderflowException} if the string is not complete yet. */
+    static String readString(ByteBuffer in, int maxBytes) {
+        long length = readVarint(in);
+        if (length < 0 || length > maxBytes) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeJoin(ResponseBuffer out, String room) {
+        out.append(JOIN);
+        writeString(out, room, MAX_TOKEN_BYTES);
+    }
+
+    static void writeRange(ResponseBuffer out, NumberRange range) {
+        out.append(RANGE);
+        writeSignedVarint(out, range.min());
+        writeSignedVarint(out, range.max());
+    }
+
+    static void writeGuess(ResponseBuffer out, long guess) {
+        out.append(GUESS);
+        writeSignedVarint(out, guess);
+    }
+
+    static void writeQuit(ResponseBuffer out) {
+        out.append(QUIT);
+    }
+
+    // ---- varints ----
+
+    static void writeVarint(ResponseBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.append((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.append((byte) value);
+    }
+
+    static void writeSignedVarint(ResponseBuffer out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Throws {@link BufferUnderflowException} if the varint is not complete yet. */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed inside a varint");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+}
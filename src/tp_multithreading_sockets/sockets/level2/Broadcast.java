@@ -0,0 +1,63 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * One message for every member of a {@link Room}, encoded once per protocol when it is created.
+ * Members get read-only views of the same bytes, so a fan-out to a thousand players costs a
+ * thousand writes, not a thousand encodings.
+ */
+final class Broadcast {
+    private final byte[] text;
+    private final byte[] binary;
+    private final boolean endsGame;
+
+    private Broadcast(ResponseBuffer text, ResponseBuffer binary, boolean endsGame) {
+        this.text = copyOf(text);
+        this.binary = copyOf(binary);
+        this.endsGame = endsGame;
+    }
+
+    static Broadcast hint(String playerName, long guess, boolean tooLow) {
+        ResponseBuffer text = new ResponseBuffer(64);
+        ResponseBuffer binary = new ResponseBuffer(32);
+        TextProtocol.INSTANCE.roomHint(playerName, guess, tooLow, text);
+        BinaryProtocol.INSTANCE.roomHint(playerName, guess, tooLow, binary);
+        return new Broadcast(text, binary, false);
+    }
+
+    static Broadcast winner(String playerName, int attempts, long magicNumber) {
+        ResponseBuffer text = new ResponseBuffer(64);
+        ResponseBuffer binary = new ResponseBuffer(32);
+        TextProtocol.INSTANCE.roomWinner(playerName, attempts, magicNumber, text);
+        BinaryProtocol.INSTANCE.roomWinner(playerName, attempts, magicNumber, binary);
+        return new Broadcast(text, binary, true);
+    }
+
+    /** A private view of the shared bytes: own position and limit, no copy. */
+    ByteBuffer bytesFor(Protocol protocol) {
+        return ByteBuffer.wrap(encodedFor(protocol)).asReadOnlyBuffer();
+    }
+
+    void writeTo(Protocol protocol, OutputStream out) throws IOException {
+        out.write(encodedFor(protocol));
+    }
+
+    private byte[] encodedFor(Protocol protocol) {
+        return protocol == BinaryProtocol.INSTANCE ? binary : text;
+    }
+
+    /** The round is over: the member's game ends once this has been written. */
+    boolean endsGame() {
+        return endsGame;
+    }
+
+    private static byte[] copyOf(ResponseBuffer encoded) {
+        ByteBuffer bytes = encoded.toByteBuffer();
+        return Arrays.copyOfRange(bytes.array(), 0, bytes.remaining());
+    }
+}
@@ -0,0 +1,220 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Blocking handler for one player. The game itself is a {@link GameSession}; each step's reply is
+ * encoded into one {@link ResponseBuffer} and handed to the socket in a single write, so a guess
+ * costs one segment instead of one per line.
+ *
+ * The handler thread spends its time blocked in read, so room broadcasts are queued and written
+ * by a virtual thread started with the first one.
+ */
+class ClientHandler implements Runnable, RoomMember {
+    private volatile Socket clientSocket;
+    private ServerContext context;
+    private GameSession session;
+    private OutputStream out;
+    private final Object writeLock = new Object();
+    private final BlockingQueue<Broadcast> inbox = new ArrayBlockingQueue<>(MAX_PENDING_BROADCASTS);
+    private Thread roomWriter;
+    private boolean dropped;
+    private volatile boolean closedByServer;
+
+    public ClientHandler(Socket clientSocket, Leaderboard leaderboard) {
+        this(clientSocket, ServerContext.of(leaderboard));
+    }
+
+    public ClientHandler(Socket clientSocket, ServerContext context) {
+        this.clientSocket = clientSocket;
+        this.context = context;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // No I/O yet: the TLS handshake runs on this thread, at the first write below
+            clientSocket = context.tls().wrap(clientSocket);
+        } catch (IOException e) {
+            System.err.println("Error starting TLS: " + e.getMessage());
+            closeSocket();
+            return;
+        }
+        String clientIP = clientSocket.getInetAddress().getHostAddress();
+        GameSession session = new GameSession(context, clientIP);
+        this.session = session;
+        session.attach(this);
+        ResponseBuffer response = new ResponseBuffer();
+        // Closing the socket from the wheel thread unblocks the read below
+        ConnectionTimeouts.Deadlines deadlines = context.timeouts().watch(clientIP, this::closeSocket);
+        ServerMetrics.increment(ServerMetrics.CONNECTIONS_OPENED);
+
+        try (InputStream in = new BufferedInputStream(new ActivityInputStream(clientSocket.getInputStream(), deadlines));
+             OutputStream out = clientSocket.getOutputStream()) {
+            this.out = out;
+            // Every write is a complete reply, so there is nothing for Nagle to coalesce
+            clientSocket.setTcpNoDelay(true);
+
+            session.start(response);
+            flush(response);
+
+            // A binary client announces itself with its first byte
+            in.mark(1);
+            if (in.read() == (BinaryProtocol.HELLO & 0xFF)) {
+                session.useProtocol(BinaryProtocol.INSTANCE);
+                playBinary(new DataInputStream(in), response, deadlines);
+            } else {
+                in.reset();
+                playText(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), response, deadlines);
+            }
+        } catch (IOException e) {
+            if (!deadlines.isExpired() && !closedByServer) {
+                System.err.println("Error handling client: " + e.getMessage());
+            }
+        } finally {
+            deadlines.stop();
+            session.onDisconnect();
+            closeSocket();
+            synchronized (this) {
+                if (roomWriter != null) {
+                    roomWriter.interrupt();
+                }
+            }
+            ServerMetrics.increment(ServerMetrics.CONNECTIONS_CLOSED);
+        }
+    }
+
+    /** Ends the game from another thread: closing the socket unblocks the handler's read. */
+    void closeByServer() {
+        closedByServer = true;
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client socket: " + e.getMessage());
+        }
+    }
+
+    private void playText(BufferedReader in, ResponseBuffer response,
+                          ConnectionTimeouts.Deadlines deadlines) throws IOException {
+        while (!session.isDone()) {
+            String line = in.readLine();
+            if (line == null) {
+                return;
+            }
+            deadlines.onRequest(false);
+            session.onLine(line, response);
+            flush(response);
+        }
+    }
+
+    private void playBinary(DataInputStream in, ResponseBuffer response,
+                            ConnectionTimeouts.Deadlines deadlines) throws IOException {
+        while (!session.isDone()) {
+            try {
+                if (!BinaryProtocol.readFrame(in, session, response)) {
+                    ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+                    return;
+                }
+            } catch (EOFException e) {
+                return;                             // the client hung up, possibly mid-frame
+            }
+            deadlines.onRequest(false);
+            flush(response);
+        }
+    }
+
+    private void flush(ResponseBuffer response) throws IOException {
+        if (!response.isEmpty()) {
+            synchronized (writeLock) {
+                response.writeTo(out);
+            }
+            response.reset();
+        }
+    }
+
+    @Override
+    public void deliver(Broadcast broadcast) {
+        if (!inbox.offer(broadcast)) {
+            // Too far behind the room: drop it rather than buffer without bound
+            synchronized (this) {
+                if (dropped) {
+                    return;
+                }
+                dropped = true;
+            }
+            ServerMetrics.increment(ServerMetrics.ROOM_MEMBERS_DROPPED);
+            closeSocket();
+            return;
+        }
+        synchronized (this) {
+            if (roomWriter == null) {
+                roomWriter = Thread.ofVirtual().name("room-writer").start(this::writeBroadcasts);
+            }
+        }
+    }
+
+    private void writeBroadcasts() {
+        List<Broadcast> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(inbox.take());
+                inbox.drainTo(batch);
+                boolean endsGame = false;
+                synchronized (writeLock) {
+                    for (Broadcast broadcast : batch) {
+                        broadcast.writeTo(session.getProtocol(), out);
+                        endsGame |= broadcast.endsGame();
+                    }
+                }
+                batch.clear();
+                if (endsGame) {
+                    // The round is over: let the client read the winner, then see the end of the stream
+                    clientSocket.shutdownOutput();
+                    return;
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // connection finished or closed under us
+        }
+    }
+
+
+    /** Tells the deadlines whenever bytes arrive from the client. */
+    private static class ActivityInputStream extends FilterInputStream {
+        private final ConnectionTimeouts.Deadlines deadlines;
+
+        ActivityInputStream(InputStream in, ConnectionTimeouts.Deadlines deadlines) {
+            super(in);
+            this.deadlines = deadlines;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                deadlines.onBytes();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                deadlines.onBytes();
+            }
+            return read;
+        }
+    }
+}
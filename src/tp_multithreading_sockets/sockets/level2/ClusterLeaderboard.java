@@ -0,0 +1,218 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+/**
+ * One {@link Leaderboard} shared by several server processes, for example behind a load balancer.
+ * The {@link ClusterNode} publishes it to the peers and hands it the digests of the board with the
+ * same name, {@code board}. Each digest is merged incrementally:
+ * - the difference from that node's previous digest goes into one {@link RankIndex} for all remote nodes
+ * - the remote top-N lists are merged into one, keeping the best {@code maxEntries}
+ *
+ * Global rank = local rank + remote rank - 1, and the global board is the local top-N merged with
+ * the remote one. Local wins count right away. A remote win shows up after at most one publish
+ * period plus the datagram's trip.
+ *
+ * Each peer holds at most one node entry: a peer that comes back under another node id replaces
+ * its old entry.
+ */
+public class ClusterLeaderboard {
+    private final ClusterNode node;
+    private final String board;
+    private final Leaderboard local;
+    private final RankIndex remoteRanks;
+
+    // Guarded by this: the last digest merged from every remote node
+    private final Map<String, LeaderboardDigest> nodes = new HashMap<>();
+    // The node each peer last spoke for, so there are never more nodes than peers
+    private final Map<InetSocketAddress, String> nodeOfPeer = new HashMap<>();
+    private volatile List<PlayerScore> remoteTop = List.of();
+    private volatile long remoteVersion;
+    private volatile Rendered rendered;
+
+    // Only used by the node's publisher thread, and by its close() once that thread stopped
+    private long sequence;
+    private long publishedVersion = -1;
+    private long publishedTotal = -1;
+
+    ClusterLeaderboard(ClusterNode node, String board, Leaderboard local) {
+        this.node = node;
+        this.board = board;
+        this.local = local;
+        this.remoteRanks = new RankIndex(local.getRankIndex().getMaxAttempts());
+    }
+
+    /** Rank among the scores of every node, counting remote scores up to their last digest. */
+    public long getRank(int attempts) {
+        return local.getRank(attempts) + remoteRanks.rankOf(attempts) - 1;
+    }
+
+    public long getTotalScores() {
+        return local.getTotalScores() + remoteRanks.size();
+    }
+
+    public List<PlayerScore> getLeaderboard() {
+        TreeSet<PlayerScore> merged = new TreeSet<>(local.getLeaderboard());
+        merged.addAll(remoteTop);
+        List<PlayerScore> top = new ArrayList<>(local.getMaxEntries());
+        for (PlayerScore score : merged) {
+            if (top.size() == local.getMaxEntries()) {
+                break;
+            }
+            top.add(score);
+        }
+        return top;
+    }
+
+    /** The global board, rendered again only when the local board or a remote one changed. */
+    public Leaderboard.Snapshot getSnapshot() {
+        long localVersion = local.getVersion();
+        long currentRemote = remoteVersion;
+        Rendered current = rendered;
+        if (current == null || current.localVersion != localVersion || current.remoteVersion != currentRemote) {
+            current = new Rendered(localVersion, currentRemote, new Leaderboard.Snapshot(
+                    localVersion + currentRemote, Leaderboard.render(getLeaderboard())));
+            rendered = current;
+        }
+        return current.snapshot;
+    }
+
+    public String getBoard() {
+        return board;
+    }
+
+    public String getNodeId() {
+        return node.getNodeId();
+    }
+
+    /** Number of other nodes heard from so far. */
+    public synchronized int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Folds one digest from peer {@code from} into the global view. Old or duplicate digests are
+     * ignored; returns whether this one was merged.
+     */
+    synchronized boolean merge(LeaderboardDigest digest, InetSocketAddress from) {
+        long start = System.nanoTime();
+        if (digest.getNodeId().equals(node.getNodeId())) {
+            return false;
+        }
+        String previousId = nodeOfPeer.put(from, digest.getNodeId());
+        if (previousId != null && !previousId.equals(digest.getNodeId())) {
+            forget(previousId);
+        }
+        LeaderboardDigest previous = nodes.get(digest.getNodeId());
+        if (!digest.isNewerThan(previous)) {
+            ServerMetrics.increment(ServerMetrics.CLUSTER_DIGESTS_STALE);
+            return false;
+        }
+        nodes.put(digest.getNodeId(), digest);
+        applyDifference(previous, digest);
+
+        if (previous == null || !sameScores(previous.getTop(), digest.getTop())) {
+            mergeRemoteTop();
+        }
+
+        ServerMetrics.increment(ServerMetrics.CLUSTER_DIGESTS_MERGED);
+        ServerMetrics.CLUSTER_MERGE.record(System.nanoTime() - start);
+        ServerMetrics.CLUSTER_DIGEST_AGE.record(
+                Math.max(0, LeaderboardDigest.nowMicros() - digest.getCreatedAtMicros()) * 1000);
+        return true;
+    }
+
+    /** Takes out everything node {@code id} contributed: it is now known under another id. */
+    private void forget(String id) {
+        LeaderboardDigest old = nodes.remove(id);
+        if (old == null) {
+            return;
+        }
+        int[] attempts = old.getAttempts();
+        long[] counts = old.getCounts();
+        for (int i = 0; i < attempts.length; i++) {
+            remoteRanks.record(attempts[i], -counts[i]);
+        }
+        mergeRemoteTop();
+    }
+
+    /** Every remote top-N holds that node's best scores, so the best of their union is the remote top. */
+    private void mergeRemoteTop() {
+        TreeSet<PlayerScore> merged = new TreeSet<>();
+        for (LeaderboardDigest node : nodes.values()) {
+            merged.addAll(node.getTop());
+        }
+        List<PlayerScore> top = new ArrayList<>(local.getMaxEntries());
+        for (PlayerScore score : merged) {
+            if (top.size() == local.getMaxEntries()) {
+                break;
+            }
+            top.add(score);
+        }
+        remoteTop = top;
+        remoteVersion++;
+    }
+
+    /** Adds {@code digest - previous} to the remote counts, walking both sorted bucket lists once. */
+    private void applyDifference(LeaderboardDigest previous, LeaderboardDigest digest) {
+        int[] oldAttempts = previous == null ? new int[0] : previous.getAttempts();
+        long[] oldCounts = previous == null ? new long[0] : previous.getCounts();
+        int[] newAttempts = digest.getAttempts();
+        long[] newCounts = digest.getCounts();
+        int i = 0;
+        int j = 0;
+        while (i < oldAttempts.length || j < newAttempts.length) {
+            if (j == newAttempts.length || (i < oldAttempts.length && oldAttempts[i] < newAttempts[j])) {
+                remoteRanks.record(oldAttempts[i], -oldCounts[i]);   // restarted node lost the bucket
+                i++;
+            } else if (i == oldAttempts.length || newAttempts[j] < oldAttempts[i]) {
+                remoteRanks.record(newAttempts[j], newCounts[j]);
+                j++;
+            } else {
+                long delta = newCounts[j] - oldCounts[i];
+                if (delta != 0) {
+                    remoteRanks.record(newAttempts[j], delta);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static boolean sameScores(List<PlayerScore> a, List<PlayerScore> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            PlayerScore x = a.get(i);
+            PlayerScore y = b.get(i);
+            if (x.getAttempts() != y.getAttempts() || !x.getPlayerName().equals(y.getPlayerName())
+                    || !x.getIpAddress().equals(y.getIpAddress())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether the local board changed since the last digest was taken. */
+    boolean changedSinceLastDigest() {
+        return local.getVersion() != publishedVersion || local.getTotalScores() != publishedTotal;
+    }
+
+    /** A digest of the local board as it is now, with the next sequence number. */
+    LeaderboardDigest nextDigest() {
+        publishedVersion = local.getVersion();
+        publishedTotal = local.getTotalScores();
+        return LeaderboardDigest.of(node.getNodeId(), board, node.getIncarnation(), ++sequence, local);
+    }
+
+
+    private record Rendered(long localVersion, long remoteVersion, Leaderboard.Snapshot snapshot) {
+    }
+}
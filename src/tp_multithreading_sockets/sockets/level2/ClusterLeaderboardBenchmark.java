@@ -0,0 +1,113 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs several {@link ClusterNode}s in one process, each on its own UDP port on
+ * localhost. It feeds them a steady rate of wins and reports:
+ * - the cost of merging one digest, and the digest's size and age on arrival
+ * - the staleness of every node's global view: every 10 ms a sampler counts how many wins the view
+ *   is missing, and divides by the win rate to turn that into milliseconds
+ * Once the wins stop, it also checks that every node converges to the same totals, board and ranks.
+ *
+ * Usage: java ClusterLeaderboardBenchmark [nodes=4] [winsPerSec=10000] [seconds=10] [publishMs=100] [basePort=29201]
+ */
+public class ClusterLeaderboardBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length >= 1 ? Integer.parseInt(args[0]) : 4;
+        int winsPerSec = args.length >= 2 ? Integer.parseInt(args[1]) : 10_000;
+        int seconds = args.length >= 3 ? Integer.parseInt(args[2]) : 10;
+        long publishMillis = args.length >= 4 ? Long.parseLong(args[3]) : ClusterNode.DEFAULT_PUBLISH_MILLIS;
+        int basePort = args.length >= 5 ? Integer.parseInt(args[4]) : 29201;
+
+        List<Leaderboard> boards = new ArrayList<>();
+        List<ClusterNode> cluster = new ArrayList<>();
+        List<ClusterLeaderboard> nodes = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            List<InetSocketAddress> peers = new ArrayList<>();
+            for (int j = 0; j < nodeCount; j++) {
+                if (j != i) {
+                    peers.add(new InetSocketAddress("127.0.0.1", basePort + j));
+                }
+            }
+            Leaderboard board = new Leaderboard(10);
+            boards.add(board);
+            cluster.add(ClusterNode.start("node-" + i, basePort + i, peers, publishMillis, board));
+            nodes.add(board.getCluster());
+        }
+
+        LatencyHistogram staleness = new LatencyHistogram();
+        long[] maxMissing = new long[1];
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(10_000_000L);
+                long total = 0;
+                for (Leaderboard board : boards) {
+                    total += board.getTotalScores();
+                }
+                for (ClusterLeaderboard node : nodes) {
+                    long missing = Math.max(0, total - node.getTotalScores());
+                    maxMissing[0] = Math.max(maxMissing[0], missing);
+                    staleness.record(missing * 1_000_000_000L / winsPerSec);
+                }
+            }
+        }, "staleness-sampler");
+        sampler.start();
+
+        // One pacer adds a batch of wins every millisecond, round-robin over the nodes
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        long added = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            long due = (System.nanoTime() - start) * winsPerSec / 1_000_000_000L;
+            for (; added < due; added++) {
+                boards.get((int) (added % nodeCount)).addScore("player-" + random.nextInt(100_000),
+                        1 + random.nextInt(7), "127.0.0.1");
+            }
+            LockSupport.parkNanos(1_000_000L);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        sampler.interrupt();
+        sampler.join();
+
+        // A heartbeat republishes every board within 10 quiet periods
+        Thread.sleep(publishMillis * 12);
+        long total = 0;
+        for (Leaderboard board : boards) {
+            total += board.getTotalScores();
+        }
+        boolean converged = true;
+        String reference = Leaderboard.render(nodes.get(0).getLeaderboard());
+        for (ClusterLeaderboard node : nodes) {
+            converged &= node.getTotalScores() == total
+                    && node.getRank(4) == nodes.get(0).getRank(4)
+                    && Leaderboard.render(node.getLeaderboard()).equals(reference);
+        }
+        int digestBytes = LeaderboardDigest.of("node-0", NumberRange.DEFAULT.toString(), 1, 1, boards.get(0)).encode().remaining();
+        for (ClusterNode node : cluster) {
+            node.close();
+        }
+
+        LatencyHistogram merge = ServerMetrics.CLUSTER_MERGE;
+        LatencyHistogram age = ServerMetrics.CLUSTER_DIGEST_AGE;
+        System.out.printf("nodes=%d publish_ms=%d wins_per_sec=%.0f wins=%d digest_bytes=%d digests_merged=%d "
+                        + "digests_stale=%d%n",
+                nodeCount, publishMillis, added / elapsed, added, digestBytes,
+                ServerMetrics.CLUSTER_DIGESTS_MERGED.sum(), ServerMetrics.CLUSTER_DIGESTS_STALE.sum());
+        System.out.printf("merge_us p50=%.1f p99=%.1f max=%.1f%n", merge.getPercentile(50) / 1000.0,
+                merge.getPercentile(99) / 1000.0, merge.getMax() / 1000.0);
+        System.out.printf("digest_age_ms p50=%.2f p99=%.2f max=%.2f%n", age.getPercentile(50) / 1e6,
+                age.getPercentile(99) / 1e6, age.getMax() / 1e6);
+        System.out.printf("staleness_ms p50=%.1f p99=%.1f max=%.1f max_missing_wins=%d%n",
+                staleness.getPercentile(50) / 1e6, staleness.getPercentile(99) / 1e6, staleness.getMax() / 1e6,
+                maxMissing[0]);
+        System.out.printf("converged=%b global_total=%d%n", converged, total);
+    }
+}
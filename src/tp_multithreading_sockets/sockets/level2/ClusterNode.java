@@ -0,0 +1,221 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * One server process in a cluster: the UDP socket, the peers, and a {@link ClusterLeaderboard} for
+ * each leaderboard it shares, keyed by board name (the range name, see {@link GameRanges}).
+ *
+ * Every {@code publishMillis} it sends each peer a {@link LeaderboardDigest} of every board that
+ * changed, plus a heartbeat every {@link #HEARTBEAT_PERIODS} periods so a lost datagram gets
+ * repaired. A digest it receives goes to the board of the same name. A board this node does not
+ * have (the nodes were started with different {@code --ranges}) is counted as invalid.
+ *
+ * Only datagrams from a configured peer (same address and port) are merged.
+ */
+public class ClusterNode implements Closeable {
+    static final long DEFAULT_PUBLISH_MILLIS = 100;
+    private static final int HEARTBEAT_PERIODS = 10;
+
+    private final String nodeId;
+    private final long incarnation = LeaderboardDigest.nowMicros();
+    private final DatagramChannel channel;
+    private final List<InetSocketAddress> peers;
+    private final Set<InetSocketAddress> peerAddresses;
+    private final long publishMillis;
+    private final Map<String, ClusterLeaderboard> boards = new LinkedHashMap<>();
+    private final Thread publisher;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    private ClusterNode(String nodeId, DatagramChannel channel, List<InetSocketAddress> peers, long publishMillis) {
+        this.nodeId = nodeId;
+        this.channel = channel;
+        this.peers = List.copyOf(peers);
+        this.peerAddresses = new HashSet<>(peers);
+        this.publishMillis = publishMillis;
+        this.publisher = new Thread(this::publishLoop, "cluster-publisher");
+        this.receiver = new Thread(this::receiveLoop, "cluster-receiver");
+        publisher.setDaemon(true);
+        receiver.setDaemon(true);
+    }
+
+    /**
+     * Listens for digests on UDP {@code port} (0 = any free port) and starts publishing every board
+     * of {@code leaderboards} to {@code peers}. From now on {@link Leaderboard#getCluster()} of each
+     * board returns its cluster-wide view.
+     */
+    public static ClusterNode start(String nodeId, int port, List<InetSocketAddress> peers, long publishMillis,
+                                    Map<String, Leaderboard> leaderboards) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress("0.0.0.0", port));
+        ClusterNode node = new ClusterNode(nodeId, channel, peers, publishMillis);
+        leaderboards.forEach((name, local) -> {
+            ClusterLeaderboard board = new ClusterLeaderboard(node, name, local);
+            node.boards.put(name, board);
+            local.attach(board);
+        });
+        node.receiver.start();
+        node.publisher.start();
+        return node;
+    }
+
+    /** Only one board, for a node that offers a single range. */
+    public static ClusterNode start(String nodeId, int port, List<InetSocketAddress> peers, long publishMillis,
+                                    Leaderboard leaderboard) throws IOException {
+        return start(nodeId, port, peers, publishMillis, Map.of(NumberRange.DEFAULT.toString(), leaderboard));
+    }
+
+    /** Parses {@code host:port,host:port}; an empty string means no peers. */
+    static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : spec.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected host:port, got " + peer);
+            }
+            peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    long getIncarnation() {
+        return incarnation;
+    }
+
+    public ClusterLeaderboard getBoard(String name) {
+        return boards.get(name);
+    }
+
+    public Collection<ClusterLeaderboard> getBoards() {
+        return boards.values();
+    }
+
+    private void publishLoop() {
+        int quietPeriods = 0;
+        while (running) {
+            try {
+                Thread.sleep(publishMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean heartbeat = ++quietPeriods >= HEARTBEAT_PERIODS;
+            if (heartbeat) {
+                quietPeriods = 0;
+            }
+            try {
+                for (ClusterLeaderboard board : boards.values()) {
+                    if (board.changedSinceLastDigest() || heartbeat) {
+                        publish(board);
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Cannot publish leaderboard digest: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Sends a digest of every board to every peer now. */
+    void publish() throws IOException {
+        for (ClusterLeaderboard board : boards.values()) {
+            publish(board);
+        }
+    }
+
+    private void publish(ClusterLeaderboard board) throws IOException {
+        ByteBuffer bytes = board.nextDigest().encode();
+        if (bytes.remaining() > LeaderboardDigest.MAX_BYTES) {
+            throw new IOException("Digest too large for one datagram: " + bytes.remaining() + " bytes");
+        }
+        for (InetSocketAddress peer : peers) {
+            channel.send(bytes.duplicate(), peer);
+            ServerMetrics.increment(ServerMetrics.CLUSTER_DIGESTS_SENT);
+        }
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(LeaderboardDigest.MAX_BYTES);
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                if (from == null) {
+                    continue;
+                }
+                if (!peerAddresses.contains(from)) {
+                    // Not decoded at all: anybody could otherwise add scores to every rank
+                    ServerMetrics.increment(ServerMetrics.CLUSTER_DIGESTS_UNKNOWN_SENDER);
+                    continue;
+                }
+                buffer.flip();
+                LeaderboardDigest digest = LeaderboardDigest.decode(buffer);
+                ClusterLeaderboard board = boards.get(digest.getBoard());
+                if (board == null) {
+                    throw new IllegalArgumentException("Unknown board: " + digest.getBoard());
+                }
+                board.merge(digest, (InetSocketAddress) from);
+            } catch (IllegalArgumentException e) {
+                ServerMetrics.increment(ServerMetrics.CLUSTER_DIGESTS_INVALID);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Cluster receive error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Sends a last digest of every board so the peers get this node's final scores, then stops. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        publisher.interrupt();
+        try {
+            publisher.join();
+            publish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Cannot publish final leaderboard digest: " + e.getMessage());
+        }
+        channel.close();
+        try {
+            receiver.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Reconnect storm: many client threads open {@code connections} connections as fast as they can
+ * (each one is closed right after the handshake) against every accept design, and the server's
+ * own counter tells when all of them have been accepted.
+ *
+ * Reports the accept rate, connections the client completed but the server never saw (their final
+ * ACK overflowed the accept queue and the client had already closed), client connect latency
+ * (a handshake dropped by a full backlog shows up as a 1 s retransmit) and the kernel's
+ * ListenOverflows / ListenDrops counters from /proc/net/netstat.
+ *
+ * Usage: java ConnectionStormBenchmark [connections] [acceptors] [backlog] [clientThreads]
+ */
+public class ConnectionStormBenchmark {
+    private static final long TIMEOUT_NANOS = 60_000_000_000L;
+    private static final long SETTLE_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length >= 1 ? Integer.parseInt(args[0]) : 20000;
+        int acceptors = args.length >= 2 ? Integer.parseInt(args[1])
+                : Math.max(2, Runtime.getRuntime().availableProcessors());
+        int backlog = args.length >= 3 ? Integer.parseInt(args[2]) : NioMagicNumberServer.DEFAULT_BACKLOG;
+        int clientThreads = args.length >= 4 ? Integer.parseInt(args[3]) : 64;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Warm-up on the default design
+        storm("warmup", 1, backlog, false, Math.min(connections, 2000), clientThreads);
+
+        console.println(storm("blocking", 1, backlog, false, connections, clientThreads));
+        console.println(storm("blocking", acceptors, backlog, false, connections, clientThreads));
+        console.println(storm("nio_acceptor_thread", acceptors, backlog, true, connections, clientThreads));
+        console.println(storm("nio_sharded", acceptors, backlog, true, connections, clientThreads));
+        System.exit(0);
+    }
+
+    private static String storm(String variant, int acceptors, int backlog, boolean nio,
+                                int connections, int clientThreads) throws Exception {
+        Closeable server;
+        LongSupplier acceptedCount;
+        int port;
+        int listeners;
+        ExecutorService executor = null;
+        if (nio) {
+            boolean sharded = variant.equals("nio_sharded");
+            NioMagicNumberServer nioServer = new NioMagicNumberServer(0, acceptors, backlog, sharded,
+                    ServerContext.of(new Leaderboard(10)));
+            nioServer.start();
+            server = nioServer;
+            acceptedCount = nioServer::getAcceptedCount;
+            port = nioServer.getPort();
+            listeners = sharded ? nioServer.getListenerCount() : 1;
+        } else {
+            executor = ExecutionMode.VIRTUAL.createExecutor(0, 0);
+            AcceptorGroup group = new AcceptorGroup(0, acceptors, backlog);
+            group.start(ServerContext.of(new Leaderboard(10)), executor, new Semaphore(Integer.MAX_VALUE));
+            server = group;
+            acceptedCount = group::getAcceptedCount;
+            port = group.getPort();
+            listeners = group.getListenerCount();
+        }
+
+        long overflowsBefore = KernelCounters.read("/proc/net/netstat", "TcpExt:", "ListenOverflows");
+        long dropsBefore = KernelCounters.read("/proc/net/netstat", "TcpExt:", "ListenDrops");
+        LatencyHistogram connectLatency = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < clientThreads; t++) {
+            Thread client = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (next.getAndIncrement() < connections) {
+                    long start = System.nanoTime();
+                    try (Socket socket = new Socket()) {
+                        socket.connect(target, 10_000);
+                        connectLatency.record(System.nanoTime() - start);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        long acceptedBefore = acceptedCount.getAsLong();
+        long lastCount = acceptedBefore;
+        long acceptedAt = start;
+        while (true) {
+            // Stop when everything is accepted, or when the clients are done and nothing moved for
+            // a while: a handshake whose final ACK overflowed the accept queue never arrives once
+            // the client has closed its side.
+            long count = acceptedCount.getAsLong();
+            long now = System.nanoTime();
+            if (count != lastCount) {
+                lastCount = count;
+                acceptedAt = now;
+            }
+            if (count - acceptedBefore >= connections || now - start > TIMEOUT_NANOS
+                    || (!anyAlive(clients) && now - acceptedAt > SETTLE_NANOS)) {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        long accepted = lastCount - acceptedBefore;
+        double seconds = (acceptedAt - start) / 1e9;
+        long overflows = KernelCounters.read("/proc/net/netstat", "TcpExt:", "ListenOverflows") - overflowsBefore;
+        long drops = KernelCounters.read("/proc/net/netstat", "TcpExt:", "ListenDrops") - dropsBefore;
+
+        server.close();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        return String.format("variant=%s acceptors=%d listeners=%d backlog=%d connections=%d accepted=%d lost=%d "
+                        + "accept_rate_per_sec=%.0f connect_p50_us=%.1f connect_p99_us=%.1f connect_max_us=%.1f "
+                        + "connect_failures=%d listen_overflows=%s listen_drops=%s",
+                variant, nio && !variant.equals("nio_sharded") ? 1 : acceptors, listeners, backlog, connections,
+                accepted, connections - failures.get() - accepted, accepted / seconds, connectLatency.getPercentile(50) / 1000.0,
+                connectLatency.getPercentile(99) / 1000.0, connectLatency.getMax() / 1000.0, failures.get(),
+                overflowsBefore < 0 ? "n/a" : overflows, dropsBefore < 0 ? "n/a" : drops);
+    }
+
+    private static boolean anyAlive(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,186 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Read, idle and game deadlines for every connection of a server, all driven by one shared
+ * {@link TimingWheel} instead of a timer (or a blocked thread) per connection.
+ *
+ * <ul>
+ *   <li><b>idle:</b> no complete request (line or frame) for that long</li>
+ *   <li><b>read:</b> a request was started but not finished in time (slowloris)</li>
+ *   <li><b>game:</b> the whole connection lasted too long</li>
+ * </ul>
+ * A value of 0 disables that deadline.
+ */
+public final class ConnectionTimeouts {
+    public static final long DEFAULT_IDLE_MILLIS = 120_000;
+    public static final long DEFAULT_READ_MILLIS = 10_000;
+    public static final long DEFAULT_GAME_MILLIS = 1_800_000;
+
+    /** No deadlines: connections may stay open forever. */
+    public static final ConnectionTimeouts NONE = new ConnectionTimeouts(null, 0, 0, 0);
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final TimingWheel wheel;
+    private final long idleMillis;
+    private final long readMillis;
+    private final long gameMillis;
+    private final LongAdder evicted = new LongAdder();
+
+    private ConnectionTimeouts(TimingWheel wheel, long idleMillis, long readMillis, long gameMillis) {
+        this.wheel = wheel;
+        this.idleMillis = idleMillis;
+        this.readMillis = readMillis;
+        this.gameMillis = gameMillis;
+    }
+
+    public static ConnectionTimeouts defaults() {
+        return of(DEFAULT_IDLE_MILLIS, DEFAULT_READ_MILLIS, DEFAULT_GAME_MILLIS);
+    }
+
+    public static ConnectionTimeouts of(long idleMillis, long readMillis, long gameMillis) {
+        if (idleMillis <= 0 && readMillis <= 0 && gameMillis <= 0) {
+            return NONE;
+        }
+        return new ConnectionTimeouts(new TimingWheel("timing-wheel", TICK_MILLIS, WHEEL_SIZE),
+                idleMillis, readMillis, gameMillis);
+    }
+
+    /** Starts watching one connection; {@code onExpired} runs on the wheel thread. */
+    Deadlines watch(String clientIP, Runnable onExpired) {
+        Deadlines deadlines = new Deadlines(clientIP, onExpired);
+        if (wheel != null) {
+            deadlines.arm(System.nanoTime());
+        }
+        return deadlines;
+    }
+
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return wheel == null ? "none"
+                : "idle " + idleMillis + " ms, read " + readMillis + " ms, game " + gameMillis + " ms";
+    }
+
+
+    /**
+     * Deadlines of one connection. The I/O side only writes timestamps; a single wheel entry
+     * checks them when the earliest one is due and re-arms itself if they have moved, so a busy
+     * connection costs no rescheduling per request.
+     */
+    final class Deadlines {
+        private final String clientIP;
+        private final Runnable onExpired;
+        private final long startedAt = System.nanoTime();
+        private volatile long lastRequestAt = startedAt;
+        private volatile long partialSince;
+        private volatile boolean stopped;
+        private volatile boolean expired;
+        private TimingWheel.Timeout timeout;
+
+        private Deadlines(String clientIP, Runnable onExpired) {
+            this.clientIP = clientIP;
+            this.onExpired = onExpired;
+        }
+
+        /** Some bytes of a request arrived. */
+        void onBytes() {
+            if (partialSince == 0) {
+                partialSince = System.nanoTime();
+            }
+        }
+
+        /** A complete request was handled; {@code partialLeft} if bytes of the next one are buffered. */
+        void onRequest(boolean partialLeft) {
+            long now = System.nanoTime();
+            lastRequestAt = now;
+            partialSince = partialLeft ? now : 0;
+        }
+
+        void stop() {
+            stopped = true;
+            TimingWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        boolean isExpired() {
+            return expired;
+        }
+
+        private void arm(long now) {
+            long delayMillis = (nextDeadline() - now) / 1_000_000;
+            if (readMillis > 0 && partialSince == 0) {
+                // A request may start right after this; look again before its read deadline could pass
+                delayMillis = Math.min(delayMillis, readMillis);
+            }
+            timeout = wheel.schedule(this::check, delayMillis);
+        }
+
+        private void check() {
+            if (stopped) {
+                return;
+            }
+            long now = System.nanoTime();
+            String reason = expiredReason(now);
+            if (reason == null) {
+                arm(now);
+                return;
+            }
+            expire(reason);
+        }
+
+        /** Runs {@code onExpired} unless the connection already ended; returns whether it did. */
+        private boolean expire(String reason) {
+            synchronized (this) {
+                if (expired || stopped) {
+                    return false;
+                }
+                expired = true;
+                stopped = true;
+            }
+            evicted.increment();
+            ServerMetrics.increment(ServerMetrics.CONNECTIONS_EVICTED);
+            AsyncLog.log("⏱️ [" + clientIP + "] Evicted: " + reason + " timeout");
+            onExpired.run();
+            return true;
+        }
+
+        private String expiredReason(long now) {
+            long partial = partialSince;
+            if (readMillis > 0 && partial != 0 && now - partial >= readMillis * 1_000_000) {
+                return "read";
+            }
+            if (idleMillis > 0 && now - lastRequestAt >= idleMillis * 1_000_000) {
+                return "idle";
+            }
+            if (gameMillis > 0 && now - startedAt >= gameMillis * 1_000_000) {
+                return "game";
+            }
+            return null;
+        }
+
+        private long nextDeadline() {
+            long next = Long.MAX_VALUE;
+            long partial = partialSince;
+            if (readMillis > 0 && partial != 0) {
+                next = Math.min(next, partial + readMillis * 1_000_000);
+            }
+            if (idleMillis > 0) {
+                next = Math.min(next, lastRequestAt + idleMillis * 1_000_000);
+            }
+            if (gameMillis > 0) {
+                next = Math.min(next, startedAt + gameMillis * 1_000_000);
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * Drains a server whose timeouts are all disabled ({@link ConnectionTimeouts#NONE}) while idle
+ * players are still connected. At the drain deadline every one of them must be disconnected and
+ * every admission permit given back, although no connection was ever watched by the timeouts.
+ *
+ * Usage: java DrainTest [clients=3] [drainMs=300]
+ */
+public class DrainTest {
+    private static final int MAX_CONNECTIONS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length >= 1 ? Integer.parseInt(args[0]) : 3;
+        long drainMillis = args.length >= 2 ? Long.parseLong(args[1]) : 300;
+
+        ServerContext context = ServerContext.of(new Leaderboard(10))
+                .withTimeouts(ConnectionTimeouts.of(0, 0, 0));
+        check(context.timeouts() == ConnectionTimeouts.NONE, "all timeouts disabled");
+        ExecutorService executor = ExecutionMode.LEGACY.createExecutor(0, 0);
+        Semaphore admission = new Semaphore(MAX_CONNECTIONS);
+        AcceptorGroup acceptorGroup = new AcceptorGroup(0, 1, 50);
+        acceptorGroup.start(context, executor, admission);
+
+        // Players that read the welcome and then never send anything
+        List<Socket> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            Socket client = new Socket("127.0.0.1", acceptorGroup.getPort());
+            client.setSoTimeout(5000);
+            check(client.getInputStream().read() != -1, "welcome received");
+            clients.add(client);
+        }
+        check(acceptorGroup.getOpenCount() == clientCount,
+                acceptorGroup.getOpenCount() + " of " + clientCount + " connections open before the drain");
+
+        long start = System.nanoTime();
+        MultiThreadedMagicNumberServer.drain(acceptorGroup, admission, MAX_CONNECTIONS, drainMillis, List.of());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        for (Socket client : clients) {
+            check(closedByServer(client), "client " + client.getLocalPort() + " still connected after the drain");
+            client.close();
+        }
+        check(acceptorGroup.getOpenCount() == 0, acceptorGroup.getOpenCount() + " handler(s) still running");
+        check(admission.availablePermits() == 0, "not every admission permit came back");
+        check(elapsedMillis < drainMillis + 1000, "drain took " + elapsedMillis + " ms");
+        executor.shutdown();
+        System.out.println("✅ Drain with no timeouts: " + clientCount + " idle connection(s) closed in "
+                + elapsedMillis + " ms");
+    }
+
+    /** Whether the server closed {@code client}: the rest of the welcome, then end of stream. */
+    private static boolean closedByServer(Socket client) throws IOException {
+        InputStream in = client.getInputStream();
+        try {
+            while (true) {
+                if (in.read() == -1) {
+                    return true;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;                            // reset: closed as well
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("❌ FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * How {@link MultiThreadedMagicNumberServer} runs its {@link ClientHandler}s.
+ */
+public enum ExecutionMode {
+    /** One new platform thread per client (the original behaviour). */
+    LEGACY,
+    /** One virtual thread per client: blocking reads park cheaply instead of pinning a stack. */
+    VIRTUAL,
+    /** A fixed pool of platform threads with a bounded queue of accepted clients waiting for a worker. */
+    POOL;
+
+    public static ExecutionMode fromString(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    public ExecutorService createExecutor(int poolSize, int queueSize) {
+        switch (this) {
+            case VIRTUAL:
+                return Executors.newVirtualThreadPerTaskExecutor();
+            case POOL:
+                // AbortPolicy: the acceptor answers BUSY when both the workers and the queue are full
+                return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+            default:
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Connects N simulated clients at once to {@link MultiThreadedMagicNumberServer} running in each
+ * {@link ExecutionMode} and reports accept latency (connect until the name prompt arrives) and
+ * the round-trip time of one guess.
+ *
+ * Usage: java ExecutionModeBenchmark [clientCounts, e.g. 1000,10000,50000] [modes, e.g. legacy,virtual,pool]
+ *
+ * All clients are driven by a single selector thread so the client side does not need N threads.
+ * Counts above ~ulimit -n / 2 fail to connect in one process; raise the limit for 50k.
+ */
+public class ExecutionModeBenchmark {
+    private static final int POOL_SIZE = 200;
+    private static final int QUEUE_SIZE = 1000;
+    private static final int BACKLOG = 4096;
+    private static final long TIMEOUT_NANOS = 60_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = (args.length >= 1 ? args[0] : "1000,10000,50000").split(",");
+        String[] modes = (args.length >= 2 ? args[1] : "legacy,virtual,pool").split(",");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (String mode : modes) {
+            for (String count : counts) {
+                console.println(run(ExecutionMode.fromString(mode), Integer.parseInt(count)));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static String run(ExecutionMode mode, int clients) throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, BACKLOG);
+        ExecutorService executor = mode.createExecutor(POOL_SIZE, QUEUE_SIZE);
+        Thread acceptor = new Thread(() -> {
+            try {
+                MultiThreadedMagicNumberServer.serve(serverSocket, ServerContext.of(new Leaderboard(10)),
+                        executor, new Semaphore(clients), new LongAdder());
+            } catch (SocketException e) {
+                // closed at the end of the run
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        long[] acceptLatencies = new long[clients];
+        long[] guessLatencies = new long[clients];
+        int accepted = 0;
+        int guessed = 0;
+        int rejected = 0;
+        int failed = 0;
+        int finished = 0;
+
+        long begin = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            InetSocketAddress target = new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort());
+            for (int i = 0; i < clients; i++) {
+                try {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(target);
+                    channel.register(selector, SelectionKey.OP_CONNECT, new SimulatedClient());
+                } catch (IOException e) {
+                    failed++;
+                    finished++;
+                }
+            }
+
+            while (finished < clients) {
+                if (System.nanoTime() - begin > TIMEOUT_NANOS) {
+                    break;
+                }
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SimulatedClient client = (SimulatedClient) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_READ);
+                            continue;
+                        }
+                        String line;
+                        while ((line = client.readLine(channel)) != null) {
+                            long now = System.nanoTime();
+                            if (client.state == 0) {
+                                if (line.startsWith("BUSY")) {
+                                    rejected++;
+                                    finished++;
+                                    key.cancel();
+                                    channel.close();
+                                    break;
+                                }
+                                acceptLatencies[accepted++] = now - client.startNanos;
+                                client.write(channel, "bot\n");
+                                client.state = 1;
+                            } else if (client.state == 1) {
+                                client.startNanos = now;
+                                client.write(channel, "50\n");
+                                client.state = 2;
+                            } else {
+                                guessLatencies[guessed++] = now - client.startNanos;
+                                finished++;
+                                key.cancel();
+                                channel.close();
+                                break;
+                            }
+                        }
+                        if (client.eof && channel.isOpen()) {
+                            failed++;
+                            finished++;
+                            key.cancel();
+                            channel.close();
+                        }
+                    } catch (IOException e) {
+                        failed++;
+                        finished++;
+                        key.cancel();
+                        channel.close();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        serverSocket.close();
+        executor.shutdownNow();
+
+        return "mode=" + mode.name().toLowerCase() +
+               " clients=" + clients +
+               " accepted=" + accepted +
+               " rejected_busy=" + rejected +
+               " failed=" + failed +
+               " accept_p50_ms=" + percentileMillis(acceptLatencies, accepted, 0.50) +
+               " accept_p99_ms=" + percentileMillis(acceptLatencies, accepted, 0.99) +
+               " guess_p50_ms=" + percentileMillis(guessLatencies, guessed, 0.50) +
+               " guess_p99_ms=" + percentileMillis(guessLatencies, guessed, 0.99) +
+               " elapsed_ms=" + elapsed / 1_000_000;
+    }
+
+    private static String percentileMillis(long[] samples, int count, double percentile) {
+        if (count == 0) {
+            return "n/a";
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long nanos = sorted[Math.min(count - 1, (int) (count * percentile))];
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+
+    private static class SimulatedClient {
+        private final ByteBuffer buffer = ByteBuffer.allocate(512);
+        private long startNanos = System.nanoTime();
+        private int state;          // 0 = waiting for prompt, 1 = waiting for welcome, 2 = waiting for hint
+        private boolean eof;
+
+        String readLine(SocketChannel channel) throws IOException {
+            String line = nextLine();
+            if (line != null) {
+                return line;
+            }
+            if (channel.read(buffer) < 0) {
+                eof = true;
+            }
+            return nextLine();
+        }
+
+        private String nextLine() {
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    String line = new String(buffer.array(), 0, i, StandardCharsets.UTF_8).trim();
+                    buffer.flip();
+                    buffer.position(i + 1);
+                    buffer.compact();
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        void write(SocketChannel channel, String text) throws IOException {
+            channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+}
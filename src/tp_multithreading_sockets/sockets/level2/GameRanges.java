@@ -0,0 +1,93 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The ranges a server offers, each with its own leaderboard (and its own {@link Rooms}): five
+ * attempts on 0..100 and five on the whole long space are not the same score. The first range is the one players get unless they
+ * pick another; only offered ranges are accepted, so players cannot create leaderboards at will.
+ */
+public final class GameRanges {
+    private final NumberRange defaultRange;
+    private final Map<NumberRange, Leaderboard> leaderboards;
+    private final Rooms rooms = new Rooms();
+
+    private GameRanges(NumberRange defaultRange, Map<NumberRange, Leaderboard> leaderboards) {
+        this.defaultRange = defaultRange;
+        this.leaderboards = leaderboards;
+    }
+
+    /** Only the default range, scored on {@code leaderboard}. */
+    public static GameRanges of(Leaderboard leaderboard) {
+        return new GameRanges(NumberRange.DEFAULT, Map.of(NumberRange.DEFAULT, leaderboard));
+    }
+
+    /**
+     * Parses "0..100,0..1000000,full". The first range is the default and is scored on
+     * {@code defaultLeaderboard}; every other range gets a new leaderboard of {@code maxEntries}.
+     */
+    public static GameRanges parse(String spec, Leaderboard defaultLeaderboard, int maxEntries) {
+        Map<NumberRange, Leaderboard> leaderboards = new LinkedHashMap<>();
+        NumberRange defaultRange = null;
+        for (String part : spec.split(",")) {
+            NumberRange range = NumberRange.parse(part);
+            if (defaultRange == null) {
+                defaultRange = range;
+                leaderboards.put(range, defaultLeaderboard);
+            } else {
+                leaderboards.putIfAbsent(range, new Leaderboard(maxEntries));
+            }
+        }
+        if (defaultRange == null) {
+            throw new IllegalArgumentException("No range in: " + spec);
+        }
+        return new GameRanges(defaultRange, leaderboards);
+    }
+
+    public NumberRange getDefault() {
+        return defaultRange;
+    }
+
+    public boolean offers(NumberRange range) {
+        return leaderboards.containsKey(range);
+    }
+
+    public Leaderboard leaderboardFor(NumberRange range) {
+        return leaderboards.get(range);
+    }
+
+    Rooms getRooms() {
+        return rooms;
+    }
+
+    public Set<NumberRange> getRanges() {
+        return leaderboards.keySet();
+    }
+
+    /**
+     * Every leaderboard under its range's name ("0..100", "full"), the key its digests are shared
+     * under in a cluster.
+     */
+    public Map<String, Leaderboard> byName() {
+        Map<String, Leaderboard> byName = new LinkedHashMap<>();
+        leaderboards.forEach((range, leaderboard) -> byName.put(range.toString(), leaderboard));
+        return byName;
+    }
+
+    /**
+     * Where the score log of {@code range} lives under {@code dataDir}: 0..100 keeps the directory
+     * itself, as before there were ranges, and every other range gets {@code range-<name>} in it.
+     */
+    public static Path dataDirectory(Path dataDir, NumberRange range) {
+        return range.equals(NumberRange.DEFAULT) ? dataDir : dataDir.resolve("range-" + range);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", leaderboards.keySet().stream().map(NumberRange::toString).toList());
+    }
+}
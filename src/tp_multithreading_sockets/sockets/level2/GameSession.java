@@ -0,0 +1,315 @@
+package tp_multithreading_sockets.sockets.level2;
+
+
+/**
+ * Protocol state machine for one player: name -> guessing -> done.
+ * It does no I/O itself, so it can be driven by a blocking handler or by an NIO event loop,
+ * and it leaves the wire format to a {@link Protocol}.
+ */
+class GameSession {
+    enum State { NAME, GUESSING, DONE }
+
+    /** Sent instead of a name, followed by a session token, to continue a parked game. */
+    static final String RESUME_COMMAND = "RESUME ";
+    /** Sent before the name, followed by "min..max", to play one of the server's other ranges. */
+    static final String RANGE_COMMAND = "RANGE ";
+    /** Sent before the name, followed by a room name, to share the magic number with that room. */
+    static final String JOIN_COMMAND = "JOIN ";
+
+    private final GameRanges ranges;
+    private final SessionStore sessions;
+    private final RateLimiter guessLimiter;
+    private final String clientIP;
+    private Protocol protocol = TextProtocol.INSTANCE;
+    private State state = State.NAME;
+    private String playerName;
+    private NumberRange range;
+    private long magicNumber;
+    private int attempts;
+    /** Attempts already added to the guesses metric: those made before the game was parked. */
+    private int countedAttempts;
+    private String sessionToken;
+    private RoomMember member;
+    private String roomName;
+    private Room room;
+    /** Only a sample of the sessions time their steps; reading the clock is the expensive part. */
+    private final boolean timed = ServerMetrics.sampleSession();
+
+    GameSession(Leaderboard leaderboard, String clientIP) {
+        this(ServerContext.of(leaderboard), clientIP);
+    }
+
+    GameSession(ServerContext context, String clientIP) {
+        this.ranges = context.ranges();
+        this.range = ranges.getDefault();
+        this.sessions = context.sessions();
+        this.guessLimiter = context.limits().guesses();
+        this.clientIP = clientIP;
+    }
+
+    public void useProtocol(Protocol protocol) {
+        this.protocol = protocol;
+    }
+
+    Protocol getProtocol() {
+        return protocol;
+    }
+
+    /** Lets this player join rooms: broadcasts from other members reach the connection through it. */
+    void attach(RoomMember member) {
+        this.member = member;
+    }
+
+    public void start(ResponseBuffer out) {
+        protocol.prompt(out);
+    }
+
+    /**
+     * Text protocol entry point: feeds one received line (without its terminator) and appends
+     * the response to {@code out}. Nothing is appended when there is nothing to send back.
+     */
+    public void onLine(String line, ResponseBuffer out) {
+        switch (state) {
+            case NAME:
+                if (line.startsWith(RESUME_COMMAND)) {
+                    onResume(line.substring(RESUME_COMMAND.length()).trim(), out);
+                } else if (line.startsWith(JOIN_COMMAND)) {
+                    onJoin(line.substring(JOIN_COMMAND.length()).trim(), out);
+                } else if (line.startsWith(RANGE_COMMAND)) {
+                    NumberRange requested;
+                    try {
+                        requested = NumberRange.parse(line.substring(RANGE_COMMAND.length()));
+                    } catch (IllegalArgumentException e) {
+                        ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+                        protocol.invalid("Expected RANGE min..max.", out);
+                        return;
+                    }
+                    onRange(requested, out);
+                } else {
+                    onName(line, out);
+                }
+                break;
+            case GUESSING:
+                if (line.equalsIgnoreCase("quit")) {
+                    onQuit();
+                    return;
+                }
+                long guess;
+                try {
+                    guess = Long.parseLong(line);
+                } catch (NumberFormatException e) {
+                    ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+                    protocol.invalid("Please enter a valid number.", out);
+                    return;
+                }
+                onGuess(guess, out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Picks the range of the coming game. Nothing is sent back unless the range is not offered. */
+    public void onRange(NumberRange requested, ResponseBuffer out) {
+        if (state != State.NAME) {
+            return;
+        }
+        if (!ranges.offers(requested)) {
+            ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+            protocol.invalid("Unknown range. Available: " + ranges + ".", out);
+            return;
+        }
+        range = requested;
+    }
+
+    /** Picks the room of the coming game. Nothing is sent back unless the name is not valid. */
+    public void onJoin(String name, ResponseBuffer out) {
+        if (state != State.NAME) {
+            return;
+        }
+        if (member == null || !Rooms.isValidName(name)) {
+            ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+            protocol.invalid(member == null ? "Rooms are not available." : "Invalid room name.", out);
+            return;
+        }
+        roomName = name;
+    }
+
+    public void onName(String name, ResponseBuffer out) {
+        if (state != State.NAME) {
+            return;
+        }
+        long start = timed ? System.nanoTime() : 0;
+        playerName = (name == null || name.trim().isEmpty()) ? "Anonymous" : name.trim();
+
+        if (roomName != null) {
+            room = ranges.getRooms().join(roomName, range, member);
+            if (room == null) {
+                protocol.invalid("Room " + roomName + " is full, playing alone.", out);
+            }
+        }
+
+        if (room != null) {
+            // Everybody in the room guesses the same number
+            magicNumber = room.getMagicNumber();
+            AsyncLog.log("🎯 [" + playerName + "] Joined room " + roomName + " (" + room.getMemberCount() + " player(s))");
+        } else {
+            // Generate random magic number for this client
+            magicNumber = range.randomNumber();
+            AsyncLog.log("🎯 [" + playerName + "] Magic number: " + magicNumber);
+        }
+
+        state = State.GUESSING;
+        // A room moves on without the player, so there is nothing to resume
+        sessionToken = sessions.isEnabled() && room == null ? sessions.newToken() : null;
+        protocol.welcome(playerName, range.min(), range.max(), sessionToken, out);
+
+        ServerMetrics.increment(ServerMetrics.GAMES_STARTED);
+        if (timed) {
+            ServerMetrics.NAME_STEP.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Continues the game parked under {@code token}. The token is single use: the game gets a new
+     * one, so a token seen on the wire cannot be replayed once the player is back.
+     */
+    public void onResume(String token, ResponseBuffer out) {
+        if (state != State.NAME) {
+            return;
+        }
+        SessionStore.ParkedGame game = sessions.take(token);
+        if (game == null) {
+            ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+            protocol.unknownSession(out);
+            return;
+        }
+        playerName = game.playerName();
+        range = game.range();
+        magicNumber = game.magicNumber();
+        attempts = game.attempts();
+        countedAttempts = attempts;
+        sessionToken = sessions.newToken();
+        state = State.GUESSING;
+        protocol.resumed(playerName, range.min(), range.max(), attempts, sessionToken, out);
+
+        ServerMetrics.increment(ServerMetrics.SESSIONS_RESUMED);
+        AsyncLog.log("🔁 [" + playerName + "] Resumed after " + attempts + " attempt(s)");
+    }
+
+    public void onGuess(long guess, ResponseBuffer out) {
+        if (state != State.GUESSING || (room != null && room.isOver())) {
+            // Someone else won the room; the winner broadcast ends this game
+            return;
+        }
+        if (!guessLimiter.tryAcquire(clientIP)) {
+            // Not counted as an attempt: the guess was never looked at
+            ServerMetrics.increment(ServerMetrics.GUESSES_RATE_LIMITED);
+            protocol.invalid("Too many guesses, slow down.", out);
+            return;
+        }
+        long start = timed ? System.nanoTime() : 0;
+        attempts++;
+
+        if (guess != magicNumber && room != null) {
+            room.broadcast(Broadcast.hint(playerName, guess, guess < magicNumber), member);
+        }
+        if (guess < magicNumber) {
+            protocol.tooLow(out);
+            AsyncLog.log("[" + playerName + "] Guess: " + guess + " -> TOO_LOW");
+            if (timed) {
+                ServerMetrics.GUESS_STEP.record(System.nanoTime() - start);
+            }
+            return;
+        }
+        if (guess > magicNumber) {
+            protocol.tooHigh(out);
+            AsyncLog.log("[" + playerName + "] Guess: " + guess + " -> TOO_HIGH");
+            if (timed) {
+                ServerMetrics.GUESS_STEP.record(System.nanoTime() - start);
+            }
+            return;
+        }
+
+        if (room != null && !ranges.getRooms().win(room)) {
+            return;                             // lost the race to another correct guess
+        }
+
+        long leaderboardStart = timed ? System.nanoTime() : 0;
+        Leaderboard leaderboard = ranges.leaderboardFor(range);
+        leaderboard.addScore(playerName, attempts, clientIP);
+        ClusterLeaderboard cluster = leaderboard.getCluster();
+        Leaderboard.Snapshot board = cluster == null ? leaderboard.getSnapshot() : cluster.getSnapshot();
+        long rank = cluster == null ? leaderboard.getRank(attempts) : cluster.getRank(attempts);
+        if (timed) {
+            ServerMetrics.LEADERBOARD_UPDATE.record(System.nanoTime() - leaderboardStart);
+        }
+        state = State.DONE;
+
+        protocol.correct(playerName, attempts, range.maxBinarySearchGuesses(), board, rank, out);
+        if (room != null) {
+            room.broadcast(Broadcast.winner(playerName, attempts, magicNumber), member);
+        }
+        // Guesses are counted once per game rather than on every guess
+        countGuesses();
+        ServerMetrics.increment(ServerMetrics.GAMES_FINISHED);
+        if (timed) {
+            ServerMetrics.FINISH_STEP.record(System.nanoTime() - start);
+        }
+
+        AsyncLog.log("[" + playerName + "] Found the number in " + attempts + " attempt(s)!");
+        AsyncLog.log(board.getText());
+    }
+
+    public void onQuit() {
+        end(false);
+    }
+
+    /** A game cut off by the connection (not by "quit") is parked so the player can resume it. */
+    public void onDisconnect() {
+        end(true);
+    }
+
+    private void end(boolean resumable) {
+        if (state == State.DONE) {
+            return;
+        }
+        if (state == State.GUESSING) {
+            countGuesses();
+            if (room != null) {
+                boolean roundOver = room.isOver();
+                ranges.getRooms().leave(room, member);
+                if (roundOver) {
+                    ServerMetrics.increment(ServerMetrics.ROOM_GAMES_LOST);
+                    AsyncLog.log("[" + playerName + "] Round of room " + roomName + " is over.");
+                    state = State.DONE;
+                    return;
+                }
+            }
+            if (resumable && sessionToken != null) {
+                sessions.park(sessionToken, new SessionStore.ParkedGame(playerName, range, magicNumber, attempts));
+                ServerMetrics.increment(ServerMetrics.SESSIONS_PARKED);
+                AsyncLog.log("[" + playerName + "] Disconnected, game parked.");
+                state = State.DONE;
+                return;
+            }
+            ServerMetrics.increment(ServerMetrics.GAMES_ABANDONED);
+        }
+        AsyncLog.log("[" + (playerName == null ? clientIP : playerName) + "] Disconnected.");
+        state = State.DONE;
+    }
+
+    /** A resumed game continues its attempt count, but its earlier guesses were counted when it was parked. */
+    private void countGuesses() {
+        ServerMetrics.add(ServerMetrics.GUESSES, attempts - countedAttempts);
+        countedAttempts = attempts;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
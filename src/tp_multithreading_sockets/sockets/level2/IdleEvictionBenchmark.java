@@ -0,0 +1,108 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * Parks idle connections on the thread-per-client server, a few of them slowloris clients that
+ * trickle one byte of a line at a time and never finish it, and reports server threads and heap:
+ * while they are held, after the read deadline and after the idle deadline. Run once without
+ * deadlines (everything stays pinned) and once with them.
+ *
+ * Usage: java IdleEvictionBenchmark [idleConnections] [slowClients] [idleTimeoutMs] [readTimeoutMs]
+ *
+ * Client and server share this JVM, so 10k connections need a descriptor limit above 20k.
+ */
+public class IdleEvictionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int idleConnections = args.length >= 1 ? Integer.parseInt(args[0]) : 10000;
+        int slowClients = args.length >= 2 ? Integer.parseInt(args[1]) : 100;
+        long idleTimeout = args.length >= 3 ? Long.parseLong(args[2]) : 6000;
+        long readTimeout = args.length >= 4 ? Long.parseLong(args[3]) : 2000;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        run("off", ConnectionTimeouts.NONE, idleConnections, slowClients, idleTimeout, readTimeout, console);
+        run("on", ConnectionTimeouts.of(idleTimeout, readTimeout, 0), idleConnections, slowClients,
+                idleTimeout, readTimeout, console);
+        System.exit(0);
+    }
+
+    private static void run(String label, ConnectionTimeouts timeouts, int idleConnections, int slowClients,
+                            long idleTimeout, long readTimeout, PrintStream console) throws Exception {
+        int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        ExecutorService executor = ExecutionMode.LEGACY.createExecutor(0, 0);
+        AcceptorGroup server = new AcceptorGroup(0, 1, 4096);
+        server.start(ServerContext.of(new Leaderboard(10)).withTimeouts(timeouts), executor, new Semaphore(Integer.MAX_VALUE));
+
+        List<SocketChannel> idle = ServerLoadTest.openIdleConnections(server.getPort(), idleConnections, console);
+        // Deadlines count from each accept, so phases are timed from the last connection opened
+        long start = System.currentTimeMillis();
+        List<SocketChannel> slow = idle.subList(0, Math.min(slowClients, idle.size()));
+        Thread trickle = new Thread(() -> {
+            ByteBuffer oneByte = ByteBuffer.allocate(1);
+            while (!Thread.currentThread().isInterrupted()) {
+                for (SocketChannel channel : slow) {
+                    try {
+                        channel.write(oneByte.clear().put((byte) '5').flip());
+                    } catch (IOException e) {
+                        // evicted
+                    }
+                }
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        trickle.start();
+
+        while (server.getAcceptedCount() < idle.size()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(1000);
+        report(label, "held", idle.size(), baselineThreads, timeouts, console);
+        sleepUntil(start + readTimeout + 1000);
+        report(label, "after_read_deadline", idle.size(), baselineThreads, timeouts, console);
+        sleepUntil(start + idleTimeout + 1000);
+        report(label, "after_idle_deadline", idle.size(), baselineThreads, timeouts, console);
+
+        trickle.interrupt();
+        trickle.join();
+        for (SocketChannel channel : idle) {
+            channel.close();
+        }
+        server.close();
+        executor.shutdownNow();
+        // Let the handler threads die before the next run takes its baseline
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (ManagementFactory.getThreadMXBean().getThreadCount() > baselineThreads + 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static void sleepUntil(long timeMillis) throws InterruptedException {
+        Thread.sleep(Math.max(0, timeMillis - System.currentTimeMillis()));
+    }
+
+    private static void report(String label, String phase, int connections, int baselineThreads,
+                               ConnectionTimeouts timeouts, PrintStream console) {
+        System.gc();
+        int serverThreads = ManagementFactory.getThreadMXBean().getThreadCount() - baselineThreads;
+        long heapUsed = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        console.printf("deadlines=%s phase=%s connections=%d evicted=%d server_threads=%d heap_used_mb=%d%n",
+                label, phase, connections, timeouts.getEvictedCount(), serverThreads, heapUsed / (1024 * 1024));
+    }
+}
@@ -0,0 +1,38 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+
+/**
+ * Reads Linux network counters such as {@code /proc/net/snmp} or {@code /proc/net/netstat},
+ * where each group is a header line of names followed by a line of values with the same prefix.
+ */
+final class KernelCounters {
+
+    private KernelCounters() {
+    }
+
+    /** Returns the counter, or -1 if the file or the counter does not exist (not Linux). */
+    static long read(String file, String group, String name) {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(file));
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith(group) && lines.get(i + 1).startsWith(group)) {
+                    String[] names = lines.get(i).split(" ");
+                    String[] values = lines.get(i + 1).split(" ");
+                    for (int j = 0; j < names.length && j < values.length; j++) {
+                        if (names[j].equals(name)) {
+                            return Long.parseLong(values[j]);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not available on this system
+        }
+        return -1;
+    }
+}
@@ -1,36 +1,156 @@
 package tp_multithreading_sockets.sockets.level2;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * Top-N scores kept in a {@link ConcurrentSkipListSet} ordered by {@link PlayerScore#compareTo}.
+ * Inserts are O(log n), and readers iterate the set without taking any lock.
+ * Ranks are global: every score ever added is counted in a {@link RankIndex}, not just the top-N.
+ */
 public class Leaderboard {
-    private final List<PlayerScore> scores;
+    private static final int DEFAULT_MAX_RANKED_ATTEMPTS = 4096;
+
+    private final ConcurrentSkipListSet<PlayerScore> scores;
+    private final RankIndex rankIndex;
+    private final AtomicInteger size;
+    private final AtomicLong version;
+    private volatile Snapshot rendered;
+    private volatile ScoreLog scoreLog;
+    private volatile ClusterLeaderboard cluster;
     private final int maxEntries;
 
     public Leaderboard(int maxEntries) {
-        this.scores = new ArrayList<>();
+        this(maxEntries, DEFAULT_MAX_RANKED_ATTEMPTS);
+    }
+
+    public Leaderboard(int maxEntries, int maxRankedAttempts) {
+        this.scores = new ConcurrentSkipListSet<>();
+        this.rankIndex = new RankIndex(maxRankedAttempts);
+        this.size = new AtomicInteger();
+        this.version = new AtomicLong();
         this.maxEntries = maxEntries;
     }
 
 
-    public synchronized void addScore(String playerName, int attempts, String ipAddress) {
-        scores.add(new PlayerScore(playerName, attempts, ipAddress));
-        Collections.sort(scores);
-        
-        // Keep only top scores
-        if (scores.size() > maxEntries) {
-            scores.remove(scores.size() - 1);
+    public void addScore(String playerName, int attempts, String ipAddress) {
+        PlayerScore score = new PlayerScore(playerName, attempts, ipAddress);
+        rankIndex.record(attempts);
+        insertTop(score);
+
+        ScoreLog log = scoreLog;
+        if (log != null) {
+            log.append(score);
         }
     }
 
 
-    public synchronized List<PlayerScore> getLeaderboard() {
-        return new ArrayList<>(scores);
+    /**
+     * Sends every score added from now on to {@code log}; used once the log has been replayed.
+     */
+    void attach(ScoreLog log) {
+        this.scoreLog = log;
+    }
+
+
+    /**
+     * Merges this board with the other nodes of a cluster; see {@link #getCluster()}.
+     */
+    void attach(ClusterLeaderboard cluster) {
+        this.cluster = cluster;
+    }
+
+
+    /**
+     * The cluster-wide view of this board, or null if this node runs alone.
+     */
+    public ClusterLeaderboard getCluster() {
+        return cluster;
     }
 
 
-    public synchronized String getLeaderboardString() {
-        if (scores.isEmpty()) {
+    /**
+     * Puts a recovered score back on the top-N board. Its rank count is restored separately.
+     */
+    void restoreTop(PlayerScore score) {
+        insertTop(score);
+    }
+
+
+    private void insertTop(PlayerScore score) {
+        // A full board only changes if the new score beats the current last entry
+        if (size.get() >= maxEntries) {
+            PlayerScore worst = lastOrNull();
+            if (worst != null && score.compareTo(worst) > 0) {
+                return;
+            }
+        }
+
+        scores.add(score);
+
+        // Keep only top scores: every insert that overflows the board evicts one entry
+        PlayerScore evicted = null;
+        if (size.incrementAndGet() > maxEntries) {
+            evicted = scores.pollLast();
+            if (evicted != null) {
+                size.decrementAndGet();
+            }
+        }
+
+        // The rendered board is only stale if the new score is still on it
+        if (evicted != score) {
+            version.incrementAndGet();
+        }
+    }
+
+
+    public List<PlayerScore> getLeaderboard() {
+        List<PlayerScore> snapshot = new ArrayList<>(maxEntries);
+        for (PlayerScore score : scores) {
+            if (snapshot.size() == maxEntries) {
+                break;
+            }
+            snapshot.add(score);
+        }
+        return snapshot;
+    }
+
+
+    public String getLeaderboardString() {
+        return getSnapshot().getText();
+    }
+
+
+    /**
+     * Returns the rendered board, re-rendering it only if a score was added since the last render.
+     * Concurrent callers may both render the same version; either result is correct.
+     */
+    public Snapshot getSnapshot() {
+        long currentVersion = version.get();
+        Snapshot snapshot = rendered;
+        if (snapshot == null || snapshot.version != currentVersion) {
+            snapshot = new Snapshot(currentVersion, render(getLeaderboard()));
+            rendered = snapshot;
+        }
+        return snapshot;
+    }
+
+
+    /** Changes whenever the rendered board would change. */
+    long getVersion() {
+        return version.get();
+    }
+
+
+    static String render(List<PlayerScore> entries) {
+        if (entries.isEmpty()) {
             return "No scores yet!";
         }
 
@@ -39,24 +159,76 @@ public class Leaderboard {
         sb.append(String.format("%-5s %-20s %-10s %s%n", "Rank", "Player", "Attempts", "IP Address"));
         sb.append("-".repeat(60)).append("\n");
 
-        for (int i = 0; i < scores.size(); i++) {
-            sb.append(String.format("%-5d %s%n", i + 1, scores.get(i)));
+        for (int i = 0; i < entries.size(); i++) {
+            sb.append(String.format("%-5d %s%n", i + 1, entries.get(i)));
         }
 
         return sb.toString();
     }
 
 
-    public synchronized int getRank(int attempts) {
-        int rank = 1;
-        for (PlayerScore score : scores) {
-            if (score.getAttempts() < attempts) {
-                rank++;
-            } else {
-                break;
-            }
+    /**
+     * Rank among all scores ever recorded (1 + the number of scores with fewer attempts),
+     * answered in O(log maxRankedAttempts) without blocking writers.
+     */
+    public long getRank(int attempts) {
+        return rankIndex.rankOf(attempts);
+    }
+
+
+    public long getTotalScores() {
+        return rankIndex.size();
+    }
+
+
+    public RankIndex getRankIndex() {
+        return rankIndex;
+    }
+
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+
+    /**
+     * One rendered version of the board, kept both as text and as UTF-8 bytes
+     * so it can be written to many sockets without formatting or encoding again.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final String text;
+        private final byte[] utf8;
+
+        Snapshot(long version, String text) {
+            this.version = version;
+            this.text = text;
+            this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(utf8).asReadOnlyBuffer();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(utf8);
         }
-        return rank;
     }
-}
 
+
+    private PlayerScore lastOrNull() {
+        try {
+            return scores.last();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+}
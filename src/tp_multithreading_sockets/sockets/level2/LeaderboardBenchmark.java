@@ -0,0 +1,115 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Writer-contention benchmark: every thread repeatedly records a win and asks for its rank,
+ * as a ClientHandler does on CORRECT. Compares the original sort-on-insert leaderboard
+ * with the skip-list {@link Leaderboard}.
+ *
+ * Usage: java LeaderboardBenchmark [threadCounts, e.g. 8,32,64] [secondsPerRun]
+ */
+public class LeaderboardBenchmark {
+    private static final int MAX_ENTRIES = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] threadCounts = (args.length >= 1 ? args[0] : "8,32,64").split(",");
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 3;
+
+        for (String count : threadCounts) {
+            int threads = Integer.parseInt(count);
+
+            SortingLeaderboard sorting = new SortingLeaderboard(MAX_ENTRIES);
+            Leaderboard concurrent = new Leaderboard(MAX_ENTRIES);
+
+            // First pass warms the JIT, second pass is reported
+            run(sorting::addScore, sorting::getRank, threads, 1);
+            run(concurrent::addScore, concurrent::getRank, threads, 1);
+            long sortingOps = run(sorting::addScore, sorting::getRank, threads, seconds);
+            long concurrentOps = run(concurrent::addScore, concurrent::getRank, threads, seconds);
+
+            System.out.printf("threads=%d sorting_ops_per_sec=%d skiplist_ops_per_sec=%d speedup=%.2f%n",
+                    threads, sortingOps / seconds, concurrentOps / seconds,
+                    (double) concurrentOps / Math.max(1, sortingOps));
+        }
+    }
+
+    private static long run(Adder adder, Ranker ranker, int threads, int seconds) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long[] deadline = new long[1];
+
+        for (int t = 0; t < threads; t++) {
+            String name = "player-" + t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline[0]) {
+                    int attempts = 1 + random.nextInt(100);
+                    adder.addScore(name, attempts, "127.0.0.1");
+                    ranker.getRank(attempts);
+                    operations.increment();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum();
+    }
+
+    interface Adder {
+        void addScore(String playerName, int attempts, String ipAddress);
+    }
+
+    interface Ranker {
+        long getRank(int attempts);
+    }
+
+
+    /**
+     * The original implementation: one monitor, sort after every insert, linear rank scan.
+     */
+    static class SortingLeaderboard {
+        private final List<PlayerScore> scores = new ArrayList<>();
+        private final int maxEntries;
+
+        SortingLeaderboard(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public synchronized void addScore(String playerName, int attempts, String ipAddress) {
+            scores.add(new PlayerScore(playerName, attempts, ipAddress));
+            Collections.sort(scores);
+            if (scores.size() > maxEntries) {
+                scores.remove(scores.size() - 1);
+            }
+        }
+
+        public synchronized int getRank(int attempts) {
+            int rank = 1;
+            for (PlayerScore score : scores) {
+                if (score.getAttempts() < attempts) {
+                    rank++;
+                } else {
+                    break;
+                }
+            }
+            return rank;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The mergeable form of one node's {@link Leaderboard}: how many scores it recorded for each number
+ * of attempts (only the non-empty buckets) plus its top-N. It fits in one datagram.
+ *
+ * Digests are cumulative, not deltas. A lost or duplicated datagram therefore only delays the
+ * merge. {@link ClusterLeaderboard} applies the difference from the node's previous digest.
+ *
+ * A node that offers several ranges sends one digest per range, keyed by the range's name in
+ * {@code board}.
+ *
+ * Wire format (varints, see {@link BinaryProtocol}):
+ * MAGIC [node][board][incarnation][sequence][created micros] [buckets] ([attempts gap][count])*
+ * [top] ([name][attempts][ip])*
+ */
+public final class LeaderboardDigest {
+    static final int MAX_BYTES = 65_507;
+    private static final long MAGIC = 0x4C45;    // 0x4C44 before the board field, so older nodes count as invalid
+    private static final int MAX_NODE_BYTES = 64;
+    private static final int MAX_BOARD_BYTES = 64;
+    private static final int MAX_NAME_BYTES = 200;
+    private static final int MAX_IP_BYTES = 64;
+    private static final int MAX_TOP = 1000;
+
+    private final String nodeId;
+    private final String board;
+    private final long incarnation;
+    private final long sequence;
+    private final long createdAtMicros;
+    /** Non-empty buckets in increasing order of attempts. */
+    private final int[] attempts;
+    private final long[] counts;
+    private final List<PlayerScore> top;
+
+    private LeaderboardDigest(String nodeId, String board, long incarnation, long sequence, long createdAtMicros,
+                              int[] attempts, long[] counts, List<PlayerScore> top) {
+        this.nodeId = nodeId;
+        this.board = board;
+        this.incarnation = incarnation;
+        this.sequence = sequence;
+        this.createdAtMicros = createdAtMicros;
+        this.attempts = attempts;
+        this.counts = counts;
+        this.top = top;
+    }
+
+    /**
+     * Digest of {@code leaderboard}, published under the name {@code board}, as it is now. {@code incarnation} tells a restarted node (whose
+     * counts start over) from a reordered datagram.
+     */
+    static LeaderboardDigest of(String nodeId, String board, long incarnation, long sequence, Leaderboard leaderboard) {
+        long[] all = leaderboard.getRankIndex().counts();
+        int buckets = 0;
+        for (long count : all) {
+            if (count != 0) {
+                buckets++;
+            }
+        }
+        int[] attempts = new int[buckets];
+        long[] counts = new long[buckets];
+        for (int i = 1, j = 0; i < all.length; i++) {
+            if (all[i] != 0) {
+                attempts[j] = i;
+                counts[j++] = all[i];
+            }
+        }
+        return new LeaderboardDigest(nodeId, board, incarnation, sequence, nowMicros(), attempts, counts,
+                leaderboard.getLeaderboard());
+    }
+
+    ByteBuffer encode() {
+        ResponseBuffer out = new ResponseBuffer(256 + attempts.length * 4 + top.size() * 48);
+        BinaryProtocol.writeVarint(out, MAGIC);
+        BinaryProtocol.writeString(out, nodeId, MAX_NODE_BYTES);
+        BinaryProtocol.writeString(out, board, MAX_BOARD_BYTES);
+        BinaryProtocol.writeVarint(out, incarnation);
+        BinaryProtocol.writeVarint(out, sequence);
+        BinaryProtocol.writeVarint(out, createdAtMicros);
+        BinaryProtocol.writeVarint(out, attempts.length);
+        int previous = 0;
+        for (int i = 0; i < attempts.length; i++) {
+            BinaryProtocol.writeVarint(out, attempts[i] - previous);
+            BinaryProtocol.writeVarint(out, counts[i]);
+            previous = attempts[i];
+        }
+        BinaryProtocol.writeVarint(out, top.size());
+        for (PlayerScore score : top) {
+            BinaryProtocol.writeString(out, score.getPlayerName(), MAX_NAME_BYTES);
+            BinaryProtocol.writeVarint(out, score.getAttempts());
+            BinaryProtocol.writeString(out, score.getIpAddress(), MAX_IP_BYTES);
+        }
+        return out.toByteBuffer();
+    }
+
+    /** Throws {@link IllegalArgumentException} if {@code in} is not a whole, valid digest. */
+    static LeaderboardDigest decode(ByteBuffer in) {
+        try {
+            if (BinaryProtocol.readVarint(in) != MAGIC) {
+                throw new IllegalArgumentException("Not a leaderboard digest");
+            }
+            String nodeId = BinaryProtocol.readString(in, MAX_NODE_BYTES);
+            String board = BinaryProtocol.readString(in, MAX_BOARD_BYTES);
+            long incarnation = BinaryProtocol.readVarint(in);
+            long sequence = BinaryProtocol.readVarint(in);
+            long createdAtMicros = BinaryProtocol.readVarint(in);
+
+            // Each bucket takes at least two bytes, which bounds what a bad datagram can allocate
+            long buckets = BinaryProtocol.readVarint(in);
+            if (buckets < 0 || buckets > in.remaining() / 2) {
+                throw new IllegalArgumentException("Invalid bucket count: " + buckets);
+            }
+            int[] attempts = new int[(int) buckets];
+            long[] counts = new long[(int) buckets];
+            long previous = 0;
+            for (int i = 0; i < buckets; i++) {
+                long gap = BinaryProtocol.readVarint(in);
+                long count = BinaryProtocol.readVarint(in);
+                if (gap < 1 || previous + gap > Integer.MAX_VALUE || count < 0) {
+                    throw new IllegalArgumentException("Invalid bucket");
+                }
+                previous += gap;
+                attempts[i] = (int) previous;
+                counts[i] = count;
+            }
+
+            long size = BinaryProtocol.readVarint(in);
+            if (size < 0 || size > MAX_TOP) {
+                throw new IllegalArgumentException("Invalid top size: " + size);
+            }
+            List<PlayerScore> top = new ArrayList<>((int) size);
+            for (int i = 0; i < size; i++) {
+                String name = BinaryProtocol.readString(in, MAX_NAME_BYTES);
+                int scoreAttempts = (int) BinaryProtocol.readVarint(in);
+                top.add(new PlayerScore(name, scoreAttempts, BinaryProtocol.readString(in, MAX_IP_BYTES)));
+            }
+            return new LeaderboardDigest(nodeId, board, incarnation, sequence, createdAtMicros, attempts, counts, top);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated digest");
+        }
+    }
+
+    /** Whether this digest replaces {@code previous} (null if none was merged yet). */
+    boolean isNewerThan(LeaderboardDigest previous) {
+        return previous == null || incarnation > previous.incarnation
+                || (incarnation == previous.incarnation && sequence > previous.sequence);
+    }
+
+    static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    String getBoard() {
+        return board;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getCreatedAtMicros() {
+        return createdAtMicros;
+    }
+
+    int[] getAttempts() {
+        return attempts;
+    }
+
+    long[] getCounts() {
+        return counts;
+    }
+
+    List<PlayerScore> getTop() {
+        return top;
+    }
+
+    long getTotalScores() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,105 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Winner-heavy workload: every operation records a win, then fetches the board for the client
+ * and for the console, as the CORRECT path does. "before" formats and encodes the board on every
+ * call; "after" uses the cached {@link Leaderboard.Snapshot}.
+ *
+ * Usage: java LeaderboardRenderBenchmark [threads] [secondsPerRun]
+ */
+public class LeaderboardRenderBenchmark {
+    private static final int MAX_ENTRIES = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length >= 1 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 3;
+
+        run("before", threads, 1, false);
+        run("after", threads, 1, true);
+        System.out.println(run("before", threads, seconds, false));
+        System.out.println(run("after", threads, seconds, true));
+    }
+
+    private static String run(String label, int threads, int seconds, boolean cached) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Leaderboard leaderboard = new Leaderboard(MAX_ENTRIES);
+        LongAdder operations = new LongAdder();
+        LongAdder allocatedBytes = new LongAdder();
+        LongAdder sink = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            String name = "player-" + t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    leaderboard.addScore(name, 1 + random.nextInt(100), "127.0.0.1");
+                    if (cached) {
+                        Leaderboard.Snapshot board = leaderboard.getSnapshot();
+                        sink.add(board.toByteBuffer().remaining() + board.getText().length());
+                    } else {
+                        // Client copy (encoded by the writer) plus the console copy
+                        sink.add(renderUncached(leaderboard).getBytes(StandardCharsets.UTF_8).length);
+                        sink.add(renderUncached(leaderboard).length());
+                    }
+                    operations.increment();
+                }
+                allocatedBytes.add(threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long ops = operations.sum();
+        return String.format("variant=%s threads=%d ops_per_sec=%d alloc_mb_per_sec=%.1f alloc_bytes_per_op=%d",
+                label, threads, ops / seconds,
+                allocatedBytes.sum() / (1024.0 * 1024.0) / seconds,
+                allocatedBytes.sum() / Math.max(1, ops));
+    }
+
+    /**
+     * The original rendering: format every row each time the board is requested.
+     */
+    private static String renderUncached(Leaderboard leaderboard) {
+        List<PlayerScore> scores = leaderboard.getLeaderboard();
+        if (scores.isEmpty()) {
+            return "No scores yet!";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n🏆 LEADERBOARD 🏆\n");
+        sb.append(String.format("%-5s %-20s %-10s %s%n", "Rank", "Player", "Attempts", "IP Address"));
+        sb.append("-".repeat(60)).append("\n");
+
+        for (int i = 0; i < scores.size(); i++) {
+            PlayerScore score = scores.get(i);
+            sb.append(String.format("%-5d %-20s %-6d %s%n", i + 1,
+                    score.getPlayerName(), score.getAttempts(), score.getIpAddress()));
+        }
+
+        return sb.toString();
+    }
+}
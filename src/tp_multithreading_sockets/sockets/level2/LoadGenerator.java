@@ -0,0 +1,446 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import tp_multithreading_sockets.sockets.level1.MagicNumberServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Headless load generator for the guessing servers. For each concurrency level it keeps that many
+ * bots connected (one virtual thread each), every bot playing binary-search games back to back,
+ * and prints one summary line plus one latency line per protocol step:
+ *
+ * <ul>
+ *   <li>{@code connect}: TCP connect</li>
+ *   <li>{@code greeting}: connected until the first line (name prompt, or welcome on level1)</li>
+ *   <li>{@code name}: name sent until the welcome line (level2 only)</li>
+ *   <li>{@code guess}: a TOO_LOW / TOO_HIGH round trip</li>
+ *   <li>{@code finish}: winning guess until the last line of the reply</li>
+ *   <li>{@code game}: connect until the end of the game</li>
+ * </ul>
+ *
+ * Output is {@code key=value} pairs, one record per line, latencies in microseconds.
+ *
+ * With {@code --room-size=N} (level2 and nio) the bots play in rooms of N players instead: each
+ * bot guesses every {@code --think-ms} within what it has learned from its own replies and the
+ * room's hints, and reconnects to the next round once someone has won. The steps are then
+ * {@code guess} (own round trip), {@code room_hint} (a miss sent by one bot until each other
+ * member reads the hint) and {@code room_winner} (winning guess until each member reads the winner).
+ *
+ * With {@code --client=async} (level2 and nio) the bots are not threads but chains of futures on an
+ * {@link AsyncGameClient} with {@code --io-threads} selector threads, speaking the binary protocol.
+ * Each bot solves its game with rounds of {@code --pipeline} guesses sent back to back (1 is a
+ * binary search, see {@link AsyncGameClient.Game#solve}). The steps are then {@code connect}
+ * (connect until the welcome, the handshake being sent in one go), {@code solve} (welcome until
+ * the CORRECT reply) and {@code game}.
+ *
+ * Usage: java LoadGenerator [--target=level1|level2|nio] [--host=127.0.0.1] [--port=12345]
+ *        [--connections=1,16,64] [--seconds=10] [--warmup-seconds=2] [--embedded]
+ *        [--mode=legacy|virtual|pool] [--room-size=0] [--think-ms=200]
+ *        [--client=blocking|async] [--io-threads=1] [--pipeline=1]
+ *
+ * With {@code --embedded} the target server is started in this JVM (its console output is
+ * discarded); otherwise it must already be listening.
+ */
+public class LoadGenerator {
+    private static final String[] STEPS = {"connect", "greeting", "name", "guess", "finish", "game",
+                                           "room_hint", "room_winner", "solve"};
+
+    private final String target;
+    private final InetSocketAddress address;
+    private final boolean namePrompt;
+    private final int roomSize;
+    private final int thinkMillis;
+    private final AsyncGameClient asyncClient;
+    private final int pipeline;
+
+    private LoadGenerator(String target, InetSocketAddress address, int roomSize, int thinkMillis,
+                          AsyncGameClient asyncClient, int pipeline) {
+        this.target = target;
+        this.address = address;
+        this.namePrompt = !target.equals("level1");
+        this.roomSize = roomSize;
+        this.thinkMillis = thinkMillis;
+        this.asyncClient = asyncClient;
+        this.pipeline = pipeline;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerOptions options = ServerOptions.parse(args);
+        String target = options.get("target", "level2");
+        String host = options.get("host", "127.0.0.1");
+        int port = options.getInt("port", 12345);
+        int seconds = options.getInt("seconds", 10);
+        int warmupSeconds = options.getInt("warmup-seconds", 2);
+        if (!target.equals("level1") && !target.equals("level2") && !target.equals("nio")) {
+            throw new IllegalArgumentException("Unknown target: " + target + " (expected level1, level2 or nio)");
+        }
+
+        PrintStream console = System.out;
+        if (options.has("embedded")) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            startEmbedded(target, port, options.get("mode", "legacy"));
+            waitUntilListening(host, port);
+        }
+
+        int roomSize = options.getInt("room-size", 0);
+        if (roomSize > 0 && target.equals("level1")) {
+            throw new IllegalArgumentException("Rooms need a level2 or nio target");
+        }
+        AsyncGameClient asyncClient = null;
+        if (options.get("client", "blocking").equals("async")) {
+            if (target.equals("level1") || roomSize > 0) {
+                throw new IllegalArgumentException("The async client plays solo games on level2 or nio");
+            }
+            asyncClient = AsyncGameClient.open(options.getInt("io-threads", 1));
+        }
+        LoadGenerator generator = new LoadGenerator(target, new InetSocketAddress(host, port), roomSize,
+                options.getInt("think-ms", 200), asyncClient, options.getInt("pipeline", 1));
+        String[] levels = options.get("connections", "1,16,64").split(",");
+        if (warmupSeconds > 0) {
+            generator.run(Integer.parseInt(levels[0].trim()), warmupSeconds);
+        }
+        for (String level : levels) {
+            int connections = Integer.parseInt(level.trim());
+            for (String line : generator.run(connections, seconds)) {
+                console.println(line);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void startEmbedded(String target, int port, String mode) {
+        Thread server = new Thread(() -> {
+            try {
+                if (target.equals("level1")) {
+                    MagicNumberServer.main(new String[]{Integer.toString(port)});
+                } else if (target.equals("level2")) {
+                    MultiThreadedMagicNumberServer.main(new String[]{"--port=" + port, "--mode=" + mode});
+                } else {
+                    NioMagicNumberServer nio = new NioMagicNumberServer(port,
+                            Runtime.getRuntime().availableProcessors(), new Leaderboard(10));
+                    nio.start();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "embedded-server");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    private static void waitUntilListening(String host, int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(host, port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private List<String> run(int connections, int seconds) throws InterruptedException {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (String step : STEPS) {
+            histograms.put(step, new LatencyHistogram());
+        }
+        AtomicLong games = new AtomicLong();
+        AtomicLong guesses = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        Map<String, RoomBot> roomBots = new ConcurrentHashMap<>();
+        List<Thread> bots = new ArrayList<>();
+        if (asyncClient != null) {
+            CountDownLatch finished = new CountDownLatch(connections);
+            for (int i = 0; i < connections; i++) {
+                playAsync("bot-" + i, histograms, deadline, games, guesses, errors, rejected, finished);
+            }
+            finished.await();
+        }
+        for (int i = 0; i < (asyncClient != null ? 0 : connections); i++) {
+            RoomBot roomBot = new RoomBot("bot-" + i, "load-" + (roomSize > 0 ? i / roomSize : 0));
+            roomBots.put(roomBot.name, roomBot);
+            bots.add(Thread.ofVirtual().start(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        int played = roomSize > 0 ? playRoomGame(roomBot, roomBots, histograms, deadline)
+                                                  : playGame(histograms);
+                        if (played < 0) {
+                            rejected.incrementAndGet();
+                        } else {
+                            guesses.addAndGet(played);
+                            games.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread bot : bots) {
+            bot.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        List<String> lines = new ArrayList<>();
+        String prefix = "target=" + target + " connections=" + connections
+                + (roomSize > 0 ? " room_size=" + roomSize + " think_ms=" + thinkMillis : "")
+                + (asyncClient != null ? " client=async pipeline=" + pipeline : "");
+        lines.add(String.format("%s seconds=%.1f connects_per_sec=%.1f games_per_sec=%.1f guesses_per_sec=%.1f "
+                        + "games=%d errors=%d rejected=%d",
+                prefix, elapsed, histograms.get("connect").getCount() / elapsed, games.get() / elapsed,
+                guesses.get() / elapsed, games.get(), errors.get(), rejected.get()));
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format("%s step=%s count=%d mean_us=%.1f p50_us=%.1f p99_us=%.1f p999_us=%.1f max_us=%.1f",
+                    prefix, entry.getKey(), histogram.getCount(), histogram.getMean() / 1000.0,
+                    histogram.getPercentile(50) / 1000.0, histogram.getPercentile(99) / 1000.0,
+                    histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        return lines;
+    }
+
+    /**
+     * Plays one game and returns the number of guesses, or -1 if the server turned the bot away.
+     */
+    private int playGame(Map<String, LatencyHistogram> histograms) throws IOException {
+        long gameStart = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            long connected = System.nanoTime();
+            histograms.get("connect").record(connected - gameStart);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+
+            String greeting = readLine(in);
+            histograms.get("greeting").record(System.nanoTime() - connected);
+            if (greeting.startsWith("BUSY")) {
+                return -1;
+            }
+
+            if (namePrompt) {
+                long sent = System.nanoTime();
+                send(out, "bot");
+                readLine(in);                   // Welcome, ...
+                histograms.get("name").record(System.nanoTime() - sent);
+            }
+
+            long low = NumberRange.DEFAULT.min();
+            long high = NumberRange.DEFAULT.max();
+            int guesses = 0;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long sent = System.nanoTime();
+                send(out, Long.toString(mid));
+                guesses++;
+                String response = readLine(in);
+                if (response.equals("TOO_LOW")) {
+                    low = mid + 1;
+                } else if (response.equals("TOO_HIGH")) {
+                    high = mid - 1;
+                } else if (response.equals("CORRECT")) {
+                    skipResult(in);
+                    long finished = System.nanoTime();
+                    histograms.get("finish").record(finished - sent);
+                    histograms.get("game").record(finished - gameStart);
+                    return guesses;
+                } else {
+                    throw new IOException("Unexpected reply: " + response);
+                }
+                histograms.get("guess").record(System.nanoTime() - sent);
+            }
+            throw new IOException("Binary search ran out of range");
+        }
+    }
+
+    /**
+     * Plays games back to back on the async client until the deadline, each one starting from the
+     * callback that ends the previous one, then counts down {@code finished}.
+     */
+    private void playAsync(String name, Map<String, LatencyHistogram> histograms, long deadline, AtomicLong games,
+                           AtomicLong guesses, AtomicLong errors, AtomicLong rejected, CountDownLatch finished) {
+        if (System.nanoTime() >= deadline) {
+            finished.countDown();
+            return;
+        }
+        long gameStart = System.nanoTime();
+        asyncClient.connect(address, name).thenCompose(game -> {
+            long welcomed = System.nanoTime();
+            histograms.get("connect").record(welcomed - gameStart);
+            return game.solve(pipeline).thenApply(result -> {
+                histograms.get("solve").record(System.nanoTime() - welcomed);
+                return result;
+            });
+        }).whenComplete((result, error) -> {
+            if (error == null) {
+                histograms.get("game").record(System.nanoTime() - gameStart);
+                guesses.addAndGet(result.attempts());
+                games.incrementAndGet();
+            } else if (error.getCause() instanceof IOException e && e.getMessage() != null
+                    && e.getMessage().startsWith("BUSY")) {
+                rejected.incrementAndGet();
+            } else {
+                errors.incrementAndGet();
+            }
+            playAsync(name, histograms, deadline, games, guesses, errors, rejected, finished);
+        });
+    }
+
+    /**
+     * Plays one round in the bot's room and returns the number of guesses it made, or -1 if the
+     * server turned the bot away. The calling thread reads; a second virtual thread guesses.
+     */
+    private int playRoomGame(RoomBot bot, Map<String, RoomBot> bots, Map<String, LatencyHistogram> histograms,
+                             long deadline) throws IOException {
+        long gameStart = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            long connected = System.nanoTime();
+            histograms.get("connect").record(connected - gameStart);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            if (readLine(in).startsWith("BUSY")) {
+                return -1;
+            }
+            bot.sentAt.clear();
+            long sent = System.nanoTime();
+            send(out, GameSession.JOIN_COMMAND + bot.room + "\n" + bot.name);
+            readLine(in);                       // Welcome, ...
+            histograms.get("name").record(System.nanoTime() - sent);
+
+            // What the room has learned so far: the number is in [low, high]
+            long[] bounds = {NumberRange.DEFAULT.min(), NumberRange.DEFAULT.max()};
+            AtomicLong guesses = new AtomicLong();
+            Thread guesser = Thread.ofVirtual().start(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        Thread.sleep(ThreadLocalRandom.current().nextInt(thinkMillis + 1));
+                        long guess;
+                        synchronized (bounds) {
+                            if (bounds[0] > bounds[1]) {
+                                break;
+                            }
+                            guess = ThreadLocalRandom.current().nextLong(bounds[0], bounds[1] + 1);
+                        }
+                        bot.lastSent = System.nanoTime();
+                        bot.sentAt.put(guess, bot.lastSent);
+                        send(out, Long.toString(guess));
+                        guesses.incrementAndGet();
+                    }
+                } catch (InterruptedException | IOException e) {
+                    return;                     // round over
+                }
+                try {
+                    socket.shutdownInput();     // deadline: stop waiting for the rest of the round
+                } catch (IOException e) {
+                    // already closed
+                }
+            });
+
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    if (line.startsWith(TextProtocol.ROOM_HINT)) {
+                        // ROOM HINT guess TOO_LOW|TOO_HIGH player
+                        String[] parts = line.split(" ", 5);
+                        long guess = Long.parseLong(parts[2]);
+                        narrow(bounds, guess, parts[3].equals("TOO_LOW"));
+                        recordSince(bots.get(parts[4]), guess, now, histograms.get("room_hint"));
+                    } else if (line.startsWith(TextProtocol.ROOM_WINNER)) {
+                        // ROOM WINNER number attempts player
+                        String[] parts = line.split(" ", 5);
+                        recordSince(bots.get(parts[4]), Long.parseLong(parts[2]), now, histograms.get("room_winner"));
+                        break;
+                    } else if (line.equals("TOO_LOW") || line.equals("TOO_HIGH")) {
+                        histograms.get("guess").record(now - bot.lastSent);
+                    } else if (line.equals("CORRECT")) {
+                        skipResult(in);
+                        histograms.get("finish").record(System.nanoTime() - bot.lastSent);
+                        break;
+                    }
+                }
+            } finally {
+                guesser.interrupt();
+            }
+            histograms.get("game").record(System.nanoTime() - gameStart);
+            return (int) guesses.get();
+        }
+    }
+
+    private static void narrow(long[] bounds, long guess, boolean tooLow) {
+        synchronized (bounds) {
+            if (tooLow) {
+                bounds[0] = Math.max(bounds[0], guess + 1);
+            } else {
+                bounds[1] = Math.min(bounds[1], guess - 1);
+            }
+        }
+    }
+
+    private static void recordSince(RoomBot sender, long guess, long now, LatencyHistogram histogram) {
+        Long sentAt = sender == null ? null : sender.sentAt.get(guess);
+        if (sentAt != null) {
+            histogram.record(now - sentAt);
+        }
+    }
+
+
+    /** A room bot's identity and when it sent each guess of its current round. */
+    private static final class RoomBot {
+        final String name;
+        final String room;
+        final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+        volatile long lastSent;
+
+        RoomBot(String name, String room) {
+            this.name = name;
+            this.room = room;
+        }
+    }
+
+    private void skipResult(BufferedReader in) throws IOException {
+        if (!namePrompt) {
+            readLine(in);                       // Congratulations! ...
+            return;
+        }
+        while (!readLine(in).startsWith("Your rank:")) {
+            // congratulations and leaderboard
+        }
+    }
+
+    private static void send(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        return line;
+    }
+}
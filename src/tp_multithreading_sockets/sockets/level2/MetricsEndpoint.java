@@ -0,0 +1,78 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Serves {@link MetricsRegistry#render()} over a bare-bones HTTP/1.0 listener bound to
+ * 127.0.0.1 only, so {@code curl http://127.0.0.1:9100/metrics} (or any scraper) can read it.
+ * One daemon thread, one short request per connection, whatever the path.
+ */
+public final class MetricsEndpoint implements Closeable {
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+
+    private final ServerSocket serverSocket;
+    private final MetricsRegistry registry;
+
+    private MetricsEndpoint(ServerSocket serverSocket, MetricsRegistry registry) {
+        this.serverSocket = serverSocket;
+        this.registry = registry;
+    }
+
+    public static MetricsEndpoint start(MetricsRegistry registry, int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        MetricsEndpoint endpoint = new MetricsEndpoint(serverSocket, registry);
+        Thread thread = new Thread(endpoint::serve, "metrics-endpoint");
+        thread.setDaemon(true);
+        thread.start();
+        return endpoint;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve() {
+        while (true) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                // Skip the request line and headers
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    // nothing to route on
+                }
+
+                byte[] body = registry.render().getBytes(StandardCharsets.UTF_8);
+                String header = "HTTP/1.0 200 OK\r\n"
+                        + "Content-Type: text/plain; charset=utf-8\r\n"
+                        + "Content-Length: " + body.length + "\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(header.getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Metrics endpoint error: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Cost of {@link ServerMetrics} on the guess path:
+ *
+ * <ul>
+ *   <li>{@code instrumentation}: the metrics work of one game, alone in a loop, per guess</li>
+ *   <li>{@code in_process}: threads drive {@link GameSession}s directly, no sockets, so the
+ *       instrumentation is as large a share of the work as it can ever be</li>
+ *   <li>{@code tcp}: players over loopback against the NIO server</li>
+ * </ul>
+ *
+ * The A/B paths run many short rounds in pairs (metrics off / on, order alternating) and report
+ * the median of the per-pair differences, so drift and GC hit both sides alike.
+ *
+ * Usage: java MetricsOverheadBenchmark [threads] [pairs] [secondsPerRound]
+ */
+public class MetricsOverheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length >= 1 ? Integer.parseInt(args[0]) : 4;
+        int rounds = args.length >= 2 ? Integer.parseInt(args[1]) : 40;
+        double seconds = args.length >= 3 ? Double.parseDouble(args[2]) : 0.25;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("path=instrumentation ns_per_guess=%.2f%n", instrumentationNanosPerGuess());
+
+        Leaderboard leaderboard = new Leaderboard(10);
+        compare(console, "in_process", rounds, () -> inProcess(leaderboard, threads, seconds));
+
+        NioMagicNumberServer server = new NioMagicNumberServer(0, 1, leaderboard);
+        server.start();
+        try {
+            compare(console, "tcp", rounds, () -> overTcp(server.getPort(), threads, seconds));
+        } finally {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    private interface Round {
+        double guessesPerSecond() throws Exception;
+    }
+
+    private static void compare(PrintStream console, String label, int rounds, Round round) throws Exception {
+        // Warm-up with both settings
+        ServerMetrics.enabled = true;
+        round.guessesPerSecond();
+        ServerMetrics.enabled = false;
+        round.guessesPerSecond();
+
+        double[] on = new double[rounds];
+        double[] off = new double[rounds];
+        double[] overhead = new double[rounds];
+        for (int i = 0; i < rounds; i++) {
+            boolean offFirst = i % 2 == 0;
+            ServerMetrics.enabled = !offFirst;
+            double first = round.guessesPerSecond();
+            ServerMetrics.enabled = offFirst;
+            double second = round.guessesPerSecond();
+            off[i] = offFirst ? first : second;
+            on[i] = offFirst ? second : first;
+            overhead[i] = (off[i] - on[i]) * 100 / off[i];
+        }
+        ServerMetrics.enabled = true;
+        console.printf("path=%s pairs=%d guesses_per_sec_metrics_off=%.0f guesses_per_sec_metrics_on=%.0f "
+                        + "overhead_pct_median=%.2f%n",
+                label, rounds, median(off), median(on), median(overhead));
+    }
+
+    /**
+     * Exactly what {@link GameSession} adds for metrics over one game, including the sampled
+     * sessions that read the clock, divided by the guesses of a game.
+     */
+    private static double instrumentationNanosPerGuess() {
+        int guessesPerGame = 6;
+        int games = 20_000_000;
+        long sink = 0;
+        long start = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            start = System.nanoTime();
+            for (int i = 0; i < games; i++) {
+                boolean timed = ServerMetrics.sampleSession();
+                ServerMetrics.increment(ServerMetrics.GAMES_STARTED);
+                if (timed) {
+                    for (int step = 0; step < guessesPerGame + 2; step++) {
+                        long t = System.nanoTime();
+                        ServerMetrics.GUESS_STEP.record(System.nanoTime() - t);
+                    }
+                }
+                ServerMetrics.add(ServerMetrics.GUESSES, guessesPerGame);
+                ServerMetrics.increment(ServerMetrics.GAMES_FINISHED);
+                sink += timed ? 1 : 0;
+            }
+        }
+        double nanos = System.nanoTime() - start;
+        return sink < 0 ? 0 : nanos / games / guessesPerGame;
+    }
+
+    private static double inProcess(Leaderboard leaderboard, int threads, double seconds) throws InterruptedException {
+        LongAdder guesses = new LongAdder();
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ResponseBuffer out = new ResponseBuffer();
+                while (System.nanoTime() < deadline) {
+                    GameSession session = new GameSession(leaderboard, "127.0.0.1");
+                    session.onName("bot", out);
+                    long low = NumberRange.DEFAULT.min();
+                    long high = NumberRange.DEFAULT.max();
+                    while (!session.isDone()) {
+                        long mid = (low + high) >>> 1;
+                        out.reset();
+                        session.onGuess(mid, out);
+                        guesses.increment();
+                        byte first = out.toByteBuffer().get(0);
+                        if (first == 'T' && out.size() > 4 && out.toByteBuffer().get(4) == 'L') {
+                            low = mid + 1;          // TOO_LOW
+                        } else {
+                            high = mid - 1;         // TOO_HIGH (or CORRECT, which ends the loop)
+                        }
+                    }
+                    out.reset();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return guesses.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static double overTcp(int port, int players, double seconds) throws InterruptedException {
+        LongAdder guesses = new LongAdder();
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < players; t++) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        guesses.add(ServerLoadTest.playGame(port));
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return guesses.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
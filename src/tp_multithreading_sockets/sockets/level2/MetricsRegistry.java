@@ -0,0 +1,82 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Named counters, gauges, rates and latency histograms of a server, rendered as plain text
+ * ({@code name value} per line, sorted by name) for {@link MetricsEndpoint}.
+ *
+ * Counters are {@link LongAdder}s: each updating thread mostly hits its own cell, so handler
+ * threads do not fight over one cache line on every guess. Histograms record nanoseconds and are
+ * rendered in microseconds.
+ */
+public final class MetricsRegistry {
+    private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public LongAdder counter(String name) {
+        return (LongAdder) metrics.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return (LatencyHistogram) metrics.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        metrics.put(name, value);
+    }
+
+    /** Per-second rate of {@code counter}, measured between two consecutive renders. */
+    public void rate(String name, LongAdder counter) {
+        metrics.put(name, new Rate(counter));
+    }
+
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        text.append("uptime_seconds ").append((System.nanoTime() - startNanos) / 1_000_000_000L).append('\n');
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof LongAdder counter) {
+                text.append(name).append(' ').append(counter.sum()).append('\n');
+            } else if (metric instanceof LongSupplier gauge) {
+                text.append(name).append(' ').append(gauge.getAsLong()).append('\n');
+            } else if (metric instanceof Rate rate) {
+                text.append(name).append(' ').append(String.format("%.1f", rate.sample())).append('\n');
+            } else if (metric instanceof LatencyHistogram histogram) {
+                text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+                text.append(String.format("%s_mean_us %.1f%n", name, histogram.getMean() / 1000.0));
+                text.append(String.format("%s_p50_us %.1f%n", name, histogram.getPercentile(50) / 1000.0));
+                text.append(String.format("%s_p99_us %.1f%n", name, histogram.getPercentile(99) / 1000.0));
+                text.append(String.format("%s_p999_us %.1f%n", name, histogram.getPercentile(99.9) / 1000.0));
+                text.append(String.format("%s_max_us %.1f%n", name, histogram.getMax() / 1000.0));
+            }
+        }
+        return text.toString();
+    }
+
+
+    private static final class Rate {
+        private final LongAdder counter;
+        private long lastValue;
+        private long lastNanos = System.nanoTime();
+
+        Rate(LongAdder counter) {
+            this.counter = counter;
+            this.lastValue = counter.sum();
+        }
+
+        synchronized double sample() {
+            long value = counter.sum();
+            long now = System.nanoTime();
+            double perSecond = (value - lastValue) * 1e9 / Math.max(1, now - lastNanos);
+            lastValue = value;
+            lastNanos = now;
+            return perSecond;
+        }
+    }
+}
@@ -2,12 +2,15 @@ package tp_multithreading_sockets.sockets.level2;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 
 public class MultiThreadedMagicNumberClient {
     private static final String DEFAULT_SERVER_HOST = "localhost";
     private static final int DEFAULT_SERVER_PORT = 12345;
+    private static final int MAX_RECONNECTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 250;
 
     public static void main(String[] args) {
         String host = DEFAULT_SERVER_HOST;
@@ -20,77 +23,244 @@ public class MultiThreadedMagicNumberClient {
         if (args.length >= 2) {
             port = Integer.parseInt(args[1]);
         }
+        // Optional fourth argument: one of the server's other ranges, e.g. 0..1000000 or full
+        NumberRange range = args.length >= 4 ? NumberRange.parse(args[3]) : null;
+        // Optional third argument: "binary" switches to the compact framed protocol
+        if (args.length >= 3 && args[2].equalsIgnoreCase("binary")) {
+            playBinary(host, port, range);
+            return;
+        }
+
+        playText(host, port, range);
+    }
+
+
+    /**
+     * Text game. The server ends its welcome line with a session token; if the connection drops
+     * mid-game the client reconnects and sends "RESUME token" at the name prompt to keep its game.
+     */
+    private static void playText(String host, int port, NumberRange range) {
+        Scanner scanner = new Scanner(System.in);
+        String sessionToken = null;
+        String rangeLabel = NumberRange.DEFAULT.min() + "-" + NumberRange.DEFAULT.max();
+        int reconnects = 0;
+
+        System.out.println("🎮 Multi-Threaded Magic Number Guessing Game Client");
+        while (true) {
+            try (Socket socket = new Socket(host, port);
+                 BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+                 PrintWriter out = new PrintWriter(
+                    socket.getOutputStream(), true)) {
+
+                System.out.println("Connected to server: " + host + ":" + port);
+                System.out.println();
+
+                // Read and display server messages
+                String message;
+                boolean resuming = false;
+                while ((message = in.readLine()) != null) {
+                    System.out.println(message);
+
+                    // Server is saturated and refused the connection
+                    if (message.startsWith("BUSY")) {
+                        return;
+                    }
+                    // The parked game expired: start over with a name
+                    else if (resuming && message.startsWith("INVALID")) {
+                        sessionToken = null;
+                        resuming = false;
+                    }
+                    // If server asks for name, resume the interrupted game or read a name from user
+                    else if (message.contains("Enter your name")) {
+                        if (sessionToken != null) {
+                            out.println(GameSession.RESUME_COMMAND + sessionToken);
+                            resuming = true;
+                        } else {
+                            if (range != null) {
+                                out.println(GameSession.RANGE_COMMAND + range);
+                            }
+                            System.out.print("> ");
+                            String name = scanner.nextLine().trim();
+                            out.println(name.isEmpty() ? "Anonymous" : name);
+                        }
+                    }
+                    // If server sends welcome message, start game loop
+                    else if (message.contains("Welcome") || message.contains("Guess it")) {
+                        sessionToken = parseSessionToken(message);
+                        rangeLabel = parseRangeLabel(message, rangeLabel);
+                        break;
+                    }
+                }
+                if (message == null) {
+                    throw new EOFException("Server closed the connection");
+                }
+                reconnects = 0;
 
+                // Game loop
+                while (true) {
+                    System.out.print("Enter your guess (" + rangeLabel + ") or 'quit' to exit: ");
+                    String userInput = scanner.nextLine().trim();
+
+                    if (userInput.equalsIgnoreCase("quit")) {
+                        out.println("quit");
+                        break;
+                    }
+
+                    // Send guess to server
+                    out.println(userInput);
+
+                    // Read and display server responses
+                    String response = in.readLine();
+                    if (response == null) {
+                        throw new EOFException("Server disconnected");
+                    }
+
+                    // Display response
+                    if (response.equals("TOO_LOW")) {
+                        System.out.println("📉 Too low! Try a higher number.");
+                    } else if (response.equals("TOO_HIGH")) {
+                        System.out.println("📈 Too high! Try a lower number.");
+                    } else if (response.equals("CORRECT")) {
+                        System.out.println("🎉 Correct! You found the magic number!");
+
+                        // Read congratulations and leaderboard
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            if (line.startsWith("Your rank:")) {
+                                System.out.println(line);
+                                break;
+                            }
+                            System.out.println(line);
+                        }
+                        break;
+                    } else if (response.startsWith("INVALID")) {
+                        System.out.println("❌ " + response);
+                    } else {
+                        System.out.println(response);
+                    }
+                }
+
+                System.out.println("\nThanks for playing! Goodbye!");
+                return;
+            } catch (IOException e) {
+                if (sessionToken == null || ++reconnects > MAX_RECONNECTS) {
+                    System.err.println("Client error: " + e.getMessage());
+                    System.err.println("Make sure the server is running on " + host + ":" + port);
+                    return;
+                }
+                long delay = RECONNECT_DELAY_MILLIS << (reconnects - 1);
+                System.out.println("⚠️ Connection lost (" + e.getMessage() + "), resuming in " + delay + " ms...");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /** "min-max" from "... between min and max. Guess it!", or {@code fallback}. */
+    private static String parseRangeLabel(String welcome, String fallback) {
+        int start = welcome.indexOf("between ");
+        int and = welcome.indexOf(" and ", start);
+        int end = welcome.indexOf(". Guess it", and);
+        if (start < 0 || and < 0 || end < 0) {
+            return fallback;
+        }
+        return welcome.substring(start + "between ".length(), and) + "-" + welcome.substring(and + " and ".length(), end);
+    }
+
+
+    /** The token at the end of a welcome line ("... [session TOKEN]"), or null if there is none. */
+    static String parseSessionToken(String welcome) {
+        int start = welcome.lastIndexOf(TextProtocol.SESSION_PREFIX);
+        if (start < 0 || !welcome.endsWith("]")) {
+            return null;
+        }
+        return welcome.substring(start + TextProtocol.SESSION_PREFIX.length(), welcome.length() - 1);
+    }
+
+
+    private static void playBinary(String host, int port, NumberRange range) {
         try (Socket socket = new Socket(host, port);
-             BufferedReader in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(
-                socket.getOutputStream(), true);
+             DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream());
              Scanner scanner = new Scanner(System.in)) {
 
-            System.out.println("🎮 Multi-Threaded Magic Number Guessing Game Client");
+            System.out.println("🎮 Multi-Threaded Magic Number Guessing Game Client (binary protocol)");
             System.out.println("Connected to server: " + host + ":" + port);
             System.out.println();
 
-            // Read and display server messages
-            String message;
-            while ((message = in.readLine()) != null) {
-                System.out.println(message);
-                
-                // If server asks for name, read from user
-                if (message.contains("Enter your name")) {
-                    System.out.print("> ");
-                    String name = scanner.nextLine().trim();
-                    out.println(name.isEmpty() ? "Anonymous" : name);
-                }
-                // If server sends welcome message, start game loop
-                else if (message.contains("Welcome") || message.contains("Guess it")) {
-                    break;
-                }
+            ResponseBuffer frame = new ResponseBuffer(64);
+            frame.append(BinaryProtocol.HELLO);
+            send(frame, out);
+
+            // The text prompt was sent before the server saw HELLO
+            System.out.println(readTextLine(in));
+            System.out.print("> ");
+            String name = scanner.nextLine().trim();
+            if (range != null) {
+                BinaryProtocol.writeRange(frame, range);
             }
+            BinaryProtocol.writeName(frame, name.isEmpty() ? "Anonymous" : name);
+            send(frame, out);
+
+            byte reply = in.readByte();
+            if (reply == BinaryProtocol.INVALID) {
+                System.out.println("❌ The server does not offer " + range + ", playing its default range.");
+                reply = in.readByte();
+            }
+            if (reply != BinaryProtocol.WELCOME) {
+                System.out.println("Unexpected reply from server.");
+                return;
+            }
+            long min = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+            long max = BinaryProtocol.zigzagDecode(BinaryProtocol.readVarint(in));
+            BinaryProtocol.readToken(in);       // this client does not reconnect
+            System.out.println("Welcome! I'm thinking of a number between " + min + " and " + max + ". Guess it!");
 
             // Game loop
             while (true) {
-                System.out.print("Enter your guess (0-100) or 'quit' to exit: ");
+                System.out.print("Enter your guess (" + min + "-" + max + ") or 'quit' to exit: ");
                 String userInput = scanner.nextLine().trim();
 
                 if (userInput.equalsIgnoreCase("quit")) {
-                    out.println("quit");
+                    BinaryProtocol.writeQuit(frame);
+                    send(frame, out);
                     break;
                 }
 
-                // Send guess to server
-                out.println(userInput);
-
-                // Read and display server responses
-                String response = in.readLine();
-                if (response == null) {
-                    System.out.println("Server disconnected.");
-                    break;
+                long guess;
+                try {
+                    guess = Long.parseLong(userInput);
+                } catch (NumberFormatException e) {
+                    System.out.println("❌ INVALID: Please enter a valid number.");
+                    continue;
                 }
+                BinaryProtocol.writeGuess(frame, guess);
+                send(frame, out);
 
-                // Display response
-                if (response.equals("TOO_LOW")) {
+                byte opcode = in.readByte();
+                if (opcode == BinaryProtocol.TOO_LOW) {
                     System.out.println("📉 Too low! Try a higher number.");
-                } else if (response.equals("TOO_HIGH")) {
+                } else if (opcode == BinaryProtocol.TOO_HIGH) {
                     System.out.println("📈 Too high! Try a lower number.");
-                } else if (response.equals("CORRECT")) {
+                } else if (opcode == BinaryProtocol.CORRECT) {
+                    long attempts = BinaryProtocol.readVarint(in);
+                    long rank = BinaryProtocol.readVarint(in);
+                    byte[] board = new byte[(int) BinaryProtocol.readVarint(in)];
+                    in.readFully(board);
                     System.out.println("🎉 Correct! You found the magic number!");
-                    
-                    // Read congratulations and leaderboard
-                    String line;
-                    while ((line = in.readLine()) != null) {
-                        if (line.startsWith("Your rank:")) {
-                            System.out.println(line);
-                            break;
-                        }
-                        System.out.println(line);
-                    }
+                    System.out.println("Congratulations! You found it in " + attempts + " attempt(s).");
+                    System.out.println(new String(board, StandardCharsets.UTF_8));
+                    System.out.println("Your rank: #" + rank);
                     break;
-                } else if (response.startsWith("INVALID")) {
-                    System.out.println("❌ " + response);
                 } else {
-                    System.out.println(response);
+                    System.out.println("❌ INVALID: Please enter a valid number.");
                 }
             }
 
@@ -101,5 +271,21 @@ public class MultiThreadedMagicNumberClient {
             e.printStackTrace();
         }
     }
-}
 
+
+    private static void send(ResponseBuffer frame, OutputStream out) throws IOException {
+        frame.writeTo(out);
+        out.flush();
+        frame.reset();
+    }
+
+
+    private static String readTextLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -1,128 +1,325 @@
 package tp_multithreading_sockets.sockets.level2;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class MultiThreadedMagicNumberServer {
     private static final int PORT = 12345;
-    private static final int MIN_NUMBER = 0;
-    private static final int MAX_NUMBER = 100;
     private static final int MAX_LEADERBOARD_ENTRIES = 10;
+    private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+    private static final int DEFAULT_POOL_SIZE = 200;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final int BACKLOG = 1024;
+    private static final int DEFAULT_ACCEPTORS = 1;
+    private static final int DEFAULT_FSYNC_MILLIS = 10;
+    private static final int DEFAULT_FSYNC_RECORDS = 256;
+    private static final int DEFAULT_SNAPSHOT_RECORDS = 100000;
+    private static final long DEFAULT_DRAIN_MILLIS = 30000;
 
     private static Leaderboard leaderboard = new Leaderboard(MAX_LEADERBOARD_ENTRIES);
 
+    /**
+     * Usage: java MultiThreadedMagicNumberServer [--port=12345] [--mode=legacy|virtual|pool]
+     *        [--max-connections=10000] [--pool-size=200] [--queue-size=1000]
+     *        [--acceptors=1] [--backlog=1024]
+     *        [--idle-timeout-ms=120000] [--read-timeout-ms=10000] [--game-timeout-ms=1800000]
+     *        [--metrics-port=9100] [--session-capacity=100000] [--session-ttl-ms=600000]
+     *        [--ranges=0..100,0..1000000,full]
+     *        [--data-dir=path] [--fsync-ms=10] [--fsync-records=256] [--snapshot-records=100000]
+     *        [--cluster-port=9201 --peers=host:port,... [--node-id=name] [--publish-ms=100]]
+     *        [--conn-rate=5 [--conn-burst=20]] [--guess-rate=20 [--guess-burst=50]] [--rate-limit-ips=1000000]
+     *        [--drain-ms=30000] [--reuse-port]
+     *        [--tls-keystore=server.p12|self-signed [--tls-password=changeit] [--tls-session-cache=20000]
+     *         [--tls-session-timeout-s=3600]]
+     *
+     * Each range of --ranges keeps its scores apart: its own score log under --data-dir (0..100 in
+     * the directory itself, any other range in range-<name>) and its own digests in the cluster.
+     *
+     * Ctrl+C or SIGTERM drains the server (see {@link #drain}). With --reuse-port a new process can
+     * bind the same port first and take over while this one drains.
+     */
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        ServerOptions options = ServerOptions.parse(args);
+        int port = options.getInt("port", PORT);
+        ExecutionMode mode = ExecutionMode.fromString(options.get("mode", "legacy"));
+        int maxConnections = options.getInt("max-connections", DEFAULT_MAX_CONNECTIONS);
+        ExecutorService executor = mode.createExecutor(
+                options.getInt("pool-size", DEFAULT_POOL_SIZE),
+                options.getInt("queue-size", DEFAULT_QUEUE_SIZE));
+        // Flushed once the games are over, in this order
+        List<Closeable> closeAfterDrain = new ArrayList<>();
+
+        GameRanges ranges;
+        try {
+            ranges = GameRanges.parse(options.get("ranges", NumberRange.DEFAULT.toString()), leaderboard,
+                    MAX_LEADERBOARD_ENTRIES);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid --ranges: " + e.getMessage());
+            return;
+        }
+
+        if (options.has("data-dir")) {
+            // One log per range: scores of different ranges are not comparable
+            Path dataDir = Paths.get(options.get("data-dir", ""));
+            for (NumberRange range : ranges.getRanges()) {
+                try {
+                    Leaderboard board = ranges.leaderboardFor(range);
+                    ScoreLog scoreLog = ScoreLog.open(GameRanges.dataDirectory(dataDir, range), board,
+                            options.getInt("fsync-ms", DEFAULT_FSYNC_MILLIS),
+                            options.getInt("fsync-records", DEFAULT_FSYNC_RECORDS),
+                            options.getInt("snapshot-records", DEFAULT_SNAPSHOT_RECORDS));
+                    System.out.println("💾 Leaderboard " + range + " restored: " + board.getTotalScores() + " score(s)");
+                    closeAfterDrain.add(scoreLog);
+                } catch (IOException e) {
+                    System.err.println("Cannot open score log of " + range + ": " + e.getMessage());
+                    closeAll(closeAfterDrain);
+                    return;
+                }
+            }
+        }
+
+        if (options.has("cluster-port")) {
+            try {
+                List<InetSocketAddress> peers = ClusterNode.parsePeers(options.get("peers", ""));
+                ClusterNode cluster = ClusterNode.start(options.get("node-id", "node-" + port),
+                        options.getInt("cluster-port", 0), peers,
+                        options.getLong("publish-ms", ClusterNode.DEFAULT_PUBLISH_MILLIS), ranges.byName());
+                System.out.println("🌐 Cluster leaderboard: node " + cluster.getNodeId() + " on UDP port "
+                        + cluster.getPort() + ", " + peers.size() + " peer(s), sharing " + ranges);
+                closeAfterDrain.add(cluster);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Cannot start cluster leaderboard: " + e.getMessage());
+                closeAll(closeAfterDrain);
+                return;
+            }
+        }
+
+        ConnectionTimeouts timeouts = ConnectionTimeouts.of(
+                options.getLong("idle-timeout-ms", ConnectionTimeouts.DEFAULT_IDLE_MILLIS),
+                options.getLong("read-timeout-ms", ConnectionTimeouts.DEFAULT_READ_MILLIS),
+                options.getLong("game-timeout-ms", ConnectionTimeouts.DEFAULT_GAME_MILLIS));
+
+        SessionStore sessions = new SessionStore(
+                options.getInt("session-capacity", SessionStore.DEFAULT_CAPACITY),
+                options.getLong("session-ttl-ms", SessionStore.DEFAULT_TTL_MILLIS));
+
+        int maxAddresses = options.getInt("rate-limit-ips", RateLimits.DEFAULT_MAX_ADDRESSES);
+        RateLimits limits = new RateLimits(
+                new RateLimiter(Double.parseDouble(options.get("conn-rate", "0")),
+                        options.getInt("conn-burst", RateLimits.DEFAULT_CONNECTION_BURST), maxAddresses),
+                new RateLimiter(Double.parseDouble(options.get("guess-rate", "0")),
+                        options.getInt("guess-burst", RateLimits.DEFAULT_GUESS_BURST), maxAddresses));
+
+        TlsConfig tls;
+        try {
+            tls = TlsConfig.fromOptions(options);
+        } catch (IOException e) {
+            System.err.println("Cannot start TLS: " + e.getMessage());
+            closeAll(closeAfterDrain);
+            return;
+        }
+
+        if (options.has("metrics-port")) {
+            try {
+                MetricsEndpoint endpoint = MetricsEndpoint.start(ServerMetrics.REGISTRY, options.getInt("metrics-port", 0));
+                System.out.println("📊 Metrics: http://127.0.0.1:" + endpoint.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Cannot start metrics endpoint: " + e.getMessage());
+            }
+        }
+
+        int acceptors = options.getInt("acceptors", DEFAULT_ACCEPTORS);
+        int backlog = options.getInt("backlog", BACKLOG);
+        long drainMillis = options.getLong("drain-ms", DEFAULT_DRAIN_MILLIS);
+        Semaphore admission = new Semaphore(maxConnections);
+        try (AcceptorGroup acceptorGroup = new AcceptorGroup(port, acceptors, backlog, options.has("reuse-port"))) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(acceptorGroup, admission, maxConnections,
+                    drainMillis, closeAfterDrain), "drain"));
+
             System.out.println("🎮 Multi-Threaded Magic Number Guessing Game Server");
-            System.out.println("Server listening on port " + PORT);
+            System.out.println("Server listening on port " + port);
+            System.out.println("Execution mode: " + mode + " (max " + maxConnections + " connections)");
+            System.out.println("Acceptors: " + acceptors + " on " + acceptorGroup.getListenerCount()
+                    + " listening socket(s), backlog " + backlog);
+            System.out.println("Ranges: " + ranges + " (the first is the default, each has its own leaderboard)");
+            System.out.println("Timeouts: " + timeouts);
+            System.out.println("Rate limits per IP: " + limits);
+            System.out.println("Transport: " + tls);
+            System.out.println("Parked sessions: up to " + options.getInt("session-capacity", SessionStore.DEFAULT_CAPACITY)
+                    + ", resumable for " + options.getLong("session-ttl-ms", SessionStore.DEFAULT_TTL_MILLIS) + " ms");
+            System.out.println("Drain: up to " + drainMillis + " ms on shutdown"
+                    + (options.has("reuse-port") ? ", port shareable with the next process (SO_REUSEPORT)" : ""));
             System.out.println("Waiting for client connections...");
             System.out.println("(Press Ctrl+C to stop the server)\n");
 
-            while (true) {
-                // Accept client connection
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("✅ New client connected: " + clientSocket.getInetAddress());
-
-                // Create a new thread for each client
-                ClientHandler clientHandler = new ClientHandler(clientSocket, leaderboard);
-                Thread clientThread = new Thread(clientHandler);
-                clientThread.start();
-            }
+            acceptorGroup.start(new ServerContext(ranges, timeouts, sessions, limits, tls), executor, admission);
+            acceptorGroup.join();
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Not shutdownNow(): a draining server lets the running games finish
+            executor.shutdown();
         }
     }
-}
 
 
-class ClientHandler implements Runnable {
-    private Socket clientSocket;
-    private Leaderboard leaderboard;
-    private static final int MIN_NUMBER = 0;
-    private static final int MAX_NUMBER = 100;
+    /**
+     * Shutdown hook. Stops accepting and lets the games in progress finish for up to
+     * {@code drainMillis}. At the deadline it closes the connections still open, tracked by the
+     * acceptors rather than by the timeouts, which may all be disabled. Then it flushes the score
+     * logs, the cluster node, the log queue and the metrics.
+     *
+     * Every open connection holds one permit of {@code admission}, so all of them having been
+     * given back means every game is over.
+     */
+    static void drain(AcceptorGroup acceptorGroup, Semaphore admission, int maxConnections,
+                      long drainMillis, List<Closeable> closeAfterDrain) {
+        long start = System.nanoTime();
+        try {
+            acceptorGroup.close();
+        } catch (IOException e) {
+            System.err.println("Error closing listening sockets: " + e.getMessage());
+        }
+        System.out.println("🛑 Draining: no longer accepting, " + acceptorGroup.getOpenCount()
+                + " connection(s) still open, waiting up to " + drainMillis + " ms");
+
+        try {
+            if (!admission.tryAcquire(maxConnections, drainMillis, TimeUnit.MILLISECONDS)) {
+                System.out.println("⏱️ Drain deadline passed: closing " + acceptorGroup.closeOpenConnections()
+                        + " connection(s)");
+                admission.tryAcquire(maxConnections, 1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-    public ClientHandler(Socket clientSocket, Leaderboard leaderboard) {
-        this.clientSocket = clientSocket;
-        this.leaderboard = leaderboard;
+        closeAll(closeAfterDrain);
+        AsyncLog.flush(1000);
+        System.out.print("📊 Final metrics\n" + ServerMetrics.REGISTRY.render());
+        System.out.println("👋 Drained in " + (System.nanoTime() - start) / 1_000_000 + " ms");
     }
 
-    @Override
-    public void run() {
-        try (BufferedReader in = new BufferedReader(
-                new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(
-                clientSocket.getOutputStream(), true)) {
-
-            // Get player name
-            out.println("Enter your name:");
-            String playerName = in.readLine();
-            if (playerName == null || playerName.trim().isEmpty()) {
-                playerName = "Anonymous";
+
+    /** Flushes and closes the score logs and the cluster node, in order. */
+    private static void closeAll(List<Closeable> closeables) {
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                System.err.println("Error flushing on shutdown: " + e.getMessage());
             }
+        }
+    }
 
-            // Generate random magic number for this client
-            int magicNumber = (int) (Math.random() * (MAX_NUMBER - MIN_NUMBER + 1)) + MIN_NUMBER;
-            System.out.println("🎯 [" + playerName + "] Magic number: " + magicNumber);
 
-            int attempts = 0;
-            String clientIP = clientSocket.getInetAddress().getHostAddress();
+    static void serve(ServerSocket serverSocket, Leaderboard leaderboard) throws IOException {
+        serve(serverSocket, ServerContext.of(leaderboard), ExecutionMode.LEGACY.createExecutor(0, 0),
+              new Semaphore(Integer.MAX_VALUE), new LongAdder());
+    }
 
-            out.println("Welcome, " + playerName + "! I'm thinking of a number between " + 
-                       MIN_NUMBER + " and " + MAX_NUMBER + ". Guess it!");
 
-            // Game loop
-            while (true) {
-                String guessStr = in.readLine();
-                
-                if (guessStr == null || guessStr.equalsIgnoreCase("quit")) {
-                    System.out.println("[" + playerName + "] Disconnected.");
-                    break;
-                }
+    /** Accept loop for a server that never drains, so nothing needs the open connections. */
+    static void serve(ServerSocket serverSocket, ServerContext context, ExecutorService executor,
+                      Semaphore admission, LongAdder accepted) throws IOException {
+        serve(serverSocket, context, executor, admission, accepted, ConcurrentHashMap.newKeySet());
+    }
 
-                try {
-                    int guess = Integer.parseInt(guessStr);
-                    attempts++;
-
-                    if (guess < magicNumber) {
-                        out.println("TOO_LOW");
-                        System.out.println("[" + playerName + "] Guess: " + guess + " -> TOO_LOW");
-                    } else if (guess > magicNumber) {
-                        out.println("TOO_HIGH");
-                        System.out.println("[" + playerName + "] Guess: " + guess + " -> TOO_HIGH");
-                    } else {
-                        out.println("CORRECT");
-                        out.println("Congratulations, " + playerName + "! You found it in " + attempts + " attempt(s).");
-                        
-                        // Add to leaderboard
-                        leaderboard.addScore(playerName, attempts, clientIP);
-                        
-                        // Send leaderboard
-                        out.println(leaderboard.getLeaderboardString());
-                        
-                        // Send player's rank
-                        int rank = leaderboard.getRank(attempts);
-                        out.println("Your rank: #" + rank);
-                        
-                        System.out.println("[" + playerName + "] Found the number in " + attempts + " attempt(s)!");
-                        System.out.println(leaderboard.getLeaderboardString());
-                        break;
-                    }
-                } catch (NumberFormatException e) {
-                    out.println("INVALID: Please enter a valid number.");
-                }
+
+    /**
+     * Accept loop. A permit of {@code admission} is taken before each accept and given back when
+     * the client's handler finishes, so once the limit is reached the server stops accepting and
+     * new connections wait in the kernel backlog instead of piling up threads. Accepted
+     * connections are counted in {@code accepted}.
+     *
+     * Addresses over their connection rate are turned away right after accept, before any thread
+     * is spent on them. Connections turned away (rate limit, full server) are closed before the
+     * TLS handshake, so a TLS client sees a failed handshake, not BUSY.
+     *
+     * Every handler is in {@code open} from the moment it is handed to the executor until it finishes.
+     */
+    static void serve(ServerSocket serverSocket, ServerContext context, ExecutorService executor,
+                      Semaphore admission, LongAdder accepted, Set<ClientHandler> open) throws IOException {
+        while (true) {
+            try {
+                admission.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-        } catch (IOException e) {
-            System.err.println("Error handling client: " + e.getMessage());
-        } finally {
+
+            Socket clientSocket;
             try {
-                clientSocket.close();
+                // Accept client connection
+                clientSocket = serverSocket.accept();
             } catch (IOException e) {
-                System.err.println("Error closing client socket: " + e.getMessage());
+                admission.release();
+                throw e;
+            }
+            accepted.increment();
+            String clientIP = clientSocket.getInetAddress().getHostAddress();
+            if (!context.limits().connections().tryAcquire(clientIP)) {
+                admission.release();
+                rejectRateLimited(clientSocket);
+                continue;
+            }
+            AsyncLog.log("✅ New client connected: " + clientSocket.getInetAddress());
+
+            ClientHandler clientHandler = new ClientHandler(clientSocket, context);
+            open.add(clientHandler);
+            try {
+                executor.execute(() -> {
+                    try {
+                        clientHandler.run();
+                    } finally {
+                        open.remove(clientHandler);
+                        admission.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Pool and queue are both full: tell the client instead of letting it hang
+                open.remove(clientHandler);
+                admission.release();
+                rejectBusy(clientSocket);
             }
         }
     }
-}
 
+
+    private static void rejectRateLimited(Socket clientSocket) {
+        ServerMetrics.increment(ServerMetrics.CONNECTIONS_RATE_LIMITED);
+        try (Socket socket = clientSocket) {
+            // The line fits in the empty send buffer, so this never blocks the acceptor
+            socket.getOutputStream().write(TextProtocol.RATE_LIMITED_LINE);
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+
+    private static void rejectBusy(Socket clientSocket) {
+        ServerMetrics.increment(ServerMetrics.CONNECTIONS_REJECTED);
+        try (Socket socket = clientSocket;
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println("BUSY: Server is full, please try again later.");
+        } catch (IOException e) {
+            System.err.println("Error rejecting client: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Per-connection state for the NIO server: a small read buffer for line or frame decoding,
+ * the pending (not yet written) output and the player's {@link GameSession}.
+ * The connection speaks the text protocol unless the first byte received is {@link BinaryProtocol#HELLO}.
+ *
+ * Room broadcasts arrive from other players' threads into an inbox; the loop drains it and writes
+ * the shared broadcast buffers with one gathering write.
+ *
+ * With TLS every read and write goes through a {@link TlsChannel}. Output queued during the
+ * handshake (the prompt) waits in pendingWrite until the handshake is done.
+ */
+class NioConnection implements RoomMember {
+    static final int MAX_LINE_LENGTH = 256;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final GameSession session;
+    private final NioEventLoop loop;
+    private final TlsChannel tls;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+    private final ResponseBuffer response = new ResponseBuffer();
+    private ByteBuffer pendingWrite;
+    private boolean negotiated;
+    private boolean binary;
+    private ConnectionTimeouts.Deadlines deadlines;
+    private final Queue<Broadcast> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inboxSize = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean dropped = new AtomicBoolean();
+
+    NioConnection(SocketChannel channel, SelectionKey key, GameSession session, NioEventLoop loop) {
+        this(channel, key, session, loop, null);
+    }
+
+    /** {@code tls} is null for plaintext. */
+    NioConnection(SocketChannel channel, SelectionKey key, GameSession session, NioEventLoop loop, TlsChannel tls) {
+        this.channel = channel;
+        this.key = key;
+        this.session = session;
+        this.loop = loop;
+        this.tls = tls;
+    }
+
+    void watch(ConnectionTimeouts.Deadlines deadlines) {
+        this.deadlines = deadlines;
+    }
+
+    void start() throws IOException {
+        session.start(response);
+        flushResponse();
+    }
+
+    void onReadable() throws IOException {
+        if (tls == null) {
+            readAndHandle();
+            return;
+        }
+        // Decrypted bytes beyond the read buffer stay in the TLS layer, and no select will report them
+        do {
+            readAndHandle();
+        } while (tls.hasBufferedInput() && channel.isOpen() && !session.isDone() && readBuffer.hasRemaining());
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (pendingWrite != null && !tls.isHandshaking()) {
+            onWritable();                           // the prompt queued during the handshake
+        } else if (tls.hasPendingOutput()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void readAndHandle() throws IOException {
+        int read = tls == null ? channel.read(readBuffer) : tls.read(readBuffer);
+        if (read < 0) {
+            session.onDisconnect();
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        // A binary client announces itself with the first byte it sends
+        if (!negotiated && readBuffer.hasRemaining()) {
+            negotiated = true;
+            if (readBuffer.get(readBuffer.position()) == BinaryProtocol.HELLO) {
+                readBuffer.get();
+                binary = true;
+                session.useProtocol(BinaryProtocol.INSTANCE);
+            }
+        }
+
+        boolean valid = true;
+        if (binary) {
+            valid = BinaryProtocol.decode(readBuffer, session, response);
+        } else {
+            readLines();
+        }
+        flushResponse();
+        if (deadlines != null) {
+            // Anything consumed was at least one complete request
+            if (readBuffer.position() > 0) {
+                deadlines.onRequest(readBuffer.hasRemaining());
+            } else if (read > 0) {
+                deadlines.onBytes();
+            }
+        }
+        readBuffer.compact();
+
+        if (!valid) {
+            ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+            session.onDisconnect();
+            closeWhenFlushed();
+        } else if (session.isDone()) {
+            closeWhenFlushed();
+        } else if (!readBuffer.hasRemaining()) {
+            // A full buffer without a complete line or frame is not one we will ever accept
+            ServerMetrics.increment(ServerMetrics.INVALID_INPUTS);
+            if (!binary) {
+                response.line("INVALID: Line too long.");
+                flushResponse();
+            }
+            session.onDisconnect();
+            closeWhenFlushed();
+        }
+    }
+
+    private void readLines() {
+        int lineStart = readBuffer.position();
+        for (int i = lineStart; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\n') {
+                int end = i;
+                if (end > lineStart && readBuffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                String line = new String(readBuffer.array(), lineStart, end - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+
+                session.onLine(line, response);
+                if (session.isDone()) {
+                    break;
+                }
+            }
+        }
+        readBuffer.position(lineStart);
+    }
+
+    void onWritable() throws IOException {
+        if (tls != null) {
+            if (!tls.flush()) {
+                return;
+            }
+            if (pendingWrite == null || tls.isHandshaking()) {
+                // Nothing to write until the handshake needs the socket again or is done
+                key.interestOps(SelectionKey.OP_READ);
+                if (pendingWrite == null && session.isDone()) {
+                    close();
+                }
+                return;
+            }
+        }
+        write(pendingWrite);
+        if (!pendingWrite.hasRemaining() && (tls == null || !tls.hasPendingOutput())) {
+            pendingWrite = null;
+            key.interestOps(SelectionKey.OP_READ);
+            if (session.isDone()) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void deliver(Broadcast broadcast) {
+        if (inboxSize.incrementAndGet() > MAX_PENDING_BROADCASTS) {
+            // Too far behind the room: drop it rather than buffer without bound
+            if (dropped.compareAndSet(false, true)) {
+                ServerMetrics.increment(ServerMetrics.ROOM_MEMBERS_DROPPED);
+                loop.execute(this::evict);
+            }
+            return;
+        }
+        inbox.add(broadcast);
+        if (drainScheduled.compareAndSet(false, true)) {
+            loop.execute(this::drainInbox);
+        }
+    }
+
+    /** Loop thread: writes everything in the inbox at once. */
+    private void drainInbox() {
+        drainScheduled.set(false);
+        List<ByteBuffer> batch = new ArrayList<>();
+        boolean endsGame = false;
+        Broadcast broadcast;
+        while ((broadcast = inbox.poll()) != null) {
+            inboxSize.decrementAndGet();
+            batch.add(broadcast.bytesFor(session.getProtocol()));
+            endsGame |= broadcast.endsGame();
+        }
+        if (batch.isEmpty() || !channel.isOpen()) {
+            return;
+        }
+        try {
+            queueWrite(batch.toArray(new ByteBuffer[0]));
+            if (endsGame) {
+                session.onDisconnect();
+                closeWhenFlushed();
+            }
+        } catch (IOException e) {
+            session.onDisconnect();
+            close();
+        }
+    }
+
+    /** Deadline passed: drop the connection without waiting for pending output. */
+    void evict() {
+        if (channel.isOpen()) {
+            session.onDisconnect();
+            close();
+        }
+    }
+
+    void close() {
+        if (deadlines != null) {
+            deadlines.stop();
+        }
+        if (channel.isOpen()) {
+            ServerMetrics.increment(ServerMetrics.CONNECTIONS_CLOSED);
+            loop.connectionClosed();
+        }
+        key.cancel();
+        if (tls != null && channel.isOpen()) {
+            tls.closeOutbound();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client channel: " + e.getMessage());
+        }
+    }
+
+    GameSession getSession() {
+        return session;
+    }
+
+    private void flushResponse() throws IOException {
+        if (response.isEmpty()) {
+            return;
+        }
+        queueWrite(response.toByteBuffer());
+        response.reset();
+    }
+
+    /**
+     * Writes now what the socket takes and keeps a copy of the rest: the buffers are either reused
+     * (the response) or shared with other connections (broadcasts).
+     */
+    private void queueWrite(ByteBuffer... buffers) throws IOException {
+        if (pendingWrite == null) {
+            write(buffers);
+        }
+        int remaining = pendingWrite == null ? 0 : pendingWrite.remaining();
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        if (remaining == 0) {
+            if (tls != null && tls.hasPendingOutput()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            return;
+        }
+
+        ByteBuffer merged = ByteBuffer.allocate(remaining);
+        if (pendingWrite != null) {
+            merged.put(pendingWrite);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        for (ByteBuffer buffer : buffers) {
+            merged.put(buffer);
+        }
+        pendingWrite = merged.flip();
+    }
+
+    private long write(ByteBuffer... buffers) throws IOException {
+        return tls == null ? channel.write(buffers) : tls.write(buffers);
+    }
+
+    private void closeWhenFlushed() {
+        if (pendingWrite == null && (tls == null || !tls.hasPendingOutput())) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+}
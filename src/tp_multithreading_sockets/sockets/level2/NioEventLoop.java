@@ -0,0 +1,189 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * One selector thread owning a subset of the connections.
+ * Channels are either handed over by the acceptor through a queue and registered on the loop's
+ * own thread, or accepted by the loop itself from a listening channel given to {@link #listen}.
+ */
+class NioEventLoop implements Runnable {
+    /** Bounded so a connection storm cannot starve the players already on this loop. */
+    private static final int MAX_ACCEPTS_PER_WAKEUP = 64;
+
+    private final Selector selector;
+    private final ServerContext context;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private final AtomicInteger connectionCount = new AtomicInteger();   // read from other threads
+    private volatile long acceptedCount;
+
+    NioEventLoop(ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+    }
+
+    /** Runs {@code task} on the loop thread, which owns every connection of this loop. */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /** Must be called before the loop is started. */
+    void listen(ServerSocketChannel listener) throws IOException {
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /** Called once by {@link NioConnection#close} when it closes an open channel. */
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                registerPendingChannels();
+                runPendingTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Event loop error: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection connection) {
+                    connection.close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            open(channel);
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void acceptAll(ServerSocketChannel listener) {
+        try {
+            SocketChannel channel;
+            for (int i = 0; i < MAX_ACCEPTS_PER_WAKEUP && (channel = listener.accept()) != null; i++) {
+                open(channel);
+            }
+        } catch (IOException e) {
+            // Listener closed on shutdown, or the client reset before we got to it
+            if (listener.isOpen()) {
+                System.err.println("Accept error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void open(SocketChannel channel) {
+        acceptedCount++;
+        NioConnection opened = null;
+        try {
+            String clientIP = channel.socket().getInetAddress().getHostAddress();
+            if (!context.limits().connections().tryAcquire(clientIP)) {
+                ServerMetrics.increment(ServerMetrics.CONNECTIONS_RATE_LIMITED);
+                channel.write(ByteBuffer.wrap(TextProtocol.RATE_LIMITED_LINE));
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            GameSession session = new GameSession(context, clientIP);
+            NioConnection connection = new NioConnection(channel, key, session, this,
+                    context.tls().isEnabled() ? new TlsChannel(channel, context.tls().newServerEngine()) : null);
+            opened = connection;
+            connectionCount.incrementAndGet();
+            session.attach(connection);
+            connection.watch(context.timeouts().watch(clientIP, () -> execute(connection::evict)));
+            key.attach(connection);
+            ServerMetrics.increment(ServerMetrics.CONNECTIONS_OPENED);
+            connection.start();
+        } catch (IOException e) {
+            System.err.println("Error registering client: " + e.getMessage());
+            if (opened != null) {
+                opened.close();
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already failing, nothing more to do
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (key.channel() instanceof ServerSocketChannel listener) {
+            if (key.isValid()) {
+                acceptAll(listener);
+            }
+            return;
+        }
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            connection.getSession().onDisconnect();
+            connection.close();
+        }
+    }
+}
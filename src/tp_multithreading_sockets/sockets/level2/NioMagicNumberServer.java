@@ -0,0 +1,205 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Event-loop version of {@link MultiThreadedMagicNumberServer}: a handful of selector threads
+ * serve every connection, instead of one thread per client.
+ * The line protocol (TOO_LOW / TOO_HIGH / CORRECT / INVALID) is unchanged.
+ *
+ * By default one acceptor thread hands connections to the loops round-robin. With sharded accept
+ * every loop accepts for itself: it gets its own listening socket on the shared port
+ * (SO_REUSEPORT, so the kernel balances connections and each shard has its own backlog), or,
+ * where SO_REUSEPORT is not available, all loops watch the same listening socket.
+ */
+public class NioMagicNumberServer implements Closeable {
+    private static final int DEFAULT_PORT = 12345;
+    private static final int MAX_LEADERBOARD_ENTRIES = 10;
+    static final int DEFAULT_BACKLOG = 1024;
+
+    private final ServerSocketChannel[] serverChannels;
+    private final NioEventLoop[] eventLoops;
+    private final Thread[] loopThreads;
+    private final Thread acceptThread;
+
+    public NioMagicNumberServer(int port, int eventLoopCount, Leaderboard leaderboard) throws IOException {
+        this(port, eventLoopCount, DEFAULT_BACKLOG, false, ServerContext.of(leaderboard));
+    }
+
+    public NioMagicNumberServer(int port, int eventLoopCount, int backlog, boolean shardedAccept,
+                                ServerContext context) throws IOException {
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+        this.loopThreads = new Thread[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new NioEventLoop(context);
+            loopThreads[i] = new Thread(eventLoops[i], "nio-loop-" + i);
+        }
+
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = shardedAccept && eventLoopCount > 1
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        this.serverChannels = new ServerSocketChannel[reusePort ? eventLoopCount : 1];
+        try {
+            serverChannels[0] = bind(first, port, backlog, reusePort);
+            int boundPort = first.socket().getLocalPort();      // the one picked if port was 0
+            for (int i = 1; i < serverChannels.length; i++) {
+                serverChannels[i] = bind(ServerSocketChannel.open(), boundPort, backlog, true);
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
+            }
+            throw e;
+        }
+
+        if (shardedAccept) {
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i].listen(serverChannels[i % serverChannels.length]);
+            }
+            this.acceptThread = null;
+        } else {
+            this.acceptThread = new Thread(this::acceptLoop, "nio-acceptor");
+        }
+    }
+
+    /** Binds {@code channel}, or closes it if that fails. */
+    private static ServerSocketChannel bind(ServerSocketChannel channel, int port, int backlog, boolean reusePort)
+            throws IOException {
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port), backlog);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void start() {
+        for (Thread loopThread : loopThreads) {
+            loopThread.start();
+        }
+        if (acceptThread != null) {
+            acceptThread.start();
+        }
+    }
+
+    public int getPort() {
+        return serverChannels[0].socket().getLocalPort();
+    }
+
+    /** Number of listening sockets: one per loop with SO_REUSEPORT, otherwise one. */
+    public int getListenerCount() {
+        return serverChannels.length;
+    }
+
+    /** Connections accepted since start, open or not. */
+    public long getAcceptedCount() {
+        long total = 0;
+        for (NioEventLoop loop : eventLoops) {
+            total += loop.getAcceptedCount();
+        }
+        return total;
+    }
+
+    public int getConnectionCount() {
+        int total = 0;
+        for (NioEventLoop loop : eventLoops) {
+            total += loop.getConnectionCount();
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            serverChannel.close();
+        }
+        for (NioEventLoop loop : eventLoops) {
+            loop.shutdown();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        try {
+            while (true) {
+                // Blocking accept, then hand the channel to a loop round-robin
+                SocketChannel channel = serverChannels[0].accept();
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } catch (ClosedChannelException e) {
+            // server closed
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Usage: java NioMagicNumberServer [port] [eventLoops] [backlog] [single|sharded] [metricsPort] [ranges]
+     *        [keystore.p12|self-signed] [keystorePassword]
+     *
+     * A keystore (or "self-signed") turns on TLS.
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int eventLoopCount = Runtime.getRuntime().availableProcessors();
+        int backlog = DEFAULT_BACKLOG;
+        boolean shardedAccept = false;
+
+        if (args.length >= 1) {
+            port = Integer.parseInt(args[0]);
+        }
+        if (args.length >= 2) {
+            eventLoopCount = Integer.parseInt(args[1]);
+        }
+        if (args.length >= 3) {
+            backlog = Integer.parseInt(args[2]);
+        }
+        if (args.length >= 4) {
+            shardedAccept = args[3].equalsIgnoreCase("sharded");
+        }
+        int metricsPort = args.length >= 5 ? Integer.parseInt(args[4]) : -1;
+        String rangeSpec = args.length >= 6 ? args[5] : NumberRange.DEFAULT.toString();
+
+        try {
+            TlsConfig tls = args.length >= 7 ? TlsConfig.of(args[6], args.length >= 8 ? args[7] : "changeit")
+                                             : TlsConfig.NONE;
+            ConnectionTimeouts timeouts = ConnectionTimeouts.defaults();
+            ServerContext context = ServerContext
+                    .of(GameRanges.parse(rangeSpec, new Leaderboard(MAX_LEADERBOARD_ENTRIES), MAX_LEADERBOARD_ENTRIES))
+                    .withTimeouts(timeouts)
+                    .withSessions(new SessionStore(SessionStore.DEFAULT_CAPACITY, SessionStore.DEFAULT_TTL_MILLIS))
+                    .withTls(tls);
+            NioMagicNumberServer server = new NioMagicNumberServer(port, eventLoopCount, backlog, shardedAccept, context);
+            server.start();
+            System.out.println("🎮 NIO Magic Number Guessing Game Server");
+            System.out.println("Server listening on port " + server.getPort() + " with " + eventLoopCount + " event loop(s)");
+            System.out.println("Accept: " + (shardedAccept ? "sharded over " + server.getListenerCount()
+                    + " listening socket(s)" : "single acceptor thread") + ", backlog " + backlog);
+            System.out.println("Ranges: " + rangeSpec);
+            System.out.println("Timeouts: " + timeouts);
+            System.out.println("Transport: " + tls);
+            if (metricsPort >= 0) {
+                MetricsEndpoint endpoint = MetricsEndpoint.start(ServerMetrics.REGISTRY, metricsPort);
+                System.out.println("📊 Metrics: http://127.0.0.1:" + endpoint.getPort() + "/metrics");
+            }
+            System.out.println("(Press Ctrl+C to stop the server)\n");
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+
+/**
+ * Draws magic numbers from many threads at once, the way handler threads do when a crowd of
+ * players enters their names, and reports throughput per generator: {@code Math.random()} (one
+ * shared seed updated by CAS), {@link NumberRange#randomNumber()} ({@code ThreadLocalRandom}) and
+ * one {@link SplittableRandom} per thread split from a common root.
+ *
+ * Usage: java NumberGenerationBenchmark [drawsPerThread=2000000] [threads=1,4,16,64]
+ */
+public class NumberGenerationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int draws = args.length >= 1 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] threadCounts = (args.length >= 2 ? args[1] : "1,4,16,64").split(",");
+        NumberRange range = NumberRange.DEFAULT;
+        SplittableRandom root = new SplittableRandom();
+
+        // Warm-up
+        for (int i = 0; i < 3; i++) {
+            run(() -> () -> (long) (Math.random() * (range.max() - range.min() + 1)) + range.min(), 4, draws);
+            run(() -> range::randomNumber, 4, draws);
+            run(() -> split(root, range), 4, draws);
+        }
+
+        System.out.println("cpus=" + Runtime.getRuntime().availableProcessors());
+        for (String count : threadCounts) {
+            int threads = Integer.parseInt(count.trim());
+            report("math_random", threads, draws,
+                    run(() -> () -> (long) (Math.random() * (range.max() - range.min() + 1)) + range.min(),
+                        threads, draws));
+            report("thread_local_random", threads, draws, run(() -> range::randomNumber, threads, draws));
+            report("splittable_random", threads, draws, run(() -> split(root, range), threads, draws));
+        }
+    }
+
+    private static LongSupplier split(SplittableRandom root, NumberRange range) {
+        SplittableRandom random;
+        synchronized (root) {
+            random = root.split();
+        }
+        return () -> random.nextLong(range.min(), range.max() + 1);
+    }
+
+    /** Each thread gets its own supplier from {@code perThread}; returns the wall time of all draws. */
+    private static long run(Supplier<LongSupplier> perThread, int threads, int draws) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] sinks = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                LongSupplier generator = perThread.get();
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long sum = 0;
+                for (int i = 0; i < draws; i++) {
+                    sum += generator.getAsLong();
+                }
+                sinks[index] = sum;
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String generator, int threads, int draws, long nanos) {
+        long total = (long) threads * draws;
+        System.out.printf("generator=%s threads=%d draws=%d million_per_sec=%.1f ns_per_draw=%.1f%n",
+                generator, threads, total, total * 1000.0 / nanos, (double) nanos / total);
+    }
+}
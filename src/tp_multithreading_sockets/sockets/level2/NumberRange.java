@@ -0,0 +1,58 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Inclusive range the magic number is drawn from; anything from 0..100 up to the whole long space.
+ * Numbers come from {@link ThreadLocalRandom}: {@code Math.random()} shares one generator (one CAS
+ * on one seed) between every handler thread.
+ */
+public record NumberRange(long min, long max) {
+    public static final NumberRange DEFAULT = new NumberRange(0, 100);
+    public static final NumberRange FULL = new NumberRange(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    public NumberRange {
+        if (min > max) {
+            throw new IllegalArgumentException("Empty range: " + min + ".." + max);
+        }
+    }
+
+    /** "min..max", or "full" for the whole long space. */
+    public static NumberRange parse(String text) {
+        String trimmed = text.trim();
+        if (trimmed.equalsIgnoreCase("full")) {
+            return FULL;
+        }
+        int dots = trimmed.indexOf("..");
+        if (dots < 0) {
+            throw new IllegalArgumentException("Expected min..max: " + text);
+        }
+        return new NumberRange(Long.parseLong(trimmed.substring(0, dots).trim()),
+                               Long.parseLong(trimmed.substring(dots + 2).trim()));
+    }
+
+    public long randomNumber() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (max < Long.MAX_VALUE) {
+            return random.nextLong(min, max + 1);
+        }
+        // max + 1 would overflow: shift the bound down by one instead
+        return min == Long.MIN_VALUE ? random.nextLong() : random.nextLong(min - 1, max) + 1;
+    }
+
+    public boolean contains(long value) {
+        return value >= min && value <= max;
+    }
+
+    /** Worst case of a binary search over the range: floor(log2(size)) + 1 guesses. */
+    public int maxBinarySearchGuesses() {
+        long span = max - min;                  // size - 1, read as unsigned
+        return span == -1 ? 65 : 64 - Long.numberOfLeadingZeros(span + 1);
+    }
+
+    @Override
+    public String toString() {
+        return equals(FULL) ? "full" : min + ".." + max;
+    }
+}
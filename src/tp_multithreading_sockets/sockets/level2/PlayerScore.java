@@ -1,15 +1,22 @@
 package tp_multithreading_sockets.sockets.level2;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 
 public class PlayerScore implements Comparable<PlayerScore> {
+    private static final AtomicLong NEXT_SEQUENCE = new AtomicLong();
+
     private String playerName;
     private int attempts;
     private String ipAddress;
+    private final long sequence;
+    private String formatted;
 
     public PlayerScore(String playerName, int attempts, String ipAddress) {
         this.playerName = playerName;
         this.attempts = attempts;
         this.ipAddress = ipAddress;
+        this.sequence = NEXT_SEQUENCE.getAndIncrement();
     }
 
     public String getPlayerName() {
@@ -31,12 +38,21 @@ public class PlayerScore implements Comparable<PlayerScore> {
         if (attemptsComparison != 0) {
             return attemptsComparison;
         }
-        return this.playerName.compareToIgnoreCase(other.playerName);
+        int nameComparison = this.playerName.compareToIgnoreCase(other.playerName);
+        if (nameComparison != 0) {
+            return nameComparison;
+        }
+        // Same attempts and name: earlier score first, so sorted sets keep both
+        return Long.compare(this.sequence, other.sequence);
     }
 
     @Override
     public String toString() {
-        return String.format("%-20s %-6d %s", playerName, attempts, ipAddress);
+        // Formatted once: the same row is rendered again every time the board changes
+        if (formatted == null) {
+            formatted = String.format("%-20s %-6d %s", playerName, attempts, ipAddress);
+        }
+        return formatted;
     }
 }
 
@@ -0,0 +1,34 @@
+package tp_multithreading_sockets.sockets.level2;
+
+
+/**
+ * Encodes the server's side of the game into a {@link ResponseBuffer}.
+ * {@link GameSession} decides what to say; a protocol decides how it looks on the wire.
+ */
+interface Protocol {
+
+    void prompt(ResponseBuffer out);
+
+    /** {@code sessionToken} is null when the server does not park games. */
+    void welcome(String playerName, long min, long max, String sessionToken, ResponseBuffer out);
+
+    void resumed(String playerName, long min, long max, int attempts, String sessionToken, ResponseBuffer out);
+
+    void unknownSession(ResponseBuffer out);
+
+    void tooLow(ResponseBuffer out);
+
+    void tooHigh(ResponseBuffer out);
+
+    void invalid(String message, ResponseBuffer out);
+
+    /** Another member of the room missed: a hint for everybody in it. */
+    void roomHint(String playerName, long guess, boolean tooLow, ResponseBuffer out);
+
+    /** Someone won the room's round, which ends every member's game. */
+    void roomWinner(String playerName, int attempts, long magicNumber, ResponseBuffer out);
+
+    /** {@code binarySearchAttempts} is the most a binary search can take on this game's range. */
+    void correct(String playerName, int attempts, int binarySearchAttempts, Leaderboard.Snapshot board, long rank,
+                 ResponseBuffer out);
+}
@@ -0,0 +1,218 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Plays the same binary-search games over the text and the binary protocol against an in-process
+ * {@link NioMagicNumberServer} and reports, per game: bytes on the wire in each direction,
+ * read/write system calls made by the client (each blocking channel call is one syscall, and the
+ * server makes one read per request and one write per response), and server CPU time.
+ *
+ * Usage: java ProtocolBenchmark [games]
+ */
+public class ProtocolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int games = args.length >= 1 ? Integer.parseInt(args[0]) : 20000;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NioMagicNumberServer server = new NioMagicNumberServer(0, 1, new Leaderboard(10));
+        server.start();
+        try {
+            // Warm-up both paths before measuring
+            run(server.getPort(), false, games / 4);
+            run(server.getPort(), true, games / 4);
+            console.println(run(server.getPort(), false, games));
+            console.println(run(server.getPort(), true, games));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static String run(int port, boolean binary, int games) throws IOException {
+        long cpuBefore = serverCpuNanos();
+        GameClient total = new GameClient();
+        int guesses = 0;
+        for (int i = 0; i < games; i++) {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+                GameClient client = new GameClient();
+                guesses += binary ? client.playBinary(channel) : client.playText(channel);
+                total.add(client);
+            }
+        }
+        long cpuNanos = serverCpuNanos() - cpuBefore;
+
+        return String.format("protocol=%s games=%d guesses_per_game=%.2f bytes_sent_per_game=%.1f "
+                        + "bytes_received_per_game=%.1f client_writes_per_game=%.2f client_reads_per_game=%.2f "
+                        + "server_cpu_us_per_game=%.1f",
+                binary ? "binary" : "text", games, (double) guesses / games,
+                (double) total.bytesSent / games, (double) total.bytesReceived / games,
+                (double) total.writes / games, (double) total.reads / games,
+                cpuNanos / 1000.0 / games);
+    }
+
+    private static long serverCpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("nio-")) {
+                total += Math.max(0, threads.getThreadCpuTime(thread.threadId()));
+            }
+        }
+        return total;
+    }
+
+
+    private static class GameClient {
+        private final ByteBuffer in = ByteBuffer.allocate(8192).flip();
+        private final ResponseBuffer out = new ResponseBuffer(64);
+        private SocketChannel channel;
+        private long bytesSent;
+        private long bytesReceived;
+        private long writes;
+        private long reads;
+
+        int playText(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            readLine();                         // Enter your name:
+            out.line("bot");
+            send();
+            readLine();                         // Welcome, ...
+
+            long low = NumberRange.DEFAULT.min();
+            long high = NumberRange.DEFAULT.max();
+            int guesses = 0;
+            while (true) {
+                long mid = (low + high) >>> 1;
+                out.line(Long.toString(mid));
+                send();
+                guesses++;
+                String response = readLine();
+                if (response.equals("TOO_LOW")) {
+                    low = mid + 1;
+                } else if (response.equals("TOO_HIGH")) {
+                    high = mid - 1;
+                } else {
+                    while (!readLine().startsWith("Your rank:")) {
+                        // congratulations and leaderboard
+                    }
+                    return guesses;
+                }
+            }
+        }
+
+        int playBinary(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            // HELLO and NAME go out together; the server switches protocol on the first byte
+            out.append(BinaryProtocol.HELLO);
+            BinaryProtocol.writeName(out, "bot");
+            send();
+            readLine();                         // text prompt sent before the switch
+            readByte();                         // WELCOME
+            long low = BinaryProtocol.zigzagDecode(readVarint());
+            long high = BinaryProtocol.zigzagDecode(readVarint());
+            skip((int) readVarint());           // session token
+
+            int guesses = 0;
+            while (true) {
+                long mid = (low + high) >>> 1;
+                BinaryProtocol.writeGuess(out, mid);
+                send();
+                guesses++;
+                byte response = readByte();
+                if (response == BinaryProtocol.TOO_LOW) {
+                    low = mid + 1;
+                } else if (response == BinaryProtocol.TOO_HIGH) {
+                    high = mid - 1;
+                } else {
+                    readVarint();               // attempts
+                    readVarint();               // rank
+                    skip((int) readVarint());   // leaderboard
+                    return guesses;
+                }
+            }
+        }
+
+        void add(GameClient other) {
+            bytesSent += other.bytesSent;
+            bytesReceived += other.bytesReceived;
+            writes += other.writes;
+            reads += other.reads;
+        }
+
+        private void send() throws IOException {
+            ByteBuffer bytes = out.toByteBuffer();
+            bytesSent += bytes.remaining();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+                writes++;
+            }
+            out.reset();
+        }
+
+        private void fill() throws IOException {
+            in.compact();
+            int read = channel.read(in);
+            reads++;
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("server closed the connection");
+            }
+            bytesReceived += read;
+        }
+
+        private String readLine() throws IOException {
+            while (true) {
+                for (int i = in.position(); i < in.limit(); i++) {
+                    if (in.get(i) == '\n') {
+                        String line = new String(in.array(), in.position(), i - in.position(), StandardCharsets.UTF_8);
+                        in.position(i + 1);
+                        return line;
+                    }
+                }
+                fill();
+            }
+        }
+
+        private byte readByte() throws IOException {
+            while (!in.hasRemaining()) {
+                fill();
+            }
+            return in.get();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private void skip(int count) throws IOException {
+            while (count > 0) {
+                if (!in.hasRemaining()) {
+                    fill();
+                }
+                int step = Math.min(count, in.remaining());
+                in.position(in.position() + step);
+                count -= step;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+/**
+ * Scores of every range, not just the default one, must survive a restart and reach the other
+ * nodes of a cluster, each on the leaderboard of its own range:
+ * - one {@link ScoreLog} per range under the data directory, reopened into new leaderboards
+ * - two {@link ClusterNode}s on localhost sharing the leaderboards of both ranges
+ *
+ * Usage: java RangeLeaderboardsTest [basePort=29301]
+ */
+public class RangeLeaderboardsTest {
+    private static final String RANGES = "0..100,full";
+    private static final long PUBLISH_MILLIS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int basePort = args.length >= 1 ? Integer.parseInt(args[0]) : 29301;
+        persistence();
+        cluster(basePort);
+        System.out.println("✅ Range leaderboards: persisted and shared per range");
+    }
+
+    private static void persistence() throws Exception {
+        Path directory = Files.createTempDirectory("range-leaderboards");
+        try {
+            GameRanges ranges = GameRanges.parse(RANGES, new Leaderboard(10), 10);
+            List<ScoreLog> logs = openLogs(directory, ranges);
+            ranges.leaderboardFor(NumberRange.DEFAULT).addScore("alice", 5, "10.0.0.1");
+            for (int i = 0; i < 3; i++) {
+                ranges.leaderboardFor(NumberRange.FULL).addScore("bob" + i, 60 + i, "10.0.0.2");
+            }
+            for (ScoreLog log : logs) {
+                log.close();
+            }
+
+            GameRanges restarted = GameRanges.parse(RANGES, new Leaderboard(10), 10);
+            for (ScoreLog log : openLogs(directory, restarted)) {
+                log.close();
+            }
+            check(restarted.leaderboardFor(NumberRange.DEFAULT).getTotalScores() == 1, "0..100 restored 1 score");
+            check(restarted.leaderboardFor(NumberRange.FULL).getTotalScores() == 3,
+                    "full restored " + restarted.leaderboardFor(NumberRange.FULL).getTotalScores() + " of 3 scores");
+            check(restarted.leaderboardFor(NumberRange.FULL).getLeaderboardString().contains("bob0"), "full top entries");
+        } finally {
+            try (Stream<Path> walk = Files.walk(directory)) {
+                for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static List<ScoreLog> openLogs(Path directory, GameRanges ranges) throws Exception {
+        List<ScoreLog> logs = new ArrayList<>();
+        for (NumberRange range : ranges.getRanges()) {
+            logs.add(ScoreLog.open(GameRanges.dataDirectory(directory, range), ranges.leaderboardFor(range), 10, 64, 1000));
+        }
+        return logs;
+    }
+
+    private static void cluster(int basePort) throws Exception {
+        GameRanges a = GameRanges.parse(RANGES, new Leaderboard(10), 10);
+        GameRanges b = GameRanges.parse(RANGES, new Leaderboard(10), 10);
+        ClusterNode nodeA = ClusterNode.start("node-a", basePort, List.of(new InetSocketAddress("127.0.0.1", basePort + 1)),
+                PUBLISH_MILLIS, a.byName());
+        ClusterNode nodeB = ClusterNode.start("node-b", basePort + 1, List.of(new InetSocketAddress("127.0.0.1", basePort)),
+                PUBLISH_MILLIS, b.byName());
+        try {
+            a.leaderboardFor(NumberRange.DEFAULT).addScore("alice", 5, "10.0.0.1");
+            for (int i = 0; i < 3; i++) {
+                a.leaderboardFor(NumberRange.FULL).addScore("bob" + i, 60 + i, "10.0.0.2");
+            }
+            b.leaderboardFor(NumberRange.FULL).addScore("carol", 50, "10.0.0.3");
+            Thread.sleep(PUBLISH_MILLIS * 10);
+
+            for (GameRanges node : List.of(a, b)) {
+                ClusterLeaderboard small = node.leaderboardFor(NumberRange.DEFAULT).getCluster();
+                ClusterLeaderboard full = node.leaderboardFor(NumberRange.FULL).getCluster();
+                check(small.getTotalScores() == 1, small.getNodeId() + " 0..100 has " + small.getTotalScores() + " of 1 score");
+                check(full.getTotalScores() == 4, full.getNodeId() + " full has " + full.getTotalScores() + " of 4 scores");
+                check(full.getRank(50) == 1 && full.getRank(62) == 4, full.getNodeId() + " full ranks");
+                check(Leaderboard.render(full.getLeaderboard()).contains("carol"), full.getNodeId() + " full top entries");
+            }
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("❌ FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
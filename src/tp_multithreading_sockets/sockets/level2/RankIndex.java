@@ -0,0 +1,102 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Counts of every score ever recorded, indexed by attempts, stored as a Fenwick (binary indexed) tree.
+ * Memory depends only on {@code maxAttempts}, not on how many scores were recorded, and both
+ * recording and rank queries are O(log maxAttempts). Updates are lock-free: a query racing with
+ * an insert may or may not count that insert yet.
+ *
+ * Scores with more than {@code maxAttempts} attempts share the last bucket.
+ */
+public class RankIndex {
+    private final AtomicLongArray tree;
+    private final int maxAttempts;
+
+    public RankIndex(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        this.tree = new AtomicLongArray(maxAttempts + 1);
+    }
+
+    public void record(int attempts) {
+        record(attempts, 1);
+    }
+
+    public void record(int attempts, long count) {
+        for (int i = bucket(attempts); i <= maxAttempts; i += i & -i) {
+            tree.getAndAdd(i, count);
+        }
+    }
+
+    /**
+     * Competition rank: 1 + the number of recorded scores with strictly fewer attempts,
+     * so players with the same number of attempts share a rank.
+     */
+    public long rankOf(int attempts) {
+        return 1 + countAtMost(bucket(attempts) - 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long size() {
+        return countAtMost(maxAttempts);
+    }
+
+    /**
+     * Returns the attempts of the score at the given 1-based rank (the cut-off to be in the top-K),
+     * or -1 if fewer scores were recorded.
+     */
+    public int attemptsAtRank(long rank) {
+        if (rank < 1 || rank > size()) {
+            return -1;
+        }
+        // Binary lifting: find the largest position whose prefix count is still below rank
+        int position = 0;
+        long remaining = rank;
+        for (int step = Integer.highestOneBit(maxAttempts); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= maxAttempts) {
+                long count = tree.get(next);
+                if (count < remaining) {
+                    position = next;
+                    remaining -= count;
+                }
+            }
+        }
+        return position + 1;
+    }
+
+    /**
+     * Returns the count of every bucket ({@code counts[attempts]}, index 0 unused) in O(maxAttempts),
+     * by undoing the tree's partial sums from the top down.
+     */
+    public long[] counts() {
+        long[] counts = new long[maxAttempts + 1];
+        for (int i = 1; i <= maxAttempts; i++) {
+            counts[i] = tree.get(i);
+        }
+        for (int i = maxAttempts; i >= 1; i--) {
+            int parent = i + (i & -i);
+            if (parent <= maxAttempts) {
+                counts[parent] -= counts[i];
+            }
+        }
+        return counts;
+    }
+
+    private long countAtMost(int bucket) {
+        long count = 0;
+        for (int i = bucket; i > 0; i -= i & -i) {
+            count += tree.get(i);
+        }
+        return count;
+    }
+
+    private int bucket(int attempts) {
+        return Math.max(1, Math.min(attempts, maxAttempts));
+    }
+}
@@ -0,0 +1,84 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Inserts many scores into a {@link Leaderboard} from writer threads while reader threads keep
+ * asking for global ranks and the top-K cut-off, then reports both rates and the heap used.
+ *
+ * Usage: java RankIndexBenchmark [totalScores] [writers] [readers]
+ */
+public class RankIndexBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        long totalScores = args.length >= 1 ? Long.parseLong(args[0]) : 10_000_000L;
+        int writers = args.length >= 2 ? Integer.parseInt(args[1]) : 4;
+        int readers = args.length >= 3 ? Integer.parseInt(args[2]) : 4;
+
+        System.gc();
+        long heapBefore = usedHeap();
+
+        Leaderboard leaderboard = new Leaderboard(10);
+        LongAdder queries = new LongAdder();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> writerThreads = new ArrayList<>();
+
+        long perWriter = totalScores / writers;
+        for (int w = 0; w < writers; w++) {
+            String name = "player-" + w;
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (long i = 0; i < perWriter; i++) {
+                    leaderboard.addScore(name, 1 + random.nextInt(100), "127.0.0.1");
+                }
+            });
+            writerThreads.add(writer);
+        }
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            Thread reader = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                RankIndex index = leaderboard.getRankIndex();
+                while (writing.get()) {
+                    leaderboard.getRank(1 + random.nextInt(100));
+                    index.attemptsAtRank(1 + random.nextInt(1000));
+                    queries.add(2);
+                }
+            });
+            readerThreads.add(reader);
+        }
+
+        long start = System.nanoTime();
+        readerThreads.forEach(Thread::start);
+        writerThreads.forEach(Thread::start);
+        for (Thread writer : writerThreads) {
+            writer.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        writing.set(false);
+        for (Thread reader : readerThreads) {
+            reader.join();
+        }
+
+        System.gc();
+        long heapAfter = usedHeap();
+        double seconds = elapsed / 1e9;
+
+        System.out.printf("scores=%d writers=%d readers=%d inserts_per_sec=%.0f rank_queries_per_sec=%.0f "
+                        + "retained_heap_kb=%d rank_of_50_attempts=%d top_1000_cutoff_attempts=%d%n",
+                leaderboard.getTotalScores(), writers, readers,
+                leaderboard.getTotalScores() / seconds, queries.sum() / seconds,
+                Math.max(0, heapAfter - heapBefore) / 1024,
+                leaderboard.getRank(50), leaderboard.getRankIndex().attemptsAtRank(1000));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,132 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Token buckets keyed by client address. Each key may take {@code burst} permits at once and then
+ * {@code permitsPerSecond} on average.
+ *
+ * A bucket is a single long: the time at which it will be full again (the GCRA form of a token
+ * bucket). It is updated with a CAS, so {@link #tryAcquire} costs one map lookup plus one CAS and
+ * never blocks.
+ *
+ * At most about {@code capacity} keys are tracked. A full bucket behaves exactly like a missing one.
+ * So once the map grows past capacity, a sweep first drops the full (cold) buckets, which changes
+ * nothing. Only if that is not enough does it drop other buckets, which just forgives those keys'
+ * recent use. The sweep runs on a virtual thread of its own, so the caller (often the acceptor)
+ * never waits for it. It takes the map down to 90% of capacity, which spreads its O(n) cost over
+ * the next 10% of new keys.
+ */
+public final class RateLimiter {
+    /** Lets everything through without tracking anything. */
+    public static final RateLimiter UNLIMITED = new RateLimiter(0, 1, 0);
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int capacity;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder evicted = new LongAdder();
+
+    /** {@code permitsPerSecond <= 0} means unlimited. */
+    public RateLimiter(double permitsPerSecond, int burst, int capacity) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1: " + burst);
+        }
+        this.intervalNanos = permitsPerSecond > 0 ? Math.max(1, (long) (1e9 / permitsPerSecond)) : 0;
+        this.burstNanos = intervalNanos * burst;
+        this.capacity = capacity;
+    }
+
+    public boolean isEnabled() {
+        return intervalNanos > 0;
+    }
+
+    /** Takes one permit for {@code key}; returns false if its bucket is empty. */
+    public boolean tryAcquire(String key) {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Bucket created = new Bucket(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+                if (buckets.size() > capacity && sweeping.compareAndSet(false, true)) {
+                    Thread.ofVirtual().name("rate-limiter-sweep").start(this::sweep);
+                }
+            }
+        }
+        return bucket.tryAcquire(now, intervalNanos, burstNanos);
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        try {
+            int target = capacity - capacity / 10;
+            int before = buckets.size();
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+            Iterator<Bucket> warm = buckets.values().iterator();
+            while (buckets.size() > target && warm.hasNext()) {
+                warm.next();
+                warm.remove();
+            }
+            evicted.add(Math.max(0, before - buckets.size()));
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /** Keys tracked right now. */
+    public int size() {
+        return buckets.size();
+    }
+
+    /** Buckets dropped by sweeps so far, cold or not. */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? String.format("%.1f/s, burst %d, up to %d addresses",
+                1e9 / intervalNanos, burstNanos / intervalNanos, capacity) : "unlimited";
+    }
+
+
+    private static final class Bucket {
+        private static final AtomicLongFieldUpdater<Bucket> FULL_AT =
+                AtomicLongFieldUpdater.newUpdater(Bucket.class, "fullAt");
+
+        /** When the bucket holds {@code burst} permits again; at or before now means full. */
+        private volatile long fullAt;
+
+        Bucket(long now) {
+            this.fullAt = now;
+        }
+
+        boolean tryAcquire(long now, long intervalNanos, long burstNanos) {
+            while (true) {
+                long current = fullAt;
+                long next = Math.max(current - now, 0) + intervalNanos;
+                if (next > burstNanos) {
+                    return false;
+                }
+                if (FULL_AT.compareAndSet(this, current, now + next)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return fullAt - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Measures what {@link RateLimiter} costs per guess and how much memory it takes for a million
+ * distinct addresses. It then checks that the limits work end to end: one greedy address on a
+ * real server is held to its rates.
+ *
+ * Usage: java RateLimiterBenchmark [addresses=1000000] [threads=4]
+ */
+public class RateLimiterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int addresses = args.length >= 1 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length >= 2 ? Integer.parseInt(args[1]) : 4;
+
+        // Per guess: one hot address per thread, the rate high enough that every call succeeds
+        RateLimiter unlimited = RateLimiter.UNLIMITED;
+        RateLimiter limited = new RateLimiter(1e12, 1000, addresses);
+        for (int i = 0; i < 3; i++) {
+            acquire(unlimited, threads, 5_000_000);
+            acquire(limited, threads, 5_000_000);
+        }
+        for (int t : new int[] {1, threads}) {
+            System.out.printf("threads=%d unlimited_ns_per_guess=%.1f limited_ns_per_guess=%.1f%n",
+                    t, acquire(unlimited, t, 20_000_000), acquire(limited, t, 20_000_000));
+        }
+
+        // Memory: a million distinct addresses, then three million more into the same bound
+        long heapBefore = usedHeap();
+        RateLimiter many = new RateLimiter(5, 20, addresses);
+        long start = System.nanoTime();
+        for (int i = 0; i < addresses; i++) {
+            many.tryAcquire(address(i));
+        }
+        double firstNanos = (double) (System.nanoTime() - start) / addresses;
+        long heapFull = usedHeap() - heapBefore;
+        System.out.printf("addresses=%d size=%d heap_mb=%.1f bytes_per_address=%d new_address_ns=%.0f%n",
+                addresses, many.size(), heapFull / 1e6, heapFull / addresses, firstNanos);
+
+        long worst = 0;
+        start = System.nanoTime();
+        int total = addresses * 4;
+        for (int i = addresses; i < total; i++) {
+            String key = address(i);
+            long before = System.nanoTime();
+            many.tryAcquire(key);
+            worst = Math.max(worst, System.nanoTime() - before);
+        }
+        double overflowNanos = (double) (System.nanoTime() - start) / (total - addresses);
+        System.out.printf("overflow_addresses=%d size=%d evicted=%d heap_mb=%.1f new_address_ns=%.0f "
+                        + "worst_call_ms=%.1f%n",
+                total, many.size(), many.getEvictedCount(), (usedHeap() - heapBefore) / 1e6,
+                overflowNanos, worst / 1e6);
+        Thread.sleep(500);
+        System.out.printf("after_sweep size=%d evicted=%d%n", many.size(), many.getEvictedCount());
+        endToEnd();
+    }
+
+    /** A distinct IPv4 address for every {@code i} below 2^24. */
+    private static String address(int i) {
+        return "10." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+    }
+
+    /**
+     * Mean cost of one {@code tryAcquire}, with {@code threads} threads each hitting its own address.
+     * Wall time is multiplied by the number of threads that can actually run at once.
+     */
+    private static double acquire(RateLimiter limiter, int threads, int calls) throws InterruptedException {
+        int perThread = calls / threads;
+        LongAdder denied = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            String key = "192.168.0." + t;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (!limiter.tryAcquire(key)) {
+                        denied.increment();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (denied.sum() > 0) {
+            throw new IllegalStateException("Expected every permit to be granted");
+        }
+        int running = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        return (double) (System.nanoTime() - start) * running / (perThread * (long) threads);
+    }
+
+    /**
+     * One address opens connections and guesses as fast as it can for two seconds against a
+     * server allowing 5 connections/s (burst 10) and 20 guesses/s (burst 50).
+     */
+    private static void endToEnd() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        RateLimits limits = new RateLimits(new RateLimiter(5, 10, 1000), new RateLimiter(20, 50, 1000));
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread server = new Thread(() -> {
+            try {
+                MultiThreadedMagicNumberServer.serve(serverSocket, ServerContext.of(new Leaderboard(10)).withLimits(limits),
+                        ExecutionMode.VIRTUAL.createExecutor(0, 0), new Semaphore(Integer.MAX_VALUE), new LongAdder());
+            } catch (Exception e) {
+                // closed
+            }
+        });
+        server.start();
+
+        int connected = 0;
+        int refused = 0;
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            try (Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort())) {
+                String greeting = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8)).readLine();
+                if (greeting != null && greeting.startsWith("BUSY")) {
+                    refused++;
+                } else {
+                    connected++;
+                }
+            }
+        }
+
+        Thread.sleep(2000);                     // let the connection bucket refill for the next part
+        int answered = 0;
+        int limited = 0;
+        try (Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            in.readLine();
+            out.write("greedy\n".getBytes(StandardCharsets.UTF_8));
+            in.readLine();
+            deadline = System.nanoTime() + 2_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                out.write("-1\n".getBytes(StandardCharsets.UTF_8));
+                String reply = in.readLine();
+                if (reply.startsWith("INVALID")) {
+                    limited++;
+                } else {
+                    answered++;
+                }
+            }
+        } catch (Exception e) {
+            console.println("end_to_end_error=" + e.getMessage());
+        }
+        serverSocket.close();
+        console.printf("greedy_address connections_accepted=%d connections_refused=%d guesses_answered=%d "
+                + "guesses_limited=%d (limits allow 10+5*2=20 connections and 50+20*2=90 guesses)%n",
+                connected, refused, answered, limited);
+        System.exit(0);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,20 @@
+package tp_multithreading_sockets.sockets.level2;
+
+
+/**
+ * Per-address limits of one server: new connections, checked right after accept, and guesses,
+ * checked on every guess. Both are keyed by the client's IP, so all the connections of one
+ * address share its guess budget.
+ */
+public record RateLimits(RateLimiter connections, RateLimiter guesses) {
+    public static final RateLimits NONE = new RateLimits(RateLimiter.UNLIMITED, RateLimiter.UNLIMITED);
+
+    static final int DEFAULT_CONNECTION_BURST = 20;
+    static final int DEFAULT_GUESS_BURST = 50;
+    static final int DEFAULT_MAX_ADDRESSES = 1_000_000;
+
+    @Override
+    public String toString() {
+        return "connections " + connections + ", guesses " + guesses;
+    }
+}
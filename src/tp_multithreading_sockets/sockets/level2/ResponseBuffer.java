@@ -0,0 +1,78 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Growable byte buffer holding the response to one protocol step, already encoded as UTF-8.
+ */
+class ResponseBuffer {
+    private byte[] bytes;
+    private int length;
+
+    ResponseBuffer() {
+        this(256);
+    }
+
+    ResponseBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /** Appends the text followed by '\n'. */
+    ResponseBuffer line(String text) {
+        append(text.getBytes(StandardCharsets.UTF_8));
+        return append((byte) '\n');
+    }
+
+    ResponseBuffer append(byte[] data) {
+        ensureCapacity(length + data.length);
+        System.arraycopy(data, 0, bytes, length, data.length);
+        length += data.length;
+        return this;
+    }
+
+    ResponseBuffer append(ByteBuffer data) {
+        int count = data.remaining();
+        ensureCapacity(length + count);
+        data.get(bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    ResponseBuffer append(byte value) {
+        ensureCapacity(length + 1);
+        bytes[length++] = value;
+        return this;
+    }
+
+    boolean isEmpty() {
+        return length == 0;
+    }
+
+    int size() {
+        return length;
+    }
+
+    /** Wraps the current content without copying; valid until the next append or reset. */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Restarts a real {@link MultiThreadedMagicNumberServer} process while client threads keep
+ * playing games on its port, and counts what the clients see. For each strategy it reports
+ * connections refused, connections reset before the prompt, games cut off mid-game, and games
+ * finished:
+ * - kill: SIGKILL the old process, then start the new one
+ * - drain: SIGTERM the old process (it drains), wait for it to exit, then start the new one
+ * - handoff: start the new process with --reuse-port, wait until it listens, then SIGTERM the old one
+ * - handoff_migrate: the same with net.ipv4.tcp_migrate_req=1, which moves connections still
+ *   queued on the closed listener to the new one (Linux 5.14+, needs root)
+ *
+ * Usage: java RollingRestartBenchmark [clients=50] [thinkMs=10] [port=24500]
+ */
+public class RollingRestartBenchmark {
+    private static final Path MIGRATE_REQ = Paths.get("/proc/sys/net/ipv4/tcp_migrate_req");
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length >= 1 ? Integer.parseInt(args[0]) : 50;
+        int thinkMillis = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length >= 3 ? Integer.parseInt(args[2]) : 24500;
+
+        String migrateBefore = Files.isWritable(MIGRATE_REQ) ? Files.readString(MIGRATE_REQ).trim() : null;
+        try {
+            for (String strategy : new String[] {"kill", "drain", "handoff", "handoff_migrate"}) {
+                if (strategy.equals("handoff_migrate")) {
+                    if (migrateBefore == null) {
+                        System.out.println("strategy=handoff_migrate skipped (cannot write " + MIGRATE_REQ + ")");
+                        continue;
+                    }
+                    Files.writeString(MIGRATE_REQ, "1");
+                } else if (migrateBefore != null) {
+                    Files.writeString(MIGRATE_REQ, "0");
+                }
+                run(strategy, clients, thinkMillis, port++);
+            }
+        } finally {
+            if (migrateBefore != null) {
+                Files.writeString(MIGRATE_REQ, migrateBefore);
+            }
+        }
+    }
+
+    private static void run(String strategy, int clients, int thinkMillis, int port) throws Exception {
+        boolean handoff = strategy.startsWith("handoff");
+        Process old = startServer(port, handoff, "old");
+
+        Counts counts = new Counts();
+        List<Thread> players = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            players.add(Thread.ofPlatform().start(() -> playUntilStopped(port, thinkMillis, counts)));
+        }
+        Thread.sleep(1000);
+
+        long restartStart = System.nanoTime();
+        Process next;
+        long oldExitMillis;
+        if (strategy.equals("kill")) {
+            old.destroyForcibly().waitFor();
+            oldExitMillis = (System.nanoTime() - restartStart) / 1_000_000;
+            next = startServer(port, false, "new");
+        } else if (strategy.equals("drain")) {
+            old.destroy();                          // SIGTERM
+            old.waitFor();
+            oldExitMillis = (System.nanoTime() - restartStart) / 1_000_000;
+            next = startServer(port, false, "new");
+        } else {
+            next = startServer(port, true, "new");
+            long handoffStart = System.nanoTime();
+            old.destroy();
+            old.waitFor();
+            oldExitMillis = (System.nanoTime() - handoffStart) / 1_000_000;
+        }
+        long restartMillis = (System.nanoTime() - restartStart) / 1_000_000;
+        Thread.sleep(1000);
+
+        counts.stopped = true;
+        for (Thread player : players) {
+            player.join();
+        }
+        next.destroy();
+        next.waitFor(10, TimeUnit.SECONDS);
+
+        System.out.printf("strategy=%s clients=%d restart_ms=%d old_exit_ms=%d refused=%d reset_before_prompt=%d "
+                        + "cut_mid_game=%d games_finished=%d%n",
+                strategy, clients, restartMillis, oldExitMillis, counts.refused.sum(), counts.resetBeforePrompt.sum(),
+                counts.cutMidGame.sum(), counts.finished.sum());
+    }
+
+    /** Starts a server process on {@code port} and returns once it listens. */
+    private static Process startServer(int port, boolean reusePort, String label) throws Exception {
+        File log = File.createTempFile("restart-" + label + "-", ".log");
+        log.deleteOnExit();
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                MultiThreadedMagicNumberServer.class.getName(),
+                "--port=" + port, "--mode=virtual", "--drain-ms=5000"));
+        if (reusePort) {
+            command.add("--reuse-port");
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            if (Files.readString(log.toPath(), StandardCharsets.UTF_8).contains("Waiting for client connections")) {
+                return process;
+            }
+            if (!process.isAlive()) {
+                throw new IOException(label + " server exited: " + Files.readString(log.toPath()));
+            }
+            Thread.sleep(5);
+        }
+        throw new IOException(label + " server did not start");
+    }
+
+    private static void playUntilStopped(int port, int thinkMillis, Counts counts) {
+        while (!counts.stopped) {
+            boolean prompted = false;
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                socket.setSoTimeout(10_000);
+                socket.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                if (in.readLine() == null) {
+                    throw new IOException("closed before the prompt");
+                }
+                prompted = true;
+                play(in, out, thinkMillis);
+                counts.finished.increment();
+            } catch (ConnectException e) {
+                counts.refused.increment();
+                sleep(5);
+            } catch (IOException e) {
+                (prompted ? counts.cutMidGame : counts.resetBeforePrompt).increment();
+            }
+        }
+    }
+
+    private static void play(BufferedReader in, OutputStream out, int thinkMillis) throws IOException {
+        out.write("bot\n".getBytes(StandardCharsets.UTF_8));
+        readLine(in);                               // Welcome, ...
+        long low = NumberRange.DEFAULT.min();
+        long high = NumberRange.DEFAULT.max();
+        while (true) {
+            sleep(thinkMillis);
+            long mid = (low + high) >>> 1;
+            out.write((mid + "\n").getBytes(StandardCharsets.UTF_8));
+            String reply = readLine(in);
+            if (reply.equals("TOO_LOW")) {
+                low = mid + 1;
+            } else if (reply.equals("TOO_HIGH")) {
+                high = mid - 1;
+            } else {
+                while (!readLine(in).startsWith("Your rank:")) {
+                    // congratulations and leaderboard
+                }
+                return;
+            }
+        }
+    }
+
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("server closed the connection");
+        }
+        return line;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static class Counts {
+        final LongAdder refused = new LongAdder();
+        final LongAdder resetBeforePrompt = new LongAdder();
+        final LongAdder cutMidGame = new LongAdder();
+        final LongAdder finished = new LongAdder();
+        volatile boolean stopped;
+    }
+}
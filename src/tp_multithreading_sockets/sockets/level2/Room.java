@@ -0,0 +1,94 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * One round of a multiplayer game: players who share a magic number. Every miss is broadcast to
+ * the other members as a hint and the first correct guess ends the round for all of them. Players
+ * arriving after that start a new round (a new {@code Room} under the same name, see {@link Rooms}).
+ */
+final class Room {
+    static final int MAX_MEMBERS = 10_000;
+
+    private final String name;
+    private final NumberRange range;
+    private final long magicNumber;
+    private final Set<RoomMember> members = ConcurrentHashMap.newKeySet();
+    /** Set under the room's lock; once true the member set never changes again. */
+    private volatile boolean over;
+
+    Room(String name, NumberRange range) {
+        this.name = name;
+        this.range = range;
+        this.magicNumber = range.randomNumber();
+    }
+
+    /** Returns false if the round is already over (or full) and the player must try a new one. */
+    synchronized boolean add(RoomMember member) {
+        if (over || members.size() >= MAX_MEMBERS) {
+            return false;
+        }
+        members.add(member);
+        return true;
+    }
+
+    /** Returns true if the room is now empty and closed. */
+    synchronized boolean remove(RoomMember member) {
+        if (over) {
+            return false;
+        }
+        members.remove(member);
+        if (members.isEmpty()) {
+            over = true;
+            return true;
+        }
+        return false;
+    }
+
+    /** Only the first caller wins the round; later correct guesses lost the race. */
+    synchronized boolean win() {
+        if (over) {
+            return false;
+        }
+        over = true;
+        return true;
+    }
+
+    /** Hands {@code broadcast} to every member but {@code sender}; returns the number of members reached. */
+    int broadcast(Broadcast broadcast, RoomMember sender) {
+        long start = System.nanoTime();
+        int delivered = 0;
+        for (RoomMember member : members) {
+            if (member != sender) {
+                member.deliver(broadcast);
+                delivered++;
+            }
+        }
+        ServerMetrics.increment(ServerMetrics.ROOM_BROADCASTS);
+        ServerMetrics.add(ServerMetrics.ROOM_DELIVERIES, delivered);
+        ServerMetrics.ROOM_FANOUT.record(System.nanoTime() - start);
+        return delivered;
+    }
+
+    boolean isOver() {
+        return over;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    NumberRange getRange() {
+        return range;
+    }
+
+    long getMagicNumber() {
+        return magicNumber;
+    }
+
+    int getMemberCount() {
+        return members.size();
+    }
+}
@@ -0,0 +1,13 @@
+package tp_multithreading_sockets.sockets.level2;
+
+
+/**
+ * The connection side of a room member. {@link #deliver} is called from the thread of whichever
+ * player caused the broadcast, so it must only hand the message over, never block on the socket.
+ */
+interface RoomMember {
+    /** Most broadcasts a member may have queued; a member further behind is dropped. */
+    int MAX_PENDING_BROADCASTS = 1024;
+
+    void deliver(Broadcast broadcast);
+}
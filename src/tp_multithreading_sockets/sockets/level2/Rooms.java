@@ -0,0 +1,51 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The open rooms of one server, by range and name. A name maps to its current round; when that
+ * round is won (or its last member leaves) the next player to join opens a fresh one.
+ */
+final class Rooms {
+    /** Letters, digits, '-' and '_', at most 32 of them. */
+    static boolean isValidName(String name) {
+        return name.matches("[A-Za-z0-9_-]{1,32}");
+    }
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /** Adds {@code member} to the current round of the room, opening one if needed. */
+    Room join(String name, NumberRange range, RoomMember member) {
+        String key = range + "/" + name;
+        while (true) {
+            Room room = rooms.compute(key, (k, current) ->
+                    current == null || current.isOver() ? new Room(name, range) : current);
+            if (room.add(member)) {
+                return room;
+            }
+            if (!room.isOver()) {
+                return null;                    // full
+            }
+        }
+    }
+
+    /** Ends the round if nobody won it yet; the name is free for a new round right away. */
+    boolean win(Room room) {
+        if (!room.win()) {
+            return false;
+        }
+        rooms.remove(room.getRange() + "/" + room.getName(), room);
+        return true;
+    }
+
+    void leave(Room room, RoomMember member) {
+        if (room.remove(member)) {
+            rooms.remove(room.getRange() + "/" + room.getName(), room);
+        }
+    }
+
+    int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,465 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+
+/**
+ * Makes a {@link Leaderboard} survive restarts.
+ *
+ * Every added score is queued by {@link #append} (the only work done on the game thread) and a
+ * single writer thread appends it to a segment file as {@code [length][crc32][attempts][name][ip]}.
+ * Writes are group-committed: the segment is forced to disk every {@code fsyncEveryRecords}
+ * records or every {@code fsyncIntervalMillis}, whichever comes first, so a crash loses at most
+ * that window. Every {@code snapshotEveryRecords} records the writer rolls to a new segment and
+ * writes a compacted snapshot (attempt counts + top-N), so a restart loads the snapshot and only
+ * replays the segments written after it. A torn record at the end of a segment is cut off on recovery.
+ * The directory itself is forced after a snapshot is renamed into place and after a segment is
+ * created, and only then are older files deleted, so a crash can never keep the deletions but
+ * lose the rename. A snapshot temp file left by a crash is removed on recovery.
+ *
+ * If the writer fails (disk full, I/O error) it stops for good: later scores are dropped and
+ * counted instead of piling up in memory, the failure shows in the metrics, and {@link #close}
+ * throws it.
+ */
+public class ScoreLog implements Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x4C42534E;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_STRING_BYTES = 1024;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final String SEGMENT_PREFIX = "scores-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long fsyncIntervalNanos;
+    private final int fsyncEveryRecords;
+    private final long snapshotEveryRecords;
+    private final Queue<PlayerScore> pending = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final CRC32 crc = new CRC32();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile boolean writerWaiting;
+    private volatile Throwable failure;
+
+    // What has been written to the log so far; snapshots are taken from this, never from the live board
+    private final long[] histogram;
+    private final TreeSet<PlayerScore> top = new TreeSet<>();
+    private final int maxTop;
+
+    private FileChannel segment;
+    private long segmentSequence;
+    private int unsyncedRecords;
+    private long lastSyncNanos;
+    private long recordsSinceSnapshot;
+    private long replayedRecords;
+
+    private ScoreLog(Path directory, int maxAttempts, int maxTop, long fsyncIntervalMillis,
+                     int fsyncEveryRecords, long snapshotEveryRecords) {
+        this.directory = directory;
+        this.histogram = new long[maxAttempts + 1];
+        this.maxTop = maxTop;
+        this.fsyncIntervalNanos = fsyncIntervalMillis * 1_000_000L;
+        this.fsyncEveryRecords = fsyncEveryRecords;
+        this.snapshotEveryRecords = snapshotEveryRecords;
+        this.writerThread = new Thread(this::writeLoop, "score-log-writer");
+    }
+
+    /**
+     * Recovers {@code leaderboard} from {@code directory} (created if missing), then starts logging
+     * every score added to it.
+     */
+    public static ScoreLog open(Path directory, Leaderboard leaderboard, long fsyncIntervalMillis,
+                                int fsyncEveryRecords, long snapshotEveryRecords) throws IOException {
+        ScoreLog log = new ScoreLog(directory, leaderboard.getRankIndex().getMaxAttempts(),
+                leaderboard.getMaxEntries(), fsyncIntervalMillis, fsyncEveryRecords, snapshotEveryRecords);
+        log.recover(leaderboard);
+        log.openSegment(log.segmentSequence);
+        leaderboard.attach(log);
+        log.writerThread.start();
+        return log;
+    }
+
+    void append(PlayerScore score) {
+        if (!running) {
+            ServerMetrics.increment(ServerMetrics.SCORE_LOG_DROPPED);
+            return;
+        }
+        pending.offer(score);
+        if (writerWaiting) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /** Why the writer stopped, or null while it is healthy. */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Stops logging after writing and forcing every score queued so far. Throws the writer's
+     * failure if it stopped early, since the scores queued after it were lost.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+        if (failure != null) {
+            throw new IOException("Score log writer failed: " + failure, failure);
+        }
+    }
+
+    private void writeLoop() {
+        lastSyncNanos = System.nanoTime();
+        try {
+            while (running || !pending.isEmpty()) {
+                PlayerScore score = pending.poll();
+                if (score == null) {
+                    flush(false);
+                    waitForScores();
+                    continue;
+                }
+
+                writeRecord(score);
+                track(score);
+                unsyncedRecords++;
+                recordsSinceSnapshot++;
+
+                if (unsyncedRecords >= fsyncEveryRecords) {
+                    flush(true);
+                }
+                if (recordsSinceSnapshot >= snapshotEveryRecords) {
+                    rollAndSnapshot();
+                }
+            }
+            flush(true);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            running = false;
+            ServerMetrics.increment(ServerMetrics.SCORE_LOG_FAILURES);
+            System.err.println("Score log error, no longer persisting scores: " + e);
+            // Nobody will write these any more
+            long dropped = 0;
+            while (pending.poll() != null) {
+                dropped++;
+            }
+            ServerMetrics.add(ServerMetrics.SCORE_LOG_DROPPED, dropped);
+        }
+    }
+
+    /**
+     * Parks until {@link #append} or {@link #close} wakes the writer. With records written but not
+     * forced, it only waits until the sync interval is up, so they still reach the disk in time.
+     */
+    private void waitForScores() {
+        writerWaiting = true;
+        // Checked after the flag: an append that missed the flag is seen here instead
+        if (pending.isEmpty() && running) {
+            if (unsyncedRecords > 0) {
+                LockSupport.parkNanos(this, Math.max(1, lastSyncNanos + fsyncIntervalNanos - System.nanoTime()));
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        writerWaiting = false;
+    }
+
+    private void writeRecord(PlayerScore score) throws IOException {
+        byte[] name = encode(score.getPlayerName());
+        byte[] ip = encode(score.getIpAddress());
+        int payloadLength = 4 + 2 + name.length + 2 + ip.length;
+        if (writeBuffer.remaining() < RECORD_HEADER_BYTES + payloadLength) {
+            drain();
+        }
+
+        int start = writeBuffer.position();
+        writeBuffer.position(start + RECORD_HEADER_BYTES);
+        writeBuffer.putInt(score.getAttempts());
+        writeBuffer.putShort((short) name.length).put(name);
+        writeBuffer.putShort((short) ip.length).put(ip);
+
+        crc.reset();
+        crc.update(writeBuffer.duplicate().position(start + RECORD_HEADER_BYTES).limit(writeBuffer.position()));
+        writeBuffer.putInt(start, payloadLength);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Writes buffered records to the segment, and forces the segment to disk when asked to
+     * or when the sync interval has elapsed.
+     */
+    private void flush(boolean force) throws IOException {
+        drain();
+        long now = System.nanoTime();
+        if (unsyncedRecords > 0 && (force || now - lastSyncNanos >= fsyncIntervalNanos)) {
+            segment.force(false);
+            unsyncedRecords = 0;
+            lastSyncNanos = now;
+        }
+    }
+
+    private void drain() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            segment.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    private void rollAndSnapshot() throws IOException {
+        flush(true);
+        segment.close();
+        long nextSequence = segmentSequence + 1;
+        writeSnapshot(nextSequence);
+        openSegment(nextSequence);
+        // Both names are on disk now; only then may the files they replace go
+        deleteBefore(nextSequence);
+        recordsSinceSnapshot = 0;
+    }
+
+    private void openSegment(long sequence) throws IOException {
+        segmentSequence = sequence;
+        segment = FileChannel.open(directory.resolve(SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory();
+    }
+
+    /** Forcing a file does not force its directory entry: a new or renamed name needs this too. */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void track(PlayerScore score) {
+        histogram[bucket(score.getAttempts())]++;
+        top.add(score);
+        if (top.size() > maxTop) {
+            top.pollLast();
+        }
+    }
+
+    private int bucket(int attempts) {
+        return Math.max(1, Math.min(attempts, histogram.length - 1));
+    }
+
+    // ---- snapshots ----
+
+    /**
+     * Snapshot layout: magic, first segment not covered, attempts buckets, (attempts, count) pairs,
+     * top-N entries, then a CRC32 of everything before it. Written to a temp file, forced, moved
+     * into place, and the directory forced so the new name is durable.
+     */
+    private void writeSnapshot(long firstUncoveredSegment) throws IOException {
+        int nonEmpty = 0;
+        for (long count : histogram) {
+            if (count > 0) {
+                nonEmpty++;
+            }
+        }
+        List<byte[]> strings = new ArrayList<>();
+        int topBytes = 0;
+        for (PlayerScore score : top) {
+            byte[] name = encode(score.getPlayerName());
+            byte[] ip = encode(score.getIpAddress());
+            strings.add(name);
+            strings.add(ip);
+            topBytes += 4 + 2 + name.length + 2 + ip.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 4 + 4 + nonEmpty * 12 + 4 + topBytes + 4);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(firstUncoveredSegment).putInt(histogram.length - 1);
+        buffer.putInt(nonEmpty);
+        for (int attempts = 0; attempts < histogram.length; attempts++) {
+            if (histogram[attempts] > 0) {
+                buffer.putInt(attempts).putLong(histogram[attempts]);
+            }
+        }
+        buffer.putInt(top.size());
+        int i = 0;
+        for (PlayerScore score : top) {
+            byte[] name = strings.get(i++);
+            byte[] ip = strings.get(i++);
+            buffer.putInt(score.getAttempts());
+            buffer.putShort((short) name.length).put(name);
+            buffer.putShort((short) ip.length).put(ip);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path temp = directory.resolve(SNAPSHOT_PREFIX + firstUncoveredSegment + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_PREFIX + firstUncoveredSegment + SNAPSHOT_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private void deleteBefore(long sequence) throws IOException {
+        for (Path file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX).headMap(sequence).values()) {
+            Files.deleteIfExists(file);
+        }
+        for (Path file : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(sequence).values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // ---- recovery ----
+
+    private void recover(Leaderboard leaderboard) throws IOException {
+        Files.createDirectories(directory);
+        // A crash between writing and renaming a snapshot leaves its temp file; the previous snapshot still holds
+        for (Path stale : list(SNAPSHOT_PREFIX, TEMP_SUFFIX).values()) {
+            System.err.println("Removing unfinished snapshot: " + stale);
+            Files.delete(stale);
+        }
+
+        long replayFrom = 0;
+        TreeMap<Long, Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (Map.Entry<Long, Path> entry : snapshots.descendingMap().entrySet()) {
+            if (loadSnapshot(entry.getValue(), leaderboard)) {
+                replayFrom = entry.getKey();
+                break;
+            }
+            System.err.println("Ignoring corrupt snapshot: " + entry.getValue());
+        }
+
+        long nextSequence = replayFrom;
+        for (Map.Entry<Long, Path> entry : list(SEGMENT_PREFIX, SEGMENT_SUFFIX).tailMap(replayFrom).entrySet()) {
+            replaySegment(entry.getValue(), leaderboard);
+            nextSequence = entry.getKey() + 1;
+            if (Files.size(entry.getValue()) == 0) {
+                Files.delete(entry.getValue());
+            }
+        }
+        // Always continue in a fresh segment, after everything that was replayed
+        segmentSequence = nextSequence;
+    }
+
+    private boolean loadSnapshot(Path file, Leaderboard leaderboard) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < 8) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4) || buffer.getInt() != SNAPSHOT_MAGIC) {
+            return false;
+        }
+
+        buffer.getLong();   // first uncovered segment, already known from the file name
+        buffer.getInt();    // bucket count at the time of the snapshot
+        int nonEmpty = buffer.getInt();
+        for (int i = 0; i < nonEmpty; i++) {
+            int attempts = buffer.getInt();
+            long count = buffer.getLong();
+            leaderboard.getRankIndex().record(attempts, count);
+            histogram[bucket(attempts)] += count;
+        }
+        int topCount = buffer.getInt();
+        for (int i = 0; i < topCount; i++) {
+            PlayerScore score = readScore(buffer);
+            leaderboard.restoreTop(score);
+            top.add(score);
+        }
+        return true;
+    }
+
+    private void replaySegment(Path file, Leaderboard leaderboard) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int validEnd = 0;
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int start = buffer.position();
+            int payloadLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (payloadLength <= 0 || payloadLength > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            PlayerScore score = readScore(buffer);
+            buffer.position(start + RECORD_HEADER_BYTES + payloadLength);
+            validEnd = buffer.position();
+
+            leaderboard.getRankIndex().record(score.getAttempts());
+            leaderboard.restoreTop(score);
+            track(score);
+            replayedRecords++;
+            recordsSinceSnapshot++;
+        }
+
+        if (validEnd < buffer.limit()) {
+            System.err.println("Truncating torn tail of " + file + " at byte " + validEnd);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validEnd);
+            }
+        }
+    }
+
+    private static PlayerScore readScore(ByteBuffer buffer) {
+        int attempts = buffer.getInt();
+        String name = readString(buffer);
+        String ip = readString(buffer);
+        return new PlayerScore(name, attempts, ip);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= MAX_STRING_BYTES ? bytes : Arrays.copyOf(bytes, MAX_STRING_BYTES);
+    }
+
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                String number = name.substring(prefix.length(), name.length() - suffix.length());
+                try {
+                    files.put(Long.parseLong(number), file);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,99 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+
+/**
+ * Measures what {@link ScoreLog} adds to {@code addScore()} and how long a restart takes,
+ * once with snapshots and once replaying the whole log.
+ *
+ * Usage: java ScoreLogBenchmark [records] [threads]
+ */
+public class ScoreLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length >= 1 ? Integer.parseInt(args[0]) : 2_000_000;
+        int threads = args.length >= 2 ? Integer.parseInt(args[1]) : 4;
+
+        // Warm-up, then the in-memory baseline
+        addScores(new Leaderboard(10), records / 4, threads);
+        double plainNanos = addScores(new Leaderboard(10), records, threads);
+        System.out.printf("variant=in_memory add_ns_per_op=%.1f%n", plainNanos);
+
+        Path withSnapshots = Files.createTempDirectory("scorelog-snap");
+        Path fullReplay = Files.createTempDirectory("scorelog-full");
+        try {
+            run("snapshots", withSnapshots, 100_000, records, threads);
+            run("log_only", fullReplay, Long.MAX_VALUE, records, threads);
+        } finally {
+            deleteRecursively(withSnapshots);
+            deleteRecursively(fullReplay);
+        }
+    }
+
+    private static void run(String label, Path directory, long snapshotEvery, int records, int threads)
+            throws Exception {
+        Leaderboard leaderboard = new Leaderboard(10);
+        ScoreLog log = ScoreLog.open(directory, leaderboard, 10, 256, snapshotEvery);
+        double loggedNanos = addScores(leaderboard, records, threads);
+        long closeStart = System.nanoTime();
+        log.close();
+        long drainMillis = (System.nanoTime() - closeStart) / 1_000_000;
+
+        long restartStart = System.nanoTime();
+        Leaderboard restored = new Leaderboard(10);
+        ScoreLog reopened = ScoreLog.open(directory, restored, 10, 256, snapshotEvery);
+        long restartMillis = (System.nanoTime() - restartStart) / 1_000_000;
+        reopened.close();
+
+        System.out.printf("variant=%s add_ns_per_op=%.1f drain_on_close_ms=%d restart_ms=%d "
+                        + "restored_scores=%d replayed_log_records=%d top_matches=%b%n",
+                label, loggedNanos, drainMillis, restartMillis, restored.getTotalScores(),
+                reopened.getReplayedRecords(),
+                leaderboard.getLeaderboardString().equals(restored.getLeaderboardString()));
+    }
+
+    /**
+     * Adds {@code records} scores from {@code threads} threads and returns the mean cost per call.
+     */
+    private static double addScores(Leaderboard leaderboard, int records, int threads) throws InterruptedException {
+        int perThread = records / threads;
+        long[] nanos = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            String name = "player-" + t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long start = System.nanoTime();
+                for (int i = 0; i < perThread; i++) {
+                    leaderboard.addScore(name, 1 + random.nextInt(100), "127.0.0.1");
+                }
+                nanos[index] = System.nanoTime() - start;
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            total += nanos[t];
+        }
+        return (double) total / (perThread * (long) threads);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+
+/**
+ * Leaves behind what a crash in the middle of {@link ScoreLog} rolling would: an unfinished
+ * snapshot temp file and a torn record at the end of the last segment. Recovery must ignore and
+ * remove the temp file, cut the torn tail, and restore every score that was written.
+ *
+ * Usage: java ScoreLogRecoveryTest
+ */
+public class ScoreLogRecoveryTest {
+    private static final int SCORES = 2_000;
+    private static final long SNAPSHOT_EVERY = 300;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("scorelog-recovery");
+        try {
+            Leaderboard leaderboard = new Leaderboard(10);
+            ScoreLog log = ScoreLog.open(directory, leaderboard, 10, 64, SNAPSHOT_EVERY);
+            addScores(leaderboard, SCORES);
+            log.close();
+            check(files(directory, ".bin").size() == 1, "one snapshot after rolling");
+
+            // The crash: a snapshot that never got renamed, and a record cut in half
+            long next = sequenceOf(files(directory, ".bin").get(0)) + 1;
+            Path stale = directory.resolve("snapshot-" + next + ".tmp");
+            Files.write(stale, new byte[]{1, 2, 3, 4, 5, 6, 7});
+            List<Path> segments = files(directory, ".log");
+            Files.write(segments.get(segments.size() - 1), new byte[]{0, 0, 0, 40, 9, 9},
+                    StandardOpenOption.APPEND);
+
+            Leaderboard restored = new Leaderboard(10);
+            ScoreLog reopened = ScoreLog.open(directory, restored, 10, 64, SNAPSHOT_EVERY);
+            check(restored.getTotalScores() == SCORES, "restored " + restored.getTotalScores() + " of " + SCORES);
+            check(restored.getLeaderboardString().equals(leaderboard.getLeaderboardString()), "same top entries");
+            check(!Files.exists(stale), "stale temp file removed");
+
+            // Keeps working after recovery, and the next restart sees both parts
+            addScores(restored, SCORES);
+            reopened.close();
+            Leaderboard again = new Leaderboard(10);
+            ScoreLog.open(directory, again, 10, 64, SNAPSHOT_EVERY).close();
+            check(again.getTotalScores() == 2L * SCORES, "restored " + again.getTotalScores() + " of " + 2 * SCORES);
+            check(files(directory, ".tmp").isEmpty(), "no temp files left");
+            long snapshot = sequenceOf(files(directory, ".bin").get(0));
+            for (Path segment : files(directory, ".log")) {
+                check(sequenceOf(segment) >= snapshot, "segment " + segment.getFileName() + " not covered by the snapshot");
+            }
+            System.out.println("✅ ScoreLog recovery: all checks passed");
+        } finally {
+            try (Stream<Path> walk = Files.walk(directory)) {
+                for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static void addScores(Leaderboard leaderboard, int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            leaderboard.addScore("player" + i, 1 + random.nextInt(20), "10.0.0." + random.nextInt(256));
+        }
+    }
+
+    private static List<Path> files(Path directory, String suffix) throws IOException {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list.filter(path -> path.toString().endsWith(suffix))
+                    .sorted(Comparator.comparingLong(ScoreLogRecoveryTest::sequenceOf))
+                    .toList();
+        }
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("❌ FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
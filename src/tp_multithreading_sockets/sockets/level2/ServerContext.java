@@ -0,0 +1,41 @@
+package tp_multithreading_sockets.sockets.level2;
+
+
+/**
+ * Everything a game server shares with its connections: the ranges it offers, the connection
+ * deadlines, where interrupted games are parked, the per-address limits and the transport.
+ * Both servers take one and pass it down to their acceptors or event loops, and from there to
+ * every handler and {@link GameSession}.
+ *
+ * Start from {@link #of(GameRanges)} (nothing else enabled) and turn features on with the
+ * {@code with...} methods.
+ */
+public record ServerContext(GameRanges ranges, ConnectionTimeouts timeouts, SessionStore sessions,
+                            RateLimits limits, TlsConfig tls) {
+
+    /** Only the default range, scored on {@code leaderboard}. */
+    public static ServerContext of(Leaderboard leaderboard) {
+        return of(GameRanges.of(leaderboard));
+    }
+
+    /** {@code ranges} without timeouts, parked sessions, rate limits or TLS. */
+    public static ServerContext of(GameRanges ranges) {
+        return new ServerContext(ranges, ConnectionTimeouts.NONE, SessionStore.NONE, RateLimits.NONE, TlsConfig.NONE);
+    }
+
+    public ServerContext withTimeouts(ConnectionTimeouts timeouts) {
+        return new ServerContext(ranges, timeouts, sessions, limits, tls);
+    }
+
+    public ServerContext withSessions(SessionStore sessions) {
+        return new ServerContext(ranges, timeouts, sessions, limits, tls);
+    }
+
+    public ServerContext withLimits(RateLimits limits) {
+        return new ServerContext(ranges, timeouts, sessions, limits, tls);
+    }
+
+    public ServerContext withTls(TlsConfig tls) {
+        return new ServerContext(ranges, timeouts, sessions, limits, tls);
+    }
+}
@@ -0,0 +1,168 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compares the thread-per-client server with the NIO server in the same JVM:
+ * first it parks many idle connections, then a few players run binary-search games
+ * against the remaining capacity.
+ *
+ * Usage: java ServerLoadTest <thread|nio> [idleConnections] [players] [seconds]
+ *
+ * Tens of thousands of connections need a raised descriptor limit (ulimit -n).
+ * Idle connections are spread over several 127.0.0.x source addresses so they
+ * do not run out of ephemeral ports.
+ */
+public class ServerLoadTest {
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length >= 1 ? args[0] : "nio";
+        int idleConnections = args.length >= 2 ? Integer.parseInt(args[1]) : 10000;
+        int players = args.length >= 3 ? Integer.parseInt(args[2]) : 8;
+        int seconds = args.length >= 4 ? Integer.parseInt(args[3]) : 10;
+
+        PrintStream console = System.out;
+        // Per-guess server logging would measure the terminal, not the server
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        Closeable server;
+        NioMagicNumberServer nioServer = null;
+        int port;
+        if (mode.equals("thread")) {
+            ServerSocket serverSocket = new ServerSocket(0, 4096);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    MultiThreadedMagicNumberServer.serve(serverSocket, new Leaderboard(10));
+                } catch (SocketException e) {
+                    // server socket closed at the end of the run
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            server = serverSocket;
+            port = serverSocket.getLocalPort();
+        } else {
+            nioServer = new NioMagicNumberServer(
+                    0, Runtime.getRuntime().availableProcessors(), new Leaderboard(10));
+            nioServer.start();
+            server = nioServer;
+            port = nioServer.getPort();
+        }
+
+        List<SocketChannel> idle = openIdleConnections(port, idleConnections, console);
+        Thread.sleep(1000);
+        System.gc();
+        int serverThreads = ManagementFactory.getThreadMXBean().getThreadCount() - baselineThreads;
+        long heapUsed = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+        AtomicLong guesses = new AtomicLong();
+        AtomicLong games = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> playerThreads = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Thread player = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        guesses.addAndGet(playGame(port));
+                        games.incrementAndGet();
+                    } catch (IOException e) {
+                        console.println("game failed: " + e.getMessage());
+                        return;
+                    }
+                }
+            });
+            player.start();
+            playerThreads.add(player);
+        }
+        for (Thread player : playerThreads) {
+            player.join();
+        }
+
+        console.println("mode=" + mode);
+        console.println("idle_connections_held=" + idle.size());
+        if (nioServer != null) {
+            console.println("server_open_connections=" + nioServer.getConnectionCount());
+        }
+        console.println("server_threads=" + serverThreads);
+        console.println("heap_used_mb=" + heapUsed / (1024 * 1024));
+        console.println("guesses_per_sec=" + guesses.get() / seconds);
+        console.println("games_per_sec=" + games.get() / seconds);
+
+        for (SocketChannel channel : idle) {
+            channel.close();
+        }
+        server.close();
+        System.exit(0);
+    }
+
+    static List<SocketChannel> openIdleConnections(int port, int count, PrintStream console) {
+        List<SocketChannel> channels = new ArrayList<>(count);
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+        for (int i = 0; i < count; i++) {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                int sourceHost = 1 + i / CONNECTIONS_PER_SOURCE_ADDRESS;
+                channel.bind(new InetSocketAddress("127.0.0." + sourceHost, 0));
+                channel.connect(target);
+                channels.add(channel);
+            } catch (IOException e) {
+                console.println("stopped opening connections at " + i + ": " + e.getMessage());
+                break;
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Plays one full game with a binary search and returns the number of guesses sent.
+     */
+    static int playGame(int port) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+
+            in.readLine();              // Enter your name:
+            out.println("bot");
+            in.readLine();              // Welcome, ...
+
+            long low = NumberRange.DEFAULT.min();
+            long high = NumberRange.DEFAULT.max();
+            int guesses = 0;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                out.println(mid);
+                guesses++;
+                String response = in.readLine();
+                if (response == null) {
+                    throw new EOFException("server closed the connection");
+                }
+                if (response.equals("TOO_LOW")) {
+                    low = mid + 1;
+                } else if (response.equals("TOO_HIGH")) {
+                    high = mid - 1;
+                } else if (response.equals("CORRECT")) {
+                    String line;
+                    while ((line = in.readLine()) != null && !line.startsWith("Your rank:")) {
+                        // skip congratulations and leaderboard
+                    }
+                    return guesses;
+                }
+            }
+            throw new IOException("binary search ran out of range");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Metrics of the level2 servers (blocking and NIO share them through {@link GameSession}).
+ *
+ * The guess path must stay cheap: counters are striped, guesses are added once per game, and
+ * only one session in {@link #SAMPLE_EVERY} reads the clock to fill the per-step histograms
+ * (their {@code _count} is the number of sampled steps).
+ */
+final class ServerMetrics {
+    static final MetricsRegistry REGISTRY = new MetricsRegistry();
+    static final int SAMPLE_EVERY = 64;
+
+    /** Switched off only to measure what the instrumentation itself costs. */
+    static boolean enabled = true;
+
+    static final LongAdder CONNECTIONS_OPENED = REGISTRY.counter("connections_opened_total");
+    static final LongAdder CONNECTIONS_CLOSED = REGISTRY.counter("connections_closed_total");
+    static final LongAdder CONNECTIONS_REJECTED = REGISTRY.counter("connections_rejected_total");
+    static final LongAdder CONNECTIONS_RATE_LIMITED = REGISTRY.counter("connections_rate_limited_total");
+    static final LongAdder CONNECTIONS_EVICTED = REGISTRY.counter("connections_evicted_total");
+    static final LongAdder GAMES_STARTED = REGISTRY.counter("games_started_total");
+    static final LongAdder GAMES_FINISHED = REGISTRY.counter("games_finished_total");
+    static final LongAdder GAMES_ABANDONED = REGISTRY.counter("games_abandoned_total");
+    static final LongAdder SESSIONS_PARKED = REGISTRY.counter("sessions_parked_total");
+    static final LongAdder SESSIONS_RESUMED = REGISTRY.counter("sessions_resumed_total");
+    static final LongAdder ROOM_BROADCASTS = REGISTRY.counter("room_broadcasts_total");
+    static final LongAdder ROOM_DELIVERIES = REGISTRY.counter("room_deliveries_total");
+    static final LongAdder ROOM_GAMES_LOST = REGISTRY.counter("room_games_lost_total");
+    static final LongAdder ROOM_MEMBERS_DROPPED = REGISTRY.counter("room_members_dropped_total");
+    static final LongAdder CLUSTER_DIGESTS_SENT = REGISTRY.counter("cluster_digests_sent_total");
+    static final LongAdder CLUSTER_DIGESTS_MERGED = REGISTRY.counter("cluster_digests_merged_total");
+    static final LongAdder CLUSTER_DIGESTS_STALE = REGISTRY.counter("cluster_digests_stale_total");
+    static final LongAdder CLUSTER_DIGESTS_INVALID = REGISTRY.counter("cluster_digests_invalid_total");
+    static final LongAdder CLUSTER_DIGESTS_UNKNOWN_SENDER = REGISTRY.counter("cluster_digests_unknown_sender_total");
+    /** The score log writer failed (disk full, I/O error) and stopped: scores are no longer persisted. */
+    static final LongAdder SCORE_LOG_FAILURES = REGISTRY.counter("score_log_failures_total");
+    static final LongAdder SCORE_LOG_DROPPED = REGISTRY.counter("score_log_records_dropped_total");
+    static final LongAdder GUESSES = REGISTRY.counter("guesses_total");
+    static final LongAdder GUESSES_RATE_LIMITED = REGISTRY.counter("guesses_rate_limited_total");
+    static final LongAdder INVALID_INPUTS = REGISTRY.counter("invalid_inputs_total");
+
+    static final LatencyHistogram NAME_STEP = REGISTRY.histogram("step_name");
+    static final LatencyHistogram GUESS_STEP = REGISTRY.histogram("step_guess");
+    static final LatencyHistogram FINISH_STEP = REGISTRY.histogram("step_finish");
+    /** Time inside the leaderboard on a win; it is lock-free, so this is the whole cost, not a lock wait. */
+    static final LatencyHistogram LEADERBOARD_UPDATE = REGISTRY.histogram("leaderboard_update");
+    /** Time to hand one broadcast to every member of a room (not until it is on their sockets). */
+    static final LatencyHistogram ROOM_FANOUT = REGISTRY.histogram("room_fanout");
+    /** Time to fold one remote leaderboard digest into the global view. */
+    static final LatencyHistogram CLUSTER_MERGE = REGISTRY.histogram("cluster_merge");
+    /** How old a remote digest is when it gets merged (sender and receiver clocks must agree). */
+    static final LatencyHistogram CLUSTER_DIGEST_AGE = REGISTRY.histogram("cluster_digest_age");
+
+    static {
+        REGISTRY.gauge("connections_active", () -> CONNECTIONS_OPENED.sum() - CONNECTIONS_CLOSED.sum());
+        REGISTRY.rate("guesses_per_sec", GUESSES);
+        REGISTRY.rate("games_finished_per_sec", GAMES_FINISHED);
+        REGISTRY.gauge("log_messages_dropped_total", AsyncLog::getDropped);
+    }
+
+    private ServerMetrics() {
+    }
+
+    /** Whether a new session should time its steps. */
+    static boolean sampleSession() {
+        return enabled && ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+    }
+
+    static void increment(LongAdder counter) {
+        if (enabled) {
+            counter.increment();
+        }
+    }
+
+    static void add(LongAdder counter, long value) {
+        if (enabled) {
+            counter.add(value);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Startup options given as {@code --key=value} (or a bare {@code --flag}) on the command line.
+ */
+class ServerOptions {
+    private final Map<String, String> values = new HashMap<>();
+
+    static ServerOptions parse(String[] args) {
+        ServerOptions options = new ServerOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg + " (expected --key=value)");
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.values.put(arg.substring(2), "true");
+            } else {
+                options.values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,81 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Plays one game that is cut off after every guess, parked and resumed on a new
+ * {@link GameSession}, until it is won. The guesses metric must grow by the game's attempts
+ * exactly once, however many times the game was parked.
+ *
+ * Usage: java SessionResumeTest
+ */
+public class SessionResumeTest {
+
+    public static void main(String[] args) throws IOException {
+        ServerContext context = ServerContext.of(new Leaderboard(10))
+                .withSessions(new SessionStore(100, SessionStore.DEFAULT_TTL_MILLIS));
+        long guessesBefore = ServerMetrics.GUESSES.sum();
+        long parkedBefore = ServerMetrics.SESSIONS_PARKED.sum();
+
+        ResponseBuffer out = new ResponseBuffer();
+        GameSession session = new GameSession(context, "10.0.0.1");
+        session.onName("alice", out);
+        String token = token(read(out));
+
+        long low = NumberRange.DEFAULT.min();
+        long high = NumberRange.DEFAULT.max();
+        int attempts = 0;
+        while (true) {
+            long guess = (low + high) / 2;
+            session.onGuess(guess, out);
+            attempts++;
+            String reply = read(out);
+            if (reply.startsWith("CORRECT")) {
+                break;
+            }
+            if (reply.startsWith("TOO_LOW")) {
+                low = guess + 1;
+            } else {
+                high = guess - 1;
+            }
+
+            // Connection lost: the game is parked and picked up again by a new session
+            session.onDisconnect();
+            session = new GameSession(context, "10.0.0.1");
+            session.onLine(GameSession.RESUME_COMMAND + token, out);
+            String resumed = read(out);
+            check(resumed.contains("already made " + attempts + " guess"), "resumed with " + attempts + " attempts: " + resumed);
+            token = token(resumed);
+        }
+
+        long counted = ServerMetrics.GUESSES.sum() - guessesBefore;
+        long parked = ServerMetrics.SESSIONS_PARKED.sum() - parkedBefore;
+        check(parked == attempts - 1, "parked " + parked + " times, expected " + (attempts - 1));
+        check(counted == attempts, "guesses_total grew by " + counted + " for a game of " + attempts + " attempts");
+        System.out.println("✅ Session resume: " + attempts + " attempts over " + parked + " parks, counted once");
+    }
+
+    private static String read(ResponseBuffer out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        out.writeTo(bytes);
+        out.reset();
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String token(String welcome) {
+        int start = welcome.indexOf(TextProtocol.SESSION_PREFIX);
+        check(start >= 0, "no session token in: " + welcome);
+        start += TextProtocol.SESSION_PREFIX.length();
+        return welcome.substring(start, welcome.indexOf(']', start));
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.out.println("❌ FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
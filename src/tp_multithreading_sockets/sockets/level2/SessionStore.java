@@ -0,0 +1,124 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Games whose connection dropped, parked under their session token until the player reconnects.
+ *
+ * Bounded on both axes: at most {@code capacity} games and none older than the TTL. The store is
+ * split into independently locked segments, each a {@link LinkedHashMap} in parking order, so park
+ * and take are O(1) and threads on different segments never wait for each other. The oldest game
+ * of a segment is always at its head; when the store is full, parking drops the head of the
+ * segment it lands in, which is close to (not exactly) the oldest game overall.
+ */
+public final class SessionStore {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final long DEFAULT_TTL_MILLIS = 600_000;
+
+    /** Issues no tokens and parks nothing. */
+    public static final SessionStore NONE = new SessionStore(0, 0);
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int TOKEN_BYTES = 16;
+
+    private final Segment[] segments;
+    private final int capacity;
+    private final long ttlNanos;
+    private final AtomicInteger size = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    public SessionStore(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /** A fresh unguessable token (128 random bits, URL-safe Base64). */
+    String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    void park(String token, ParkedGame game) {
+        if (isEnabled()) {
+            segmentFor(token).park(token, game, this);
+        }
+    }
+
+    /** Removes and returns the game parked under {@code token}, or null if unknown or expired. */
+    ParkedGame take(String token) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return segmentFor(token).take(token, this);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private Segment segmentFor(String token) {
+        int hash = token.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+
+    /** What is needed to continue a game: the rest of {@link GameSession} is per connection. */
+    record ParkedGame(String playerName, NumberRange range, long magicNumber, int attempts, long parkedAtNanos) {
+
+        ParkedGame(String playerName, NumberRange range, long magicNumber, int attempts) {
+            this(playerName, range, magicNumber, attempts, System.nanoTime());
+        }
+
+        boolean isExpired(long now, long ttlNanos) {
+            return now - parkedAtNanos > ttlNanos;
+        }
+    }
+
+
+    private static final class Segment {
+        private final LinkedHashMap<String, ParkedGame> games = new LinkedHashMap<>();
+
+        synchronized void park(String token, ParkedGame game, SessionStore store) {
+            if (games.put(token, game) == null) {
+                store.size.incrementAndGet();
+            }
+
+            // Parking order is age order: expired games, and the oldest when full, are at the head
+            long now = System.nanoTime();
+            Iterator<ParkedGame> oldest = games.values().iterator();
+            while (oldest.hasNext()) {
+                ParkedGame head = oldest.next();
+                if (head == game
+                        || (store.size.get() <= store.capacity && !head.isExpired(now, store.ttlNanos))) {
+                    break;
+                }
+                oldest.remove();
+                store.size.decrementAndGet();
+            }
+        }
+
+        synchronized ParkedGame take(String token, SessionStore store) {
+            ParkedGame game = games.remove(token);
+            if (game == null) {
+                return null;
+            }
+            store.size.decrementAndGet();
+            return game.isExpired(System.nanoTime(), store.ttlNanos) ? null : game;
+        }
+    }
+}
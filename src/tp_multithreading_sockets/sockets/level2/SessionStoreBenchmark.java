@@ -0,0 +1,199 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Fills a {@link SessionStore} with parked games and reports what each one costs in heap, how
+ * long park and resume take at 100k entries, and that parking ten times the capacity keeps
+ * the store (and the heap) at its bound. Then drops a real connection mid-game and resumes it.
+ *
+ * Usage: java SessionStoreBenchmark [sessions=100000] [threads=4]
+ */
+public class SessionStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length >= 1 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = args.length >= 2 ? Integer.parseInt(args[1]) : 4;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Warm-up
+        for (int i = 0; i < 3; i++) {
+            SessionStore warm = new SessionStore(sessions, SessionStore.DEFAULT_TTL_MILLIS);
+            takeAll(warm, fill(warm, newTokens(warm, sessions)));
+        }
+
+        SessionStore store = new SessionStore(sessions, SessionStore.DEFAULT_TTL_MILLIS);
+        long tokenStart = System.nanoTime();
+        String[] tokens = newTokens(store, sessions);
+        long tokenNanos = System.nanoTime() - tokenStart;
+        String[] unknown = newTokens(store, sessions);
+
+        long heapBefore = usedHeap();
+        long parkStart = System.nanoTime();
+        fill(store, tokens);
+        long parkNanos = System.nanoTime() - parkStart;
+        long heapParked = usedHeap() - heapBefore;
+        console.printf("parked=%d new_token_ns=%.0f park_ns_per_op=%.0f heap_mb=%.1f bytes_per_session=%d%n",
+                store.size(), (double) tokenNanos / sessions, (double) parkNanos / sessions,
+                heapParked / 1e6, heapParked / sessions);
+
+        long missStart = System.nanoTime();
+        takeAll(store, unknown);
+        long missNanos = System.nanoTime() - missStart;
+        long hitStart = System.nanoTime();
+        int resumed = takeAll(store, tokens);
+        long hitNanos = System.nanoTime() - hitStart;
+        console.printf("resumed=%d take_hit_ns_per_op=%.0f take_miss_ns_per_op=%.0f left=%d%n",
+                resumed, (double) hitNanos / sessions, (double) missNanos / sessions, store.size());
+
+        // Ten times the capacity: the oldest games make room, the store never grows past its bound
+        tokens = null;
+        store = new SessionStore(sessions, SessionStore.DEFAULT_TTL_MILLIS);
+        heapBefore = usedHeap();
+        double concurrentNanos = parkConcurrently(store, sessions * 10, threads);
+        console.printf("overflow_parked=%d size=%d heap_mb=%.1f concurrent_token_and_park_ns_per_op=%.0f threads=%d%n",
+                sessions * 10L, store.size(), (usedHeap() - heapBefore) / 1e6, concurrentNanos, threads);
+
+        resumeOverTcp(console);
+        System.exit(0);
+    }
+
+    private static String[] newTokens(SessionStore store, int count) {
+        String[] tokens = new String[count];
+        for (int i = 0; i < count; i++) {
+            tokens[i] = store.newToken();
+        }
+        return tokens;
+    }
+
+    private static String[] fill(SessionStore store, String[] tokens) {
+        for (int i = 0; i < tokens.length; i++) {
+            store.park(tokens[i], new SessionStore.ParkedGame("player-" + i, NumberRange.DEFAULT, i % 101, i % 7));
+        }
+        return tokens;
+    }
+
+    private static int takeAll(SessionStore store, String[] tokens) {
+        int found = 0;
+        for (String token : tokens) {
+            if (store.take(token) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static double parkConcurrently(SessionStore store, int count, int threads) throws InterruptedException {
+        int perThread = count / threads;
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    store.park(store.newToken(), new SessionStore.ParkedGame("player-" + i, NumberRange.DEFAULT, i % 101, i % 7));
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) (System.nanoTime() - start) / (perThread * (long) threads);
+    }
+
+    /** Plays three guesses, drops the connection, resumes on a new one and finishes the game. */
+    private static void resumeOverTcp(PrintStream console) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        SessionStore store = new SessionStore(SessionStore.DEFAULT_CAPACITY, SessionStore.DEFAULT_TTL_MILLIS);
+        Thread server = new Thread(() -> {
+            try {
+                MultiThreadedMagicNumberServer.serve(serverSocket, ServerContext.of(new Leaderboard(10)).withSessions(store),
+                        ExecutionMode.VIRTUAL.createExecutor(0, 0), new java.util.concurrent.Semaphore(100),
+                        new java.util.concurrent.atomic.LongAdder());
+            } catch (IOException e) {
+                // closed
+            }
+        }, "resume-server");
+        server.setDaemon(true);
+        server.start();
+
+        String token;
+        try (Connection first = new Connection(serverSocket.getLocalPort())) {
+            first.in.readLine();                                    // Enter your name:
+            first.out.println("bot");
+            token = MultiThreadedMagicNumberClient.parseSessionToken(first.in.readLine());
+            for (int guess = 1; guess <= 3; guess++) {
+                first.out.println(guess);
+                first.in.readLine();
+            }
+        }
+
+        // The server parks the game when it sees the connection close
+        long deadline = System.currentTimeMillis() + 2000;
+        while (store.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        long start = System.nanoTime();
+        try (Connection second = new Connection(serverSocket.getLocalPort())) {
+            second.in.readLine();                                   // Enter your name:
+            second.out.println(GameSession.RESUME_COMMAND + token);
+            String welcomeBack = second.in.readLine();
+            long resumeMicros = (System.nanoTime() - start) / 1000;
+
+            int attempts = 3;
+            String response = "";
+            for (long guess = NumberRange.DEFAULT.min(); guess <= NumberRange.DEFAULT.max() && !response.equals("CORRECT");
+                 guess++) {
+                second.out.println(guess);
+                response = second.in.readLine();
+                attempts++;
+            }
+            String congratulations = second.in.readLine();
+            console.printf("tcp_resume_us=%d resumed_line=\"%s\" finished=%b same_game_counted=%b%n",
+                    resumeMicros, welcomeBack, response.equals("CORRECT"),
+                    congratulations.contains(" " + attempts + " attempt"));
+        }
+        serverSocket.close();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    private static class Connection implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        Connection(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(socket.getOutputStream(), true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * The original newline-delimited protocol. Fixed replies are encoded once and copied.
+ */
+final class TextProtocol implements Protocol {
+    static final TextProtocol INSTANCE = new TextProtocol();
+
+    private static final byte[] PROMPT = "Enter your name:\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOO_LOW = "TOO_LOW\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOO_HIGH = "TOO_HIGH\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CORRECT = "CORRECT\n".getBytes(StandardCharsets.UTF_8);
+
+    /** "ROOM HINT guess TOO_LOW|TOO_HIGH player" and "ROOM WINNER number attempts player". */
+    static final String ROOM_HINT = "ROOM HINT ";
+    static final String ROOM_WINNER = "ROOM WINNER ";
+
+    /** Sent instead of the prompt to an address over its connection rate, then the socket is closed. */
+    static final byte[] RATE_LIMITED_LINE =
+            "BUSY: Too many connections from your address, please slow down.\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Ends the welcome line as "[session TOKEN]". */
+    static final String SESSION_PREFIX = "[session ";
+
+    private TextProtocol() {
+    }
+
+    @Override
+    public void prompt(ResponseBuffer out) {
+        out.append(PROMPT);
+    }
+
+    @Override
+    public void welcome(String playerName, long min, long max, String sessionToken, ResponseBuffer out) {
+        // The token rides on the welcome line so clients that only look for "Welcome" are unaffected
+        out.line("Welcome, " + playerName + "! I'm thinking of a number between " +
+                 min + " and " + max + ". Guess it!" + sessionSuffix(sessionToken));
+    }
+
+    @Override
+    public void resumed(String playerName, long min, long max, int attempts, String sessionToken, ResponseBuffer out) {
+        out.line("Welcome back, " + playerName + "! I'm thinking of a number between " +
+                 min + " and " + max + ". Guess it! You already made " + attempts + " guess(es)." +
+                 sessionSuffix(sessionToken));
+    }
+
+    @Override
+    public void unknownSession(ResponseBuffer out) {
+        out.line("INVALID: Unknown or expired session.");
+        out.append(PROMPT);
+    }
+
+    private static String sessionSuffix(String sessionToken) {
+        return sessionToken == null ? "" : " " + SESSION_PREFIX + sessionToken + "]";
+    }
+
+    @Override
+    public void tooLow(ResponseBuffer out) {
+        out.append(TOO_LOW);
+    }
+
+    @Override
+    public void tooHigh(ResponseBuffer out) {
+        out.append(TOO_HIGH);
+    }
+
+    @Override
+    public void invalid(String message, ResponseBuffer out) {
+        out.line("INVALID: " + message);
+    }
+
+    @Override
+    public void roomHint(String playerName, long guess, boolean tooLow, ResponseBuffer out) {
+        // The name goes last: it may contain spaces
+        out.line(ROOM_HINT + guess + (tooLow ? " TOO_LOW " : " TOO_HIGH ") + playerName);
+    }
+
+    @Override
+    public void roomWinner(String playerName, int attempts, long magicNumber, ResponseBuffer out) {
+        out.line(ROOM_WINNER + magicNumber + " " + attempts + " " + playerName);
+    }
+
+    @Override
+    public void correct(String playerName, int attempts, int binarySearchAttempts, Leaderboard.Snapshot board,
+                        long rank, ResponseBuffer out) {
+        out.append(CORRECT);
+        out.line("Congratulations, " + playerName + "! You found it in " + attempts + " attempt(s)" +
+                 " (binary search needs at most " + binarySearchAttempts + ").");
+        out.append(board.toByteBuffer()).append((byte) '\n');
+        out.line("Your rank: #" + rank);
+    }
+}
@@ -0,0 +1,218 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+
+/**
+ * Non-blocking TLS over one {@link SocketChannel} for the NIO server, driven by its event loop:
+ * reads and writes plaintext like the channel would, and does the handshake as a side effect.
+ *
+ * - netIn holds ciphertext read but not yet decrypted, appIn plaintext not yet handed out
+ * - netOut holds ciphertext not yet written; while it is not empty nothing more is encrypted,
+ *   so the caller keeps its own plaintext and waits for OP_WRITE
+ * - plaintext written during the handshake is not accepted (0 bytes written); the caller keeps it
+ *   and tries again once {@link #isHandshaking} turns false
+ *
+ * Delegated tasks (certificate checks, signatures) run inline on the loop thread. That is the
+ * price of a full handshake; resumed sessions skip most of it.
+ */
+class TlsChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private final ByteBuffer netOut;
+    private boolean handshaking = true;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine) throws IOException {
+        this.channel = channel;
+        this.engine = engine;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize()).flip();
+        // Handshake records go out in several writes; Nagle would hold each one for the previous ACK
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        engine.beginHandshake();
+    }
+
+    boolean isHandshaking() {
+        return handshaking;
+    }
+
+    /** Ciphertext is waiting for the socket: the caller should wait for OP_WRITE. */
+    boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    /** Decrypted bytes the last read could not hand out; the selector will not report them. */
+    boolean hasBufferedInput() {
+        return appIn.position() > 0;
+    }
+
+    /**
+     * Reads and decrypts what the socket has, then hands out as much plaintext as fits in
+     * {@code dst}. Returns 0 while the handshake is going on and -1 at the end of the stream.
+     */
+    int read(ByteBuffer dst) throws IOException {
+        if (appIn.position() == 0) {
+            int read = channel.read(netIn);
+            if (read < 0) {
+                return -1;
+            }
+            process();
+        }
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        ByteBuffer slice = appIn.slice(appIn.position(), count);
+        dst.put(slice);
+        appIn.position(appIn.position() + count);
+        appIn.compact();
+        return count;
+    }
+
+    /** Encrypts and writes what it can; returns the plaintext bytes taken from {@code srcs}. */
+    long write(ByteBuffer... srcs) throws IOException {
+        if (!flushOutput() || handshaking) {
+            return 0;
+        }
+        long consumed = 0;
+        while (hasRemaining(srcs)) {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(srcs, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS session closed");
+            }
+            consumed += result.bytesConsumed();
+            if (!flushOutput()) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    /** On OP_WRITE: writes pending ciphertext, then carries on with the handshake if it was waiting for that. */
+    boolean flush() throws IOException {
+        if (!flushOutput()) {
+            return false;
+        }
+        if (handshaking) {
+            process();
+        }
+        return !netOut.hasRemaining();
+    }
+
+    /** Sends close_notify if the socket takes it right away; the connection is being dropped anyway. */
+    void closeOutbound() {
+        engine.closeOutbound();
+        try {
+            if (flushOutput()) {
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                flushOutput();
+            }
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    /** Runs the engine as far as the buffered ciphertext and the socket's send buffer allow. */
+    private void process() throws IOException {
+        netIn.flip();
+        try {
+            while (true) {
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    // Collect the whole flight (ServerHello ... Finished) and write it at once
+                    netOut.compact();
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    netOut.flip();
+                    finished(result);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && !flushOutput()) {
+                        return;                     // resumed from flush() on OP_WRITE
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        flushOutput();
+                        return;
+                    }
+                } else if (netIn.hasRemaining() || status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN) {
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    finished(result);
+                    switch (result.getStatus()) {
+                        case BUFFER_UNDERFLOW -> {
+                            if (netIn.remaining() == netIn.capacity()) {
+                                netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                            }
+                            return;                 // wait for the rest of the record
+                        }
+                        case BUFFER_OVERFLOW -> {
+                            if (appIn.position() == 0) {
+                                appIn = ByteBuffer.allocate(Math.max(appIn.capacity() * 2,
+                                        engine.getSession().getApplicationBufferSize()));
+                                continue;
+                            }
+                            return;                 // the caller takes plaintext out first
+                        }
+                        case CLOSED -> {
+                            return;
+                        }
+                        case OK -> {
+                        }
+                    }
+                } else {
+                    flushOutput();
+                    return;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private void finished(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED
+                || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            handshaking = false;
+        }
+    }
+
+    private boolean flushOutput() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Same content (in write mode) in a buffer that can hold at least {@code size} bytes more. */
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        buffer.compact().flip();
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() + size);
+        larger.put(buffer).flip();
+        return larger;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
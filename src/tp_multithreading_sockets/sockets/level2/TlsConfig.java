@@ -0,0 +1,174 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+
+/**
+ * Optional TLS for the game servers: the server's key and certificate, and how many TLS sessions
+ * it remembers so that reconnecting clients can resume them.
+ *
+ * A full handshake costs the server a signature (and a key exchange), which dominates the cost of
+ * a short game. A resumed handshake skips the certificate and the signature: the client presents
+ * the session ticket (TLS 1.3) or session id (TLS 1.2) it got last time. The server side cache
+ * keeps up to {@code sessionCacheSize} sessions for {@code sessionTimeoutSeconds}.
+ *
+ * The blocking servers wrap each accepted socket in an {@link SSLSocket}, which handshakes on the
+ * handler thread at its first write. The NIO server drives an {@link SSLEngine} per connection.
+ */
+public final class TlsConfig {
+    /** Plaintext. */
+    public static final TlsConfig NONE = new TlsConfig(null, null, 0, 0);
+
+    /** Makes a throwaway key pair and certificate instead of reading a keystore. */
+    public static final String SELF_SIGNED = "self-signed";
+    static final int DEFAULT_SESSION_CACHE = 20_000;
+    static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 3600;
+
+    private final SSLContext context;
+    private final KeyStore keyStore;
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+
+    private TlsConfig(SSLContext context, KeyStore keyStore, int sessionCacheSize, int sessionTimeoutSeconds) {
+        this.context = context;
+        this.keyStore = keyStore;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        if (context != null) {
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeoutSeconds);
+        }
+    }
+
+    /** TLS with the default session cache; {@code keystore} is a PKCS12 file or {@link #SELF_SIGNED}. */
+    public static TlsConfig of(String keystore, String password) throws IOException {
+        return of(keystore, password, DEFAULT_SESSION_CACHE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /** A session cache size of 0 means unbounded, as for {@link SSLSessionContext}. */
+    public static TlsConfig of(String keystore, String password, int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException {
+        char[] secret = password.toCharArray();
+        try {
+            KeyStore keys = keystore.equals(SELF_SIGNED) ? generateSelfSigned(secret) : load(Paths.get(keystore), secret);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keys, secret);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return new TlsConfig(context, keys, sessionCacheSize, sessionTimeoutSeconds);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot set up TLS from " + keystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Reads {@code --tls-keystore}, {@code --tls-password}, {@code --tls-session-cache} and {@code --tls-session-timeout-s}. */
+    static TlsConfig fromOptions(ServerOptions options) throws IOException {
+        if (!options.has("tls-keystore")) {
+            return NONE;
+        }
+        return of(options.get("tls-keystore", SELF_SIGNED), options.get("tls-password", "changeit"),
+                options.getInt("tls-session-cache", DEFAULT_SESSION_CACHE),
+                options.getInt("tls-session-timeout-s", DEFAULT_SESSION_TIMEOUT_SECONDS));
+    }
+
+    private static KeyStore load(Path path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keys = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(path)) {
+            keys.load(in, password);
+        }
+        return keys;
+    }
+
+    /**
+     * The JDK has no public API to issue a certificate, so this runs its keytool for an EC P-256
+     * key (cheaper to sign with than RSA) in a temporary keystore.
+     */
+    private static KeyStore generateSelfSigned(char[] password) throws IOException, GeneralSecurityException {
+        Path dir = Files.createTempDirectory("game-tls");
+        Path file = dir.resolve("server.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "game-server",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "365",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", file.toString(),
+                "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true).redirectOutput(new File(dir.toFile(), "keytool.log")).start();
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool failed: " + Files.readString(dir.resolve("keytool.log")));
+            }
+            return load(file, password);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating a certificate", e);
+        } finally {
+            process.destroy();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir.resolve("keytool.log"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    public boolean isEnabled() {
+        return context != null;
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    /**
+     * A client context that trusts this server's certificate, for benchmarks and tests against a
+     * self-signed server. Clients that share one context resume their sessions.
+     */
+    public SSLContext newClientContext() throws IOException {
+        try {
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(keyStore);
+            SSLContext client = SSLContext.getInstance("TLS");
+            client.init(null, trust.getTrustManagers(), null);
+            return client;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot build a client context: " + e.getMessage(), e);
+        }
+    }
+
+    /** Server side TLS over an accepted socket, or the socket itself without TLS. The handshake happens at the first read or write. */
+    public Socket wrap(Socket accepted) throws IOException {
+        if (context == null) {
+            return accepted;
+        }
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(accepted,
+                accepted.getInetAddress().getHostAddress(), accepted.getPort(), true);
+        socket.setUseClientMode(false);
+        return socket;
+    }
+
+    SSLEngine newServerEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? "TLS, session cache " + (sessionCacheSize == 0 ? "unbounded" : sessionCacheSize)
+                + ", sessions resumable for " + sessionTimeoutSeconds + " s" : "off (plaintext)";
+    }
+}
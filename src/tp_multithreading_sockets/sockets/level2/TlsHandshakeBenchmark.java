@@ -0,0 +1,153 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * Reconnect storm over TLS with a self-signed certificate. Client threads connect, wait for the
+ * name prompt and hang up, as fast as they can, against the NIO server (SSLEngine) and the
+ * blocking server (SSLSocket, virtual threads). Three variants:
+ * - plain: no TLS, the baseline
+ * - full: every connection does a full handshake (each one presents a new peer name, so the
+ *   client has no session to offer)
+ * - resumed: all connections share the client's session cache, so after the first one they
+ *   resume with a session ticket
+ *
+ * Reports connections per second, client latency and, for NIO, the CPU the server's loop threads
+ * spent per connection.
+ *
+ * Usage: java TlsHandshakeBenchmark [seconds=5] [clientThreads=1]
+ */
+public class TlsHandshakeBenchmark {
+    private static final String HOST = "127.0.0.1";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length >= 1 ? Integer.parseInt(args[0]) : 5;
+        int clientThreads = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TlsConfig tls = TlsConfig.of(TlsConfig.SELF_SIGNED, "changeit");
+        SSLContext client = tls.newClientContext();
+
+        // The first pass is a warm-up: the TLS code takes thousands of handshakes to be fully compiled
+        for (int pass = 0; pass < 2; pass++) {
+            for (String server : new String[] {"nio", "blocking"}) {
+                for (String variant : new String[] {"plain", "full", "resumed"}) {
+                    TlsConfig serverTls = variant.equals("plain") ? TlsConfig.NONE : tls;
+                    String line = run(server, variant, serverTls, client, seconds, clientThreads);
+                    if (pass == 1) {
+                        console.println(line);
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static String run(String server, String variant, TlsConfig tls, SSLContext client,
+                              int seconds, int clientThreads) throws Exception {
+        Closeable closeable;
+        int port;
+        if (server.equals("nio")) {
+            NioMagicNumberServer nio = new NioMagicNumberServer(0, 1, NioMagicNumberServer.DEFAULT_BACKLOG, false,
+                    ServerContext.of(new Leaderboard(10)).withTls(tls));
+            nio.start();
+            closeable = nio;
+            port = nio.getPort();
+        } else {
+            ServerSocket serverSocket = new ServerSocket(0, NioMagicNumberServer.DEFAULT_BACKLOG);
+            Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    MultiThreadedMagicNumberServer.serve(serverSocket, ServerContext.of(new Leaderboard(10)).withTls(tls),
+                            ExecutionMode.VIRTUAL.createExecutor(0, 0), new Semaphore(Integer.MAX_VALUE), new LongAdder());
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            closeable = serverSocket;
+            port = serverSocket.getLocalPort();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        AtomicLong peer = new AtomicLong();
+        long cpuBefore = serverCpuNanos();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < clientThreads; t++) {
+            clients.add(Thread.ofPlatform().start(() -> {
+                while (System.nanoTime() < deadline) {
+                    long before = System.nanoTime();
+                    try {
+                        connectAndHangUp(port, variant, client, peer);
+                        latency.record(System.nanoTime() - before);
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long cpuNanos = serverCpuNanos() - cpuBefore;
+        closeable.close();
+
+        long count = latency.getCount();
+        return String.format("server=%s variant=%s connections_per_sec=%.0f p50_us=%.0f p99_us=%.0f errors=%d%s",
+                server, variant, count / elapsed, latency.getPercentile(50) / 1000.0,
+                latency.getPercentile(99) / 1000.0, errors.sum(),
+                server.equals("nio") ? String.format(" server_cpu_us_per_connection=%.0f", cpuNanos / 1000.0 / count) : "");
+    }
+
+    /** Connects, reads the first byte of the prompt (which needs the whole handshake) and closes. */
+    private static void connectAndHangUp(int port, String variant, SSLContext client, AtomicLong peer)
+            throws IOException {
+        Socket plain = new Socket();
+        plain.connect(new InetSocketAddress(HOST, port));
+        plain.setTcpNoDelay(true);
+        Socket socket = plain;
+        if (!variant.equals("plain")) {
+            // The client caches sessions by peer name and port: a new name means nothing to resume
+            String peerName = variant.equals("full") ? "peer-" + peer.incrementAndGet() : "localhost";
+            socket = client.getSocketFactory().createSocket(plain, peerName, port, true);
+            ((SSLSocket) socket).startHandshake();
+        }
+        try (Socket closing = socket) {
+            InputStream in = closing.getInputStream();
+            if (in.read() < 0) {
+                throw new IOException("closed before the prompt");
+            }
+        }
+    }
+
+    private static long serverCpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("nio-")) {
+                total += Math.max(0, threads.getThreadCpuTime(thread.threadId()));
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,174 @@
+package tp_multithreading_sockets.sockets.level2;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Runs saturating binary-search players against the thread-per-client server twice: once with
+ * the old handler (PrintWriter with autoflush, synchronous console logging) and once with the
+ * current {@link ClientHandler} (one write per reply, {@link AsyncLog}). Reports guesses/s and
+ * TCP segments per game, read from the kernel counters in /proc/net/snmp (Linux only).
+ *
+ * Server output goes to a temporary file, so logging costs a real write() per line.
+ *
+ * Usage: java WriteCoalescingBenchmark [players] [seconds]
+ */
+public class WriteCoalescingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length >= 1 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+
+        PrintStream console = System.out;
+        Path logFile = Files.createTempFile("server-log", ".txt");
+        System.setOut(new PrintStream(new FileOutputStream(logFile.toFile()), true));
+        try {
+            // Warm-up both handlers before measuring
+            run("legacy", true, players, Math.max(1, seconds / 4));
+            run("coalesced", false, players, Math.max(1, seconds / 4));
+            console.println(run("legacy", true, players, seconds));
+            console.println(run("coalesced", false, players, seconds));
+        } finally {
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    private static String run(String label, boolean legacy, int players, int seconds) throws Exception {
+        Leaderboard leaderboard = new Leaderboard(10);
+        ServerSocket serverSocket = new ServerSocket(0, 1024);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    new Thread(legacy ? new LegacyClientHandler(socket, leaderboard)
+                                      : new ClientHandler(socket, leaderboard)).start();
+                }
+            } catch (SocketException e) {
+                // server socket closed at the end of the run
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        AtomicLong guesses = new AtomicLong();
+        AtomicLong games = new AtomicLong();
+        long segmentsBefore = tcpOutSegments();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Thread> playerThreads = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Thread player = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        guesses.addAndGet(ServerLoadTest.playGame(serverSocket.getLocalPort()));
+                        games.incrementAndGet();
+                    } catch (IOException e) {
+                        // count only completed games
+                    }
+                }
+            });
+            player.start();
+            playerThreads.add(player);
+        }
+        for (Thread player : playerThreads) {
+            player.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long segments = tcpOutSegments() - segmentsBefore;
+        serverSocket.close();
+        AsyncLog.flush(5000);
+
+        return String.format("handler=%s players=%d games=%d guesses_per_sec=%.0f tcp_segments_per_game=%s",
+                label, players, games.get(), guesses.get() / elapsed,
+                segmentsBefore < 0 ? "n/a" : String.format("%.1f", (double) segments / games.get()));
+    }
+
+    /**
+     * Segments sent by every TCP socket on the machine; on loopback that is both directions
+     * of each game, handshake and teardown included. Returns -1 if the counter is not available.
+     */
+    private static long tcpOutSegments() {
+        return KernelCounters.read("/proc/net/snmp", "Tcp:", "OutSegs");
+    }
+
+
+    /** The handler as it was before write coalescing, kept here as the baseline. */
+    private static class LegacyClientHandler implements Runnable {
+        private final Socket clientSocket;
+        private final Leaderboard leaderboard;
+
+        LegacyClientHandler(Socket clientSocket, Leaderboard leaderboard) {
+            this.clientSocket = clientSocket;
+            this.leaderboard = leaderboard;
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+
+                out.println("Enter your name:");
+                String playerName = in.readLine();
+                if (playerName == null || playerName.trim().isEmpty()) {
+                    playerName = "Anonymous";
+                }
+                int magicNumber = (int) (Math.random() * (NumberRange.DEFAULT.max() - NumberRange.DEFAULT.min() + 1))
+                        + (int) NumberRange.DEFAULT.min();
+                System.out.println("🎯 [" + playerName + "] Magic number: " + magicNumber);
+                int attempts = 0;
+                String clientIP = clientSocket.getInetAddress().getHostAddress();
+                out.println("Welcome, " + playerName + "! I'm thinking of a number between "
+                        + NumberRange.DEFAULT.min() + " and " + NumberRange.DEFAULT.max() + ". Guess it!");
+
+                while (true) {
+                    String guessStr = in.readLine();
+                    if (guessStr == null || guessStr.equalsIgnoreCase("quit")) {
+                        System.out.println("[" + playerName + "] Disconnected.");
+                        break;
+                    }
+                    try {
+                        int guess = Integer.parseInt(guessStr);
+                        attempts++;
+                        if (guess < magicNumber) {
+                            out.println("TOO_LOW");
+                            System.out.println("[" + playerName + "] Guess: " + guess + " -> TOO_LOW");
+                        } else if (guess > magicNumber) {
+                            out.println("TOO_HIGH");
+                            System.out.println("[" + playerName + "] Guess: " + guess + " -> TOO_HIGH");
+                        } else {
+                            out.println("CORRECT");
+                            out.println("Congratulations, " + playerName + "! You found it in " + attempts + " attempt(s).");
+                            leaderboard.addScore(playerName, attempts, clientIP);
+                            Leaderboard.Snapshot board = leaderboard.getSnapshot();
+                            out.println(board.getText());
+                            out.println("Your rank: #" + leaderboard.getRank(attempts));
+                            System.out.println("[" + playerName + "] Found the number in " + attempts + " attempt(s)!");
+                            System.out.println(board.getText());
+                            break;
+                        }
+                    } catch (NumberFormatException e) {
+                        out.println("INVALID: Please enter a valid number.");
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+            } finally {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing client socket: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * High-throughput UDP receiver: one non-blocking {@link DatagramChannel} per port, each with its
+ * own receive thread, and a worker stage that runs the {@link DatagramHandler}.
+ *
+ * Per port (a "lane"):
+ * - a fixed pool of direct buffers, allocated once; receiving into a direct buffer avoids the
+ *   copy the JDK makes for heap buffers, and nothing is allocated per datagram
+ * - the receive thread waits on a selector, then drains the socket with {@code receive()} until it
+ *   returns null, handing each filled buffer to the worker through a lock-free {@link SpscRing}
+ * - the worker hands the buffer back through a second ring, which is the pool
+ *
+ * The receive thread never waits for the worker: when the pool is empty the datagram is read
+ * into a scratch buffer and counted as dropped, so the socket buffer keeps draining and the
+ * drops are visible instead of happening silently in the kernel.
+ *
+ * With several ports, lane {@code i} is handled by worker {@code i % workers}, which keeps each
+ * ring single-producer, single-consumer.
+ */
+public final class ChannelReceiver implements Closeable {
+    public static final int DEFAULT_RING_SIZE = 4096;
+    public static final int DEFAULT_BUFFER_SIZE = 2048;
+    public static final int DEFAULT_RECEIVE_BUFFER = 4 * 1024 * 1024;
+
+    private final List<Lane> lanes = new ArrayList<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private final DatagramHandler handler;
+    private volatile boolean running = true;
+
+    /** One lane per port (0 picks a free port), one worker, default sizes. */
+    public ChannelReceiver(int[] ports, DatagramHandler handler) throws IOException {
+        this(ports, 1, DEFAULT_RING_SIZE, DEFAULT_BUFFER_SIZE, DEFAULT_RECEIVE_BUFFER, handler);
+    }
+
+    /**
+     * @param ringSize      buffers per lane, which is also how many datagrams can wait for the worker
+     * @param bufferSize    largest datagram kept whole; longer ones are truncated, as with DatagramSocket
+     * @param receiveBuffer SO_RCVBUF asked for; Linux caps it at net.core.rmem_max
+     */
+    public ChannelReceiver(int[] ports, int workerCount, int ringSize, int bufferSize, int receiveBuffer,
+                           DatagramHandler handler) throws IOException {
+        this.handler = handler;
+        for (int i = 0; i < Math.min(workerCount, ports.length); i++) {
+            workers.add(new Worker(i));
+        }
+        try {
+            for (int i = 0; i < ports.length; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                try {
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+                    channel.bind(new InetSocketAddress(ports[i]));
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                addLane(channel, ringSize, bufferSize);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Over channels the caller has already bound (and, for multicast, joined to groups), one worker. */
+    ChannelReceiver(DatagramChannel[] channels, DatagramHandler handler) throws IOException {
+        this.handler = handler;
+        workers.add(new Worker(0));
+        try {
+            for (DatagramChannel channel : channels) {
+                addLane(channel, DEFAULT_RING_SIZE, DEFAULT_BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void addLane(DatagramChannel channel, int ringSize, int bufferSize) throws IOException {
+        Lane lane = new Lane(lanes.size(), channel, ringSize, bufferSize);
+        lanes.add(lane);
+        lane.worker = workers.get(lane.index % workers.size());
+        lane.worker.lanes.add(lane);
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /** The bound ports, in the order given (useful when 0 was asked for). */
+    public int[] getPorts() {
+        int[] ports = new int[lanes.size()];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = lanes.get(i).port;
+        }
+        return ports;
+    }
+
+    /** Datagrams read from the sockets, including the dropped ones. */
+    public long getReceived() {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += lane.received;
+        }
+        return total;
+    }
+
+    /** Datagrams read but thrown away because the worker was behind and the pool was empty. */
+    public long getDropped() {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += lane.dropped;
+        }
+        return total;
+    }
+
+    /** Datagrams the handler has seen. */
+    public long getHandled() {
+        long total = 0;
+        for (Worker worker : workers) {
+            total += worker.handled;
+        }
+        return total;
+    }
+
+    /** Receive and worker threads, for measurements. */
+    public List<Thread> getThreads() {
+        List<Thread> threads = new ArrayList<>();
+        for (Lane lane : lanes) {
+            threads.add(lane.thread);
+        }
+        for (Worker worker : workers) {
+            threads.add(worker.thread);
+        }
+        return threads;
+    }
+
+    /** Stops receiving; the workers finish what is already queued, then stop. */
+    @Override
+    public void close() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /** Waits until the receive and worker threads have stopped. */
+    public void join() throws InterruptedException {
+        for (Thread thread : getThreads()) {
+            if (thread.getState() != Thread.State.NEW) {
+                thread.join();
+            }
+        }
+    }
+
+
+    /** A datagram in flight between a receive thread and a worker. */
+    private static final class Slot {
+        final ByteBuffer buffer;
+        SocketAddress sender;
+
+        Slot(int size) {
+            this.buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+
+    private final class Lane {
+        final int index;
+        final DatagramChannel channel;
+        final Selector selector;
+        final int port;
+        final SpscRing<Slot> full;
+        final SpscRing<Slot> free;
+        final ByteBuffer scratch;
+        final Thread thread;
+        Worker worker;
+        volatile long received;
+        volatile long dropped;
+
+        Lane(int index, DatagramChannel channel, int ringSize, int bufferSize) throws IOException {
+            this.index = index;
+            this.channel = channel;
+            this.selector = Selector.open();
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            this.full = new SpscRing<>(ringSize);
+            this.free = new SpscRing<>(ringSize);
+            for (int i = 0; i < free.capacity(); i++) {
+                free.offer(new Slot(bufferSize));
+            }
+            this.scratch = ByteBuffer.allocateDirect(bufferSize);
+            this.thread = Thread.ofPlatform().name("udp-recv-" + index).daemon().unstarted(this::receiveLoop);
+        }
+
+        private void receiveLoop() {
+            Slot spare = null;
+            try {
+                while (running) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    long burst = 0;
+                    long burstDropped = 0;
+                    while (true) {
+                        Slot slot = spare != null ? spare : free.poll();
+                        spare = null;
+                        if (slot == null) {
+                            scratch.clear();
+                            if (channel.receive(scratch) == null) {
+                                break;
+                            }
+                            burstDropped++;
+                            continue;
+                        }
+                        slot.buffer.clear();
+                        SocketAddress sender = channel.receive(slot.buffer);
+                        if (sender == null) {
+                            spare = slot;
+                            break;
+                        }
+                        slot.buffer.flip();
+                        slot.sender = sender;
+                        full.offer(slot);           // cannot fail: there are only as many slots as ring entries
+                        burst++;
+                        if ((burst & 63) == 0) {
+                            LockSupport.unpark(worker.thread);
+                        }
+                    }
+                    // One counter update and one wake-up per burst, not per datagram
+                    received += burst + burstDropped;
+                    dropped += burstDropped;
+                    // The ring publishes with ordered stores, which a later load may pass: without the
+                    // fence the worker could miss the burst while we miss its flag, and sleep on it
+                    VarHandle.fullFence();
+                    if (burst > 0 && worker.waiting) {
+                        LockSupport.unpark(worker.thread);
+                    }
+                }
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                // closed
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("UDP receive error on port " + port + ": " + e.getMessage());
+                }
+            }
+        }
+
+        void close() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+
+    private final class Worker {
+        final List<Lane> lanes = new ArrayList<>();
+        final Thread thread;
+        volatile boolean waiting;
+        volatile long handled;
+
+        Worker(int index) {
+            this.thread = Thread.ofPlatform().name("udp-worker-" + index).daemon().unstarted(this::workLoop);
+        }
+
+        private void workLoop() {
+            while (true) {
+                long count = 0;
+                for (Lane lane : lanes) {
+                    Slot slot;
+                    while ((slot = lane.full.poll()) != null) {
+                        try {
+                            handler.onDatagram(slot.buffer, slot.sender, lane.port);
+                        } catch (RuntimeException e) {
+                            System.err.println("UDP handler error: " + e);
+                        }
+                        lane.free.offer(slot);
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    handled += count;
+                    continue;
+                }
+                handler.onIdle();
+                if (!running && allEmpty()) {
+                    return;
+                }
+                waiting = true;
+                // Checked after the flag: a burst published before the receive thread saw it is seen here
+                if (allEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+
+        private boolean allEmpty() {
+            for (Lane lane : lanes) {
+                if (!lane.full.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
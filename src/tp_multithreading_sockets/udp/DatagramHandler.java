@@ -0,0 +1,22 @@
+package tp_multithreading_sockets.udp;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+
+/**
+ * What the worker stage of a {@link ChannelReceiver} does with each datagram. Runs on a worker
+ * thread, never on a receive thread.
+ */
+public interface DatagramHandler {
+
+    /**
+     * {@code payload} is a pooled buffer: it is only valid during the call and goes back to the
+     * receive thread afterwards, so copy what must be kept.
+     */
+    void onDatagram(ByteBuffer payload, SocketAddress sender, int port);
+
+    /** Called when the worker has nothing left to handle, before it waits; a place to flush output. */
+    default void onIdle() {
+    }
+}
@@ -0,0 +1,104 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Sits on the outgoing path of one endpoint and misbehaves like a bad network: drops a datagram
+ * with probability {@code lossRate}, and holds one back with probability {@code reorderRate}
+ * until 1 to {@link #MAX_REORDER_DISTANCE} later datagrams have gone out.
+ *
+ * Seeded, so a run can be repeated. Not thread-safe: each endpoint needs its own, used from its
+ * I/O thread.
+ */
+public final class LossSimulator {
+    /** Sends everything, in order. */
+    public static final LossSimulator NONE = new LossSimulator(0, 0, 0);
+
+    static final int MAX_REORDER_DISTANCE = 8;
+
+    private final double lossRate;
+    private final double reorderRate;
+    private final Random random;
+    private final List<Held> held = new ArrayList<>();
+    private long dropped;
+    private long reordered;
+
+    public LossSimulator(double lossRate, double reorderRate, long seed) {
+        this.lossRate = lossRate;
+        this.reorderRate = reorderRate;
+        this.random = new Random(seed);
+    }
+
+    /** Sends, drops or holds back {@code datagram}; consumes its remaining bytes either way. */
+    void send(DatagramChannel channel, ByteBuffer datagram, SocketAddress target) throws IOException {
+        if (this == NONE) {
+            channel.send(datagram, target);
+            return;
+        }
+        if (random.nextDouble() < lossRate) {
+            datagram.position(datagram.limit());
+            dropped++;
+            return;
+        }
+        if (random.nextDouble() < reorderRate) {
+            byte[] copy = new byte[datagram.remaining()];
+            datagram.get(copy);
+            held.add(new Held(copy, target, 1 + random.nextInt(MAX_REORDER_DISTANCE)));
+            reordered++;
+            return;
+        }
+        channel.send(datagram, target);
+        for (int i = held.size() - 1; i >= 0; i--) {
+            Held late = held.get(i);
+            if (--late.remaining == 0) {
+                held.remove(i);
+                channel.send(ByteBuffer.wrap(late.datagram), late.target);
+            }
+        }
+    }
+
+    boolean hasHeld() {
+        return !held.isEmpty();
+    }
+
+    /** Sends what is held back; the endpoint calls this when it has nothing else to send. */
+    void flush(DatagramChannel channel) throws IOException {
+        for (Held late : held) {
+            channel.send(ByteBuffer.wrap(late.datagram), late.target);
+        }
+        held.clear();
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getReordered() {
+        return reordered;
+    }
+
+    @Override
+    public String toString() {
+        return this == NONE ? "none" : String.format("loss %.1f%%, reorder %.1f%%", lossRate * 100, reorderRate * 100);
+    }
+
+
+    private static class Held {
+        final byte[] datagram;
+        final SocketAddress target;
+        int remaining;
+
+        Held(byte[] datagram, SocketAddress target, int remaining) {
+            this.datagram = datagram;
+            this.target = target;
+            this.remaining = remaining;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Fan-out to several receiver processes on this host, once with multicast (one send per message,
+ * the kernel copies it to every member of the group) and once with unicast (one send per message
+ * per receiver, as UDPSender would have to do).
+ *
+ * Each datagram carries a sequence number. Every receiver process counts what it got, duplicates
+ * and datagrams older than one it had already seen (reordered), and reports when the end marker
+ * arrives. The sender reports its CPU time per message and the rate it achieved; a rate of 0
+ * sends as fast as it can, which shows the cost of the sends without the pacer's waiting.
+ *
+ * Usage: java MulticastFanoutBenchmark [receivers=3] [messages=100000] [rate=20000] [payloadBytes=256]
+ *        [group=239.1.2.3] [interface]
+ */
+public class MulticastFanoutBenchmark {
+    private static final int PORT = 24600;
+    private static final long END = -1;
+    private static final int IDLE_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("--child")) {
+            child(args[1], args[2], args.length >= 4 ? args[3] : null);
+            return;
+        }
+        int receivers = args.length >= 1 ? Integer.parseInt(args[0]) : 3;
+        int messages = args.length >= 2 ? Integer.parseInt(args[1]) : 100_000;
+        int rate = args.length >= 3 ? Integer.parseInt(args[2]) : 20_000;
+        int payloadBytes = args.length >= 4 ? Integer.parseInt(args[3]) : 256;
+        String group = args.length >= 5 ? args[4] : "239.1.2.3";
+        String interfaceName = args.length >= 6 ? args[5] : null;
+
+        System.out.println("interface=" + MulticastReceiver.findInterface(interfaceName).getName());
+        for (String mode : new String[] {"multicast", "unicast"}) {
+            run(mode, receivers, messages, rate, payloadBytes, group, interfaceName);
+        }
+    }
+
+    private static void run(String mode, int receivers, int messages, int rate, int payloadBytes,
+                            String group, String interfaceName) throws Exception {
+        List<Process> children = new ArrayList<>();
+        List<BufferedReader> outputs = new ArrayList<>();
+        List<SocketAddress> targets = new ArrayList<>();
+        for (int i = 0; i < receivers; i++) {
+            List<String> command = new ArrayList<>(List.of(
+                    ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", System.getProperty("java.class.path"),
+                    MulticastFanoutBenchmark.class.getName(), "--child", mode, group));
+            if (interfaceName != null) {
+                command.add(interfaceName);
+            }
+            Process child = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+            String ready = output.readLine();
+            if (ready == null || !ready.startsWith("READY ")) {
+                throw new IOException("receiver " + i + " did not start: " + ready);
+            }
+            children.add(child);
+            outputs.add(output);
+            targets.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(ready.substring(6))));
+        }
+        boolean multicast = mode.equals("multicast");
+        if (multicast) {
+            targets = List.of(new InetSocketAddress(InetAddress.getByName(group), PORT));
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        NetworkInterface networkInterface = MulticastReceiver.findInterface(interfaceName);
+        Pacer pacer = rate > 0 ? Pacer.packetsPerSecond(rate) : Pacer.unlimited();
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        long sends = 0;
+        try (DatagramChannel channel = multicast ? MulticastReceiver.openSender(networkInterface, MulticastReceiver.DEFAULT_TTL)
+                : DatagramChannel.open()) {
+            ByteBuffer datagram = ByteBuffer.allocateDirect(Math.max(Long.BYTES, payloadBytes));
+            for (long seq = 0; seq < messages; seq++) {
+                pacer.acquire(datagram.capacity());
+                for (SocketAddress target : targets) {
+                    datagram.clear();
+                    datagram.putLong(0, seq);
+                    channel.send(datagram, target);
+                    sends++;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+            // The end marker is a datagram too: send it a few times
+            for (int i = 0; i < 5; i++) {
+                for (SocketAddress target : targets) {
+                    datagram.clear();
+                    datagram.putLong(0, END);
+                    channel.send(datagram, target);
+                }
+                Thread.sleep(50);
+            }
+
+            long totalReceived = 0;
+            long minReceived = Long.MAX_VALUE;
+            long duplicates = 0;
+            long reordered = 0;
+            for (int i = 0; i < receivers; i++) {
+                String result = outputs.get(i).readLine();
+                children.get(i).waitFor(10, TimeUnit.SECONDS);
+                long received = field(result, "received");
+                totalReceived += received;
+                minReceived = Math.min(minReceived, received);
+                duplicates += field(result, "duplicates");
+                reordered += field(result, "reordered");
+            }
+            long expected = (long) messages * receivers;
+            System.out.printf("mode=%s receivers=%d messages=%d target_rate=%d sent_per_sec=%.0f sends=%d "
+                            + "sender_cpu_ns_per_message=%.0f delivered=%.2f%% worst_receiver=%.2f%% lost=%d "
+                            + "duplicates=%d reordered=%d%n",
+                    mode, receivers, messages, rate, messages / seconds, sends, (double) cpuNanos / messages,
+                    100.0 * totalReceived / expected, 100.0 * minReceived / messages, expected - totalReceived,
+                    duplicates, reordered);
+        } finally {
+            for (Process child : children) {
+                child.destroy();
+            }
+        }
+    }
+
+    /** A receiver process: counts datagrams until the end marker, or until nothing arrives for a while. */
+    private static void child(String mode, String group, String interfaceName) throws Exception {
+        BitSet seen = new BitSet();
+        long[] counts = new long[4];            // received, duplicates, reordered, highest
+        counts[3] = -1;
+        CountDownLatch end = new CountDownLatch(1);
+        DatagramHandler handler = new DatagramHandler() {
+            @Override
+            public void onDatagram(ByteBuffer payload, SocketAddress sender, int port) {
+                long seq = payload.getLong(0);
+                if (seq == END) {
+                    end.countDown();
+                    return;
+                }
+                synchronized (counts) {
+                    if (seen.get((int) seq)) {
+                        counts[1]++;
+                        return;
+                    }
+                    seen.set((int) seq);
+                    counts[0]++;
+                    if (seq < counts[3]) {
+                        counts[2]++;
+                    }
+                    counts[3] = Math.max(counts[3], seq);
+                }
+            }
+        };
+
+        java.io.Closeable receiver;
+        int port;
+        if (mode.equals("multicast")) {
+            MulticastReceiver multicast = new MulticastReceiver(PORT, MulticastReceiver.findInterface(interfaceName), handler);
+            multicast.join(InetAddress.getByName(group));
+            multicast.start();
+            receiver = multicast;
+            port = multicast.getPort();
+        } else {
+            ChannelReceiver unicast = new ChannelReceiver(new int[1], handler);
+            unicast.start();
+            receiver = unicast;
+            port = unicast.getPorts()[0];
+        }
+        System.out.println("READY " + port);
+        System.out.flush();
+
+        long last = -1;
+        while (!end.await(IDLE_SECONDS, TimeUnit.SECONDS)) {
+            synchronized (counts) {
+                if (counts[0] == last) {
+                    break;                      // the end markers were all lost
+                }
+                last = counts[0];
+            }
+        }
+        receiver.close();
+        synchronized (counts) {
+            System.out.println("RESULT received=" + counts[0] + " duplicates=" + counts[1] + " reordered=" + counts[2]);
+        }
+        System.out.flush();
+        System.exit(0);
+    }
+
+    private static long field(String line, String name) throws IOException {
+        if (line == null) {
+            throw new IOException("a receiver exited without a result");
+        }
+        for (String part : line.split(" ")) {
+            if (part.startsWith(name + "=")) {
+                return Long.parseLong(part.substring(name.length() + 1));
+            }
+        }
+        throw new IOException("no " + name + " in " + line);
+    }
+}
@@ -0,0 +1,163 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Receives multicast datagrams: one channel bound to the group port, which can join and leave
+ * any number of IPv4 groups while it runs. Receiving goes through {@link ChannelReceiver}, so the
+ * handler runs on its worker thread.
+ *
+ * The port is bound with SO_REUSEADDR, so several receivers (processes) on one host can listen on
+ * the same group port, and the kernel gives each of them a copy of every datagram. A group joined
+ * with a source only delivers that source's datagrams (source-specific multicast).
+ */
+public final class MulticastReceiver implements Closeable {
+    /** Datagrams do not leave the local network segment. */
+    public static final int DEFAULT_TTL = 1;
+
+    private final DatagramChannel channel;
+    private final NetworkInterface networkInterface;
+    private final Map<String, MembershipKey> memberships = new LinkedHashMap<>();
+    private final ChannelReceiver receiver;
+
+    public MulticastReceiver(int port, NetworkInterface networkInterface, DatagramHandler handler) throws IOException {
+        this.networkInterface = networkInterface;
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, ChannelReceiver.DEFAULT_RECEIVE_BUFFER);
+            channel.bind(new InetSocketAddress(port));
+            this.receiver = new ChannelReceiver(new DatagramChannel[] {channel}, handler);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public void start() {
+        receiver.start();
+    }
+
+    /** Receives everything sent to {@code group}; does nothing if already joined. */
+    public synchronized void join(InetAddress group) throws IOException {
+        join(group, null);
+    }
+
+    /** Receives what {@code source} sends to {@code group}; a null source means any source. */
+    public synchronized void join(InetAddress group, InetAddress source) throws IOException {
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(group.getHostAddress() + " is not a multicast address");
+        }
+        String key = key(group, source);
+        if (!memberships.containsKey(key)) {
+            memberships.put(key, source == null ? channel.join(group, networkInterface)
+                    : channel.join(group, networkInterface, source));
+        }
+    }
+
+    /** Leaves {@code group}, for every source it was joined with; returns false if it was not joined. */
+    public synchronized boolean leave(InetAddress group) {
+        boolean left = false;
+        for (var iterator = memberships.values().iterator(); iterator.hasNext(); ) {
+            MembershipKey membership = iterator.next();
+            if (membership.group().equals(group)) {
+                membership.drop();
+                iterator.remove();
+                left = true;
+            }
+        }
+        return left;
+    }
+
+    /** The groups joined, as "group" or "group from source". */
+    public synchronized List<String> getGroups() {
+        List<String> groups = new ArrayList<>();
+        for (MembershipKey membership : memberships.values()) {
+            groups.add(key(membership.group(), membership.sourceAddress()));
+        }
+        return Collections.unmodifiableList(groups);
+    }
+
+    public int getPort() {
+        return receiver.getPorts()[0];
+    }
+
+    public NetworkInterface getNetworkInterface() {
+        return networkInterface;
+    }
+
+    public long getReceived() {
+        return receiver.getReceived();
+    }
+
+    public long getDropped() {
+        return receiver.getDropped();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MembershipKey membership : memberships.values()) {
+            membership.drop();
+        }
+        memberships.clear();
+        receiver.close();
+    }
+
+    /**
+     * The interface called {@code name}, or if null the first interface that is up, supports
+     * multicast and has an IPv4 address, falling back to loopback (which Linux also accepts).
+     */
+    public static NetworkInterface findInterface(String name) throws SocketException {
+        if (name != null) {
+            NetworkInterface named = NetworkInterface.getByName(name);
+            if (named == null) {
+                throw new SocketException("No network interface called " + name);
+            }
+            return named;
+        }
+        for (NetworkInterface candidate : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (candidate.isUp() && candidate.supportsMulticast() && !candidate.isLoopback() && hasIpv4(candidate)) {
+                return candidate;
+            }
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    /** A sending channel for multicast: leaves through {@code networkInterface}, and loops back to receivers on this host. */
+    public static DatagramChannel openSender(NetworkInterface networkInterface, int ttl) throws IOException {
+        DatagramChannel sender = DatagramChannel.open(StandardProtocolFamily.INET);
+        sender.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        sender.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        sender.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        return sender;
+    }
+
+    private static boolean hasIpv4(NetworkInterface networkInterface) {
+        for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+            if (address instanceof Inet4Address) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(InetAddress group, InetAddress source) {
+        return group.getHostAddress() + (source == null ? "" : " from " + source.getHostAddress());
+    }
+}
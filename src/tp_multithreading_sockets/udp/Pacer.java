@@ -0,0 +1,66 @@
+package tp_multithreading_sockets.udp;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Spaces datagrams out to a target rate, in packets per second or megabits per second.
+ *
+ * Keeps the time the next datagram is due and sleeps until then. A sleep is never shorter than
+ * the scheduler's tick (tens of microseconds), so at high rates the pacer lets the sender catch up
+ * with a short burst instead of falling behind: up to {@link #MAX_BURST_NANOS} of lateness is made
+ * up, more than that is forgiven.
+ */
+public final class Pacer {
+    static final long MAX_BURST_NANOS = 1_000_000;
+
+    private final double nanosPerPacket;
+    private final double nanosPerByte;
+    private long due;
+
+    private Pacer(double nanosPerPacket, double nanosPerByte) {
+        this.nanosPerPacket = nanosPerPacket;
+        this.nanosPerByte = nanosPerByte;
+    }
+
+    public static Pacer unlimited() {
+        return new Pacer(0, 0);
+    }
+
+    public static Pacer packetsPerSecond(double packets) {
+        return new Pacer(1e9 / packets, 0);
+    }
+
+    public static Pacer megabitsPerSecond(double megabits) {
+        return new Pacer(0, 8e9 / (megabits * 1e6));
+    }
+
+    public boolean isUnlimited() {
+        return nanosPerPacket == 0 && nanosPerByte == 0;
+    }
+
+    /** Waits until a datagram of {@code bytes} may go out. */
+    public void acquire(int bytes) {
+        if (isUnlimited()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (due == 0 || now - due > MAX_BURST_NANOS) {
+            due = now;
+        }
+        long wait = due - now;
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        due += (long) (nanosPerPacket + nanosPerByte * bytes);
+    }
+
+    @Override
+    public String toString() {
+        if (isUnlimited()) {
+            return "unlimited";
+        }
+        return nanosPerPacket > 0 ? String.format("%.0f packets/s", 1e9 / nanosPerPacket)
+                : String.format("%.1f Mbit/s", 8e3 / nanosPerByte);
+    }
+}
@@ -0,0 +1,38 @@
+package tp_multithreading_sockets.udp;
+
+/**
+ * Wire format of the reliable layer ({@link ReliableSender}, {@link ReliableReceiver}).
+ *
+ * DATA: type(1) flags(1) seq(4) payload
+ * - one fragment of a message; fragments of a message have consecutive sequence numbers and the
+ *   last one carries {@link #LAST_FRAGMENT}, so in-order delivery is enough to reassemble
+ * - {@link #IN_ORDER}: every earlier packet was acknowledged when this one went out, so a receiver
+ *   that has no stream for the sender (new, or dropped while idle) can start at this sequence
+ *
+ * ACK: type(1) cumulative(4) sack(8) window(4)
+ * - cumulative: the next sequence number the receiver expects (everything before it arrived)
+ * - sack: bit i set means cumulative + 1 + i arrived too (selective acknowledgement)
+ * - window: how many packets past cumulative the receiver can still buffer (may be 0)
+ *
+ * Sequence numbers are ints compared by subtraction, so they may wrap.
+ */
+final class ReliableProtocol {
+    static final byte DATA = 1;
+    static final byte ACK = 2;
+    static final byte LAST_FRAGMENT = 1;
+    static final byte IN_ORDER = 2;
+
+    static final int DATA_HEADER = 6;
+    static final int ACK_SIZE = 17;
+    static final int SACK_BITS = 64;
+
+    /** Stays under a 1280 byte IPv6 minimum MTU with room for IP and UDP headers. */
+    static final int MAX_DATAGRAM = 1200;
+    static final int MAX_FRAGMENT = MAX_DATAGRAM - DATA_HEADER;
+
+    /** Largest message the receiver reassembles. */
+    static final int MAX_MESSAGE = 16 * 1024 * 1024;
+
+    private ReliableProtocol() {
+    }
+}
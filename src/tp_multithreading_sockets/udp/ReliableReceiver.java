@@ -0,0 +1,270 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Receiving end of the reliable layer: puts each sender's packets back in order, reassembles
+ * fragmented messages and hands whole messages to {@code handler}, in the order they were sent.
+ *
+ * Every DATA packet is acknowledged with the cumulative sequence number and a selective
+ * acknowledgement bitmap of the next 64, so the sender knows exactly which packets to resend.
+ * Packets up to {@link #WINDOW} ahead of the next expected one are buffered; packets beyond that
+ * are dropped (the sender never has that many in flight). The ACK advertises how much of that
+ * window is still free.
+ *
+ * One stream per sender address, starting at sequence 0, or at the first packet marked
+ * {@link ReliableProtocol#IN_ORDER}. At most {@link #MAX_STREAMS} senders are tracked: a stream is
+ * dropped after {@link #STREAM_IDLE_NANOS} of silence, or shortly after {@link #endStream}, and
+ * packets from new senders are refused while all slots are taken. The handler runs on the
+ * receive thread.
+ */
+public final class ReliableReceiver implements Closeable {
+    static final int WINDOW = 1024;
+    static final int MAX_STREAMS = 1024;
+    static final long STREAM_IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    /** An ended stream still acknowledges late retransmissions this long. */
+    static final long ENDED_LINGER_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long SWEEP_MILLIS = 1000;
+    /** A reassembly buffer grown past this is released once its message is handed out. */
+    private static final int KEPT_MESSAGE_BUFFER = 64 * 1024;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final BiConsumer<SocketAddress, byte[]> handler;
+    private final LossSimulator loss;
+    private final Map<SocketAddress, Stream> streams = new HashMap<>();
+    private final ByteBuffer in = ByteBuffer.allocateDirect(ReliableProtocol.MAX_DATAGRAM * 2);
+    private final ByteBuffer ack = ByteBuffer.allocateDirect(ReliableProtocol.ACK_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile long duplicates;
+    private volatile long refused;
+    private long nextSweep;
+
+    public ReliableReceiver(int port, BiConsumer<SocketAddress, byte[]> handler) throws IOException {
+        this(port, handler, LossSimulator.NONE);
+    }
+
+    /** {@code loss} applies to the acknowledgements this receiver sends. */
+    public ReliableReceiver(int port, BiConsumer<SocketAddress, byte[]> handler, LossSimulator loss) throws IOException {
+        this.handler = handler;
+        this.loss = loss;
+        this.channel = DatagramChannel.open();
+        this.selector = Selector.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, ChannelReceiver.DEFAULT_RECEIVE_BUFFER);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        this.thread = Thread.ofPlatform().name("reliable-recv").daemon().unstarted(this::receiveLoop);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /** DATA packets that had already arrived (retransmissions the sender did not need to make). */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /** DATA packets dropped because {@link #MAX_STREAMS} other senders were being tracked. */
+    public long getRefused() {
+        return refused;
+    }
+
+    /**
+     * Tells the receiver that {@code sender} is done (it said "bye"), so its stream can be
+     * dropped without waiting for the idle timeout. Call it from the handler.
+     */
+    public void endStream(SocketAddress sender) {
+        Stream stream = streams.get(sender);
+        if (stream != null) {
+            stream.ended = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void receiveLoop() {
+        try {
+            while (running) {
+                if (!streams.isEmpty() && System.nanoTime() - nextSweep >= 0) {
+                    dropIdleStreams();
+                }
+                // Held back acks (loss simulation) go out after a millisecond of silence
+                if (selector.select(loss.hasHeld() ? 1 : streams.isEmpty() ? 0 : SWEEP_MILLIS) == 0) {
+                    loss.flush(channel);
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                SocketAddress sender;
+                while (true) {
+                    in.clear();
+                    if ((sender = channel.receive(in)) == null) {
+                        break;
+                    }
+                    in.flip();
+                    if (in.remaining() >= ReliableProtocol.DATA_HEADER && in.get(0) == ReliableProtocol.DATA) {
+                        onData(sender);
+                    }
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            // closed
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Reliable receive error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void dropIdleStreams() {
+        long now = System.nanoTime();
+        streams.values().removeIf(stream -> now - stream.lastActivity > (stream.ended ? ENDED_LINGER_NANOS : STREAM_IDLE_NANOS));
+        nextSweep = now + TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS);
+    }
+
+    private void onData(SocketAddress sender) throws IOException {
+        byte flags = in.get(1);
+        int seq = in.getInt(2);
+        boolean inOrder = (flags & ReliableProtocol.IN_ORDER) != 0;
+        Stream stream = streams.get(sender);
+        if (stream == null) {
+            if (streams.size() >= MAX_STREAMS) {
+                dropIdleStreams();
+            }
+            if (streams.size() >= MAX_STREAMS) {
+                refused++;
+                return;
+            }
+            stream = new Stream(inOrder ? seq : 0);
+            streams.put(sender, stream);
+        } else if (inOrder && seq != stream.start && stream.expected == stream.start && stream.contiguous == stream.start) {
+            // The packet that opened this stream was not its first: the sender resumed after we had dropped it
+            stream.restart(seq);
+        }
+        stream.lastActivity = System.nanoTime();
+        int ahead = seq - stream.expected;
+        if (seq - stream.contiguous < 0 || (ahead < WINDOW && stream.payloads[seq & (WINDOW - 1)] != null)) {
+            duplicates++;
+        } else if (ahead < WINDOW) {
+            byte[] payload = new byte[in.remaining() - ReliableProtocol.DATA_HEADER];
+            in.get(ReliableProtocol.DATA_HEADER, payload);
+            stream.payloads[seq & (WINDOW - 1)] = payload;
+            stream.flags[seq & (WINDOW - 1)] = flags;
+            while (stream.payloads[stream.contiguous & (WINDOW - 1)] != null && stream.contiguous - stream.expected < WINDOW) {
+                stream.contiguous++;
+            }
+        }
+        // Acknowledge before the handler runs: a slow handler (or one that closes the receiver) must not hold it back
+        sendAck(stream, sender);
+        stream.deliver(sender);
+        if (stream.advertised < WINDOW / 2) {
+            sendAck(stream, sender);                // window update, or the sender may wait on a window we no longer need
+        }
+    }
+
+    private void sendAck(Stream stream, SocketAddress sender) throws IOException {
+        long sack = 0;
+        for (int i = 0; i < ReliableProtocol.SACK_BITS; i++) {
+            int seq = stream.contiguous + 1 + i;
+            if (seq - stream.expected < WINDOW && stream.payloads[seq & (WINDOW - 1)] != null) {
+                sack |= 1L << i;
+            }
+        }
+        ack.clear();
+        stream.advertised = stream.expected + WINDOW - stream.contiguous;
+        ack.put(ReliableProtocol.ACK).putInt(stream.contiguous).putLong(sack).putInt(stream.advertised);
+        ack.flip();
+        loss.send(channel, ack, sender);
+    }
+
+
+    /**
+     * One sender's packets: a ring of WINDOW slots past {@code expected}, and the message being
+     * reassembled. Packets from expected to contiguous arrived and wait to be handed out.
+     */
+    private class Stream {
+        final byte[][] payloads = new byte[WINDOW][];
+        final byte[] flags = new byte[WINDOW];
+        int start;
+        int expected;
+        int contiguous;
+        int advertised = WINDOW;
+        byte[] message = new byte[ReliableProtocol.MAX_FRAGMENT];
+        int messageLength;                  // -1 while skipping an oversized message
+        long lastActivity;
+        boolean ended;
+
+        Stream(int start) {
+            restart(start);
+        }
+
+        void restart(int seq) {
+            Arrays.fill(payloads, null);
+            start = seq;
+            expected = seq;
+            contiguous = seq;
+            messageLength = 0;
+        }
+
+        void deliver(SocketAddress sender) {
+            while (expected != contiguous) {
+                int slot = expected & (WINDOW - 1);
+                byte[] payload = payloads[slot];
+                payloads[slot] = null;
+                expected++;
+                boolean last = (flags[slot] & ReliableProtocol.LAST_FRAGMENT) != 0;
+                if (messageLength + payload.length > ReliableProtocol.MAX_MESSAGE) {
+                    // Keep the stream going, but skip the rest of the oversized message
+                    messageLength = -1;
+                }
+                if (messageLength >= 0) {
+                    if (messageLength + payload.length > message.length) {
+                        message = Arrays.copyOf(message, Math.max(message.length * 2, messageLength + payload.length));
+                    }
+                    System.arraycopy(payload, 0, message, messageLength, payload.length);
+                    messageLength += payload.length;
+                    if (last) {
+                        handler.accept(sender, Arrays.copyOf(message, messageLength));
+                    }
+                }
+                if (last) {
+                    messageLength = 0;
+                    if (message.length > KEPT_MESSAGE_BUFFER) {
+                        message = new byte[ReliableProtocol.MAX_FRAGMENT];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Sending end of the reliable layer: messages of any size arrive at the {@link ReliableReceiver}
+ * whole, once and in order, over plain UDP.
+ *
+ * - {@link #send} splits a message into fragments of at most {@link ReliableProtocol#MAX_FRAGMENT}
+ *   bytes and queues them; it blocks while the queue is full, which is the backpressure
+ * - an I/O thread sends packets while the number in flight is below the congestion window and
+ *   the receiver's window, and spaces them out at about cwnd / RTT (pacing) instead of in bursts
+ * - selective acks tell it exactly what arrived; a packet is declared lost once
+ *   {@link #DUP_THRESHOLD} packets sent after it have been acknowledged (fast retransmit), or when
+ *   the oldest one has waited longer than the retransmission timeout
+ * - the window grows by one per ack until the first loss (slow start), then by one per window;
+ *   a loss halves it, at most once per window of data, and a timeout drops it to 2 (as TCP Reno)
+ *
+ * After {@link #MAX_BACKOFFS} timeouts in a row with no progress, the target is considered gone
+ * and {@link #send} and {@link #flush} throw.
+ */
+public final class ReliableSender implements Closeable {
+    static final int MAX_WINDOW = ReliableReceiver.WINDOW;
+    static final int INITIAL_WINDOW = 10;
+    static final int DUP_THRESHOLD = 3;
+    static final int MAX_BACKOFFS = 10;
+    static final int PACING_BURST = 4;
+    static final double PACING_GAIN = 1.25;
+    static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int OUTBOX_PACKETS = 4096;
+    private static final long ONE_MILLI_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SocketAddress target;
+    private final LossSimulator loss;
+    private final BlockingQueue<Packet> outbox = new ArrayBlockingQueue<>(OUTBOX_PACKETS);
+    private final Object progress = new Object();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+    private volatile IOException failure;
+    private volatile int acked;                 // every sequence number below this is acknowledged
+    private int assigned;                       // next sequence number for send(), guarded by this
+
+    // I/O thread only
+    private final Packet[] inflight = new Packet[MAX_WINDOW];
+    private final ArrayDeque<Packet> lost = new ArrayDeque<>();
+    private final ByteBuffer out = ByteBuffer.allocateDirect(ReliableProtocol.MAX_DATAGRAM);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(64);
+    private int base;
+    private int nextSeq;
+    private int sackedCount;
+    private int lostCount;
+    private long transmissions;
+    private long highestAckedTx = -1;
+    private long lossScanTx = -1;
+    private double ssthresh = MAX_WINDOW;
+    private int peerWindow = MAX_WINDOW;
+    private int recoveryPoint;
+    private long srtt;
+    private long rttvar;
+    private long rto = INITIAL_RTO_NANOS;
+    private int backoffs;
+    private long lastAckAt;
+    private long nextSendTime;
+
+    private volatile double cwnd = INITIAL_WINDOW;
+    private volatile long packetsSent;
+    private volatile long retransmissions;
+    private volatile long timeouts;
+
+    public ReliableSender(SocketAddress target) throws IOException {
+        this(target, LossSimulator.NONE);
+    }
+
+    /** {@code loss} applies to the data packets this sender sends. */
+    public ReliableSender(SocketAddress target, LossSimulator loss) throws IOException {
+        this.target = target;
+        this.loss = loss;
+        this.channel = DatagramChannel.open();
+        this.selector = Selector.open();
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, ChannelReceiver.DEFAULT_RECEIVE_BUFFER);
+        channel.connect(target);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        this.thread = Thread.ofPlatform().name("reliable-send").daemon().start(this::ioLoop);
+    }
+
+    /** Queues {@code message}; blocks while too much is waiting to be sent. */
+    public synchronized void send(byte[] message) throws IOException {
+        int offset = 0;
+        do {
+            int length = Math.min(ReliableProtocol.MAX_FRAGMENT, message.length - offset);
+            boolean last = offset + length == message.length;
+            byte[] datagram = new byte[ReliableProtocol.DATA_HEADER + length];
+            ByteBuffer.wrap(datagram).put(ReliableProtocol.DATA).put(last ? ReliableProtocol.LAST_FRAGMENT : 0)
+                    .putInt(assigned).put(message, offset, length);
+            Packet packet = new Packet(assigned, datagram);
+            try {
+                while (!outbox.offer(packet, 100, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing a message");
+            }
+            assigned++;
+            offset += length;
+            if (idle) {
+                selector.wakeup();
+            }
+        } while (offset < message.length);
+    }
+
+    /** Waits until everything sent so far has been acknowledged. */
+    public synchronized void flush() throws IOException {
+        synchronized (progress) {
+            while (acked - assigned < 0) {
+                checkFailure();
+                try {
+                    progress.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing");
+                }
+            }
+        }
+    }
+
+    /** Stops without waiting for acknowledgements; call {@link #flush} first to deliver everything. */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+            selector.close();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public double getCongestionWindow() {
+        return cwnd;
+    }
+
+    public long getSmoothedRttMicros() {
+        return srtt / 1000;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+    }
+
+    private void ioLoop() {
+        try {
+            while (running) {
+                readAcks();
+                long now = System.nanoTime();
+                detectLosses();
+                if (!checkTimeout(now)) {
+                    return;
+                }
+                long wait = sendWhatWeCan(now);
+                if (wait > 0 && wait < ONE_MILLI_NANOS) {
+                    LockSupport.parkNanos(wait);    // pacing gap shorter than select can time
+                    continue;
+                }
+                // Nothing can go out until an ack, a new message, the pacing deadline or the retransmission timeout
+                long timeoutNanos = wait > 0 ? wait : Long.MAX_VALUE;
+                if (base != nextSeq) {
+                    timeoutNanos = Math.min(timeoutNanos, timerStart() + rto - now);
+                }
+                long timeoutMillis = 0;
+                if (timeoutNanos != Long.MAX_VALUE) {
+                    timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + 1);
+                }
+                if (loss.hasHeld()) {
+                    timeoutMillis = 1;
+                }
+                idle = true;
+                if (wait > 0 || !canSendNew() || !congestionWindowOpen()) {
+                    if (selector.select(timeoutMillis) == 0 && loss.hasHeld()) {
+                        loss.flush(channel);
+                    }
+                    selector.selectedKeys().clear();
+                }
+                idle = false;
+            }
+        } catch (IOException e) {
+            if (running) {
+                fail(e);
+            }
+        }
+    }
+
+    private void readAcks() throws IOException {
+        while (true) {
+            in.clear();
+            try {
+                if (channel.receive(in) == null) {
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                continue;                           // nobody listening yet: same as a lost packet
+            }
+            in.flip();
+            if (in.remaining() >= ReliableProtocol.ACK_SIZE && in.get(0) == ReliableProtocol.ACK) {
+                onAck(in.getInt(1), in.getLong(5), in.getInt(13));
+            }
+        }
+    }
+
+    private void onAck(int cumulative, long sack, int window) {
+        long now = System.nanoTime();
+        peerWindow = window;
+        if (cumulative - base > 0 && cumulative - nextSeq <= 0) {
+            while (base != cumulative) {
+                Packet packet = inflight[base & (MAX_WINDOW - 1)];
+                inflight[base & (MAX_WINDOW - 1)] = null;
+                if (packet.sacked) {
+                    sackedCount--;
+                } else {
+                    acknowledge(packet, now);
+                }
+                base++;
+            }
+            backoffs = 0;
+            acked = base;
+            synchronized (progress) {
+                progress.notifyAll();
+            }
+        }
+        for (int i = 0; sack != 0 && i < ReliableProtocol.SACK_BITS; i++) {
+            int seq = cumulative + 1 + i;
+            if ((sack & (1L << i)) != 0 && seq - base >= 0 && seq - nextSeq < 0) {
+                Packet packet = inflight[seq & (MAX_WINDOW - 1)];
+                if (!packet.sacked) {
+                    packet.sacked = true;
+                    sackedCount++;
+                    acknowledge(packet, now);
+                }
+            }
+        }
+    }
+
+    private void acknowledge(Packet packet, long now) {
+        lastAckAt = now;
+        if (packet.transmissions == 1) {
+            sampleRtt(now - packet.sentAt);         // Karn: never time a retransmitted packet
+        }
+        highestAckedTx = Math.max(highestAckedTx, packet.tx);
+        if (packet.lost) {
+            packet.lost = false;                    // a late copy got through; no need to resend
+            lostCount--;
+        }
+        if (base - recoveryPoint >= 0) {
+            cwnd = Math.min(MAX_WINDOW, cwnd < ssthresh ? cwnd + 1 : cwnd + 1 / cwnd);
+        }
+    }
+
+    private void sampleRtt(long sample) {
+        if (srtt == 0) {
+            srtt = sample;
+            rttvar = sample / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - sample)) / 4;
+            srtt = (7 * srtt + sample) / 8;
+        }
+        rto = Math.min(MAX_RTO_NANOS, Math.max(MIN_RTO_NANOS, srtt + 4 * rttvar));
+    }
+
+    /** Fast retransmit: lost if DUP_THRESHOLD packets sent later were acknowledged. */
+    private void detectLosses() {
+        if (highestAckedTx == lossScanTx) {
+            return;
+        }
+        lossScanTx = highestAckedTx;
+        for (int seq = base; seq != nextSeq; seq++) {
+            Packet packet = inflight[seq & (MAX_WINDOW - 1)];
+            if (highestAckedTx - packet.tx < DUP_THRESHOLD) {
+                if (packet.transmissions == 1) {
+                    break;                          // every later packet was sent later still
+                }
+                continue;
+            }
+            if (!packet.sacked && !packet.lost) {
+                markLost(packet);
+                if (base - recoveryPoint >= 0) {
+                    ssthresh = Math.max(cwnd / 2, 2);
+                    cwnd = ssthresh;
+                    recoveryPoint = nextSeq;        // one reduction per window of data
+                }
+            }
+        }
+    }
+
+    /** Returns false if the target stopped answering. */
+    private boolean checkTimeout(long now) {
+        if (base == nextSeq) {
+            return true;
+        }
+        if (now - timerStart() < rto) {
+            return true;
+        }
+        timeouts++;
+        lastAckAt = now;
+        if (++backoffs > MAX_BACKOFFS) {
+            fail(new IOException("No acknowledgement from " + target + " after " + MAX_BACKOFFS + " retries"));
+            return false;
+        }
+        ssthresh = Math.max((nextSeq - base) / 2.0, 2);
+        cwnd = 2;
+        rto = Math.min(MAX_RTO_NANOS, rto * 2);
+        recoveryPoint = nextSeq;
+        for (int seq = base; seq != nextSeq; seq++) {
+            Packet packet = inflight[seq & (MAX_WINDOW - 1)];
+            if (!packet.sacked && !packet.lost) {
+                markLost(packet);
+            }
+        }
+        return true;
+    }
+
+    /** The timer runs from the last acknowledgement, or from when the oldest packet went out if that is later. */
+    private long timerStart() {
+        return Math.max(lastAckAt, inflight[base & (MAX_WINDOW - 1)].sentAt);
+    }
+
+    private void markLost(Packet packet) {
+        packet.lost = true;
+        lostCount++;
+        lost.add(packet);
+    }
+
+    /** Sends while the windows allow; returns how long until pacing allows the next one, or 0. */
+    private long sendWhatWeCan(long now) throws IOException {
+        while (true) {
+            Packet packet = nextRetransmission();
+            boolean retransmit = packet != null;
+            if (!retransmit) {
+                packet = canSendNew() ? outbox.peek() : null;
+            }
+            if (packet == null || !congestionWindowOpen()) {
+                return 0;
+            }
+            if (srtt > 0 && now < nextSendTime) {
+                return nextSendTime - now;
+            }
+            if (retransmit) {
+                lost.poll();
+                packet.lost = false;
+                lostCount--;
+                retransmissions++;
+            } else {
+                outbox.poll();
+                inflight[nextSeq & (MAX_WINDOW - 1)] = packet;
+                nextSeq++;
+            }
+            transmit(packet, now);
+            if (srtt > 0) {
+                long interval = (long) (srtt / (cwnd * PACING_GAIN));
+                nextSendTime = Math.max(nextSendTime, now - PACING_BURST * interval) + interval;
+            }
+        }
+    }
+
+    private Packet nextRetransmission() {
+        Packet packet;
+        while ((packet = lost.peek()) != null) {
+            if (packet.lost && packet.seq - base >= 0) {
+                return packet;
+            }
+            lost.poll();                            // acknowledged meanwhile
+        }
+        return null;
+    }
+
+    private boolean congestionWindowOpen() {
+        return (nextSeq - base) - sackedCount - lostCount < cwnd;
+    }
+
+    /** With nothing in flight one packet may go even into a closed window, to learn when it opens. */
+    private boolean canSendNew() {
+        return !outbox.isEmpty() && nextSeq - base < Math.max(1, Math.min(peerWindow, MAX_WINDOW));
+    }
+
+    private void transmit(Packet packet, long now) throws IOException {
+        packet.transmissions++;
+        packet.sentAt = now;
+        packet.tx = transmissions++;
+        if (packet.seq == base) {
+            packet.datagram[1] |= ReliableProtocol.IN_ORDER;
+        } else {
+            packet.datagram[1] &= ~ReliableProtocol.IN_ORDER;
+        }
+        out.clear();
+        out.put(packet.datagram).flip();
+        loss.send(channel, out, target);
+        packetsSent++;
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+
+    private static class Packet {
+        final int seq;
+        final byte[] datagram;
+        long sentAt;
+        long tx;                                    // order of the latest transmission, for loss detection
+        int transmissions;
+        boolean sacked;
+        boolean lost;
+
+        Packet(int seq, byte[] datagram) {
+            this.seq = seq;
+            this.datagram = datagram;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package tp_multithreading_sockets.udp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Goodput of the reliable layer against loss: sends a fixed amount of data as messages larger
+ * than one datagram (so they are fragmented) through {@link LossSimulator}s on both directions,
+ * data and acks, at increasing loss rates, and checks that every message arrives whole and in
+ * order.
+ *
+ * Each message starts with its index and is filled with a byte derived from it, so a message
+ * arriving twice, out of order or mangled shows up as an error.
+ *
+ * Usage: java ReliableUdpBenchmark [megabytes=20] [messageBytes=4000] [reorderPercent=1]
+ */
+public class ReliableUdpBenchmark {
+    private static final double[] LOSS_PERCENT = {0, 0.1, 1, 2, 5, 10};
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length >= 1 ? Integer.parseInt(args[0]) : 20;
+        int messageBytes = args.length >= 2 ? Integer.parseInt(args[1]) : 4000;
+        double reorderPercent = args.length >= 3 ? Double.parseDouble(args[2]) : 1;
+
+        run(0, reorderPercent, megabytes, messageBytes);     // warm-up
+        for (double lossPercent : LOSS_PERCENT) {
+            System.out.println(run(lossPercent, reorderPercent, megabytes, messageBytes));
+        }
+        System.exit(0);
+    }
+
+    private static String run(double lossPercent, double reorderPercent, int megabytes, int messageBytes)
+            throws Exception {
+        int messages = (int) ((long) megabytes * 1024 * 1024 / messageBytes);
+        LossSimulator dataLoss = new LossSimulator(lossPercent / 100, reorderPercent / 100, 1);
+        LossSimulator ackLoss = new LossSimulator(lossPercent / 100, reorderPercent / 100, 2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong delivered = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+
+        try (ReliableReceiver receiver = new ReliableReceiver(0, (sender, message) -> {
+            long index = delivered.getAndIncrement();
+            if (!isMessage(message, index, messageBytes)) {
+                errors.incrementAndGet();
+            }
+            if (index + 1 == messages) {
+                done.countDown();
+            }
+        }, ackLoss)) {
+            receiver.start();
+            long start = System.nanoTime();
+            double elapsed;
+            String senderStats;
+            try (ReliableSender sender = new ReliableSender(new InetSocketAddress("127.0.0.1", receiver.getPort()), dataLoss)) {
+                for (int i = 0; i < messages; i++) {
+                    sender.send(message(i, messageBytes));
+                }
+                sender.flush();
+                done.await();
+                elapsed = (System.nanoTime() - start) / 1e9;
+                senderStats = String.format("packets=%d retransmissions=%d (%.1f%%) timeouts=%d final_cwnd=%.0f srtt_us=%d",
+                        sender.getPacketsSent(), sender.getRetransmissions(),
+                        100.0 * sender.getRetransmissions() / Math.max(1, sender.getPacketsSent()),
+                        sender.getTimeouts(), sender.getCongestionWindow(), sender.getSmoothedRttMicros());
+            }
+            long bytes = (long) messages * messageBytes;
+            return String.format("loss=%.1f%% reorder=%.1f%% messages=%d goodput_mbit_s=%.1f seconds=%.2f %s "
+                            + "duplicates_received=%d dropped_by_simulator=%d errors=%d",
+                    lossPercent, reorderPercent, delivered.get(), bytes * 8 / elapsed / 1e6, elapsed, senderStats,
+                    receiver.getDuplicates(), dataLoss.getDropped() + ackLoss.getDropped(), errors.get());
+        }
+    }
+
+    private static byte[] message(long index, int size) {
+        byte[] message = new byte[size];
+        ByteBuffer.wrap(message).putLong(index);
+        for (int i = Long.BYTES; i < size; i++) {
+            message[i] = (byte) (index + i);
+        }
+        return message;
+    }
+
+    private static boolean isMessage(byte[] message, long index, int size) {
+        if (message.length != size || ByteBuffer.wrap(message).getLong() != index) {
+            return false;
+        }
+        for (int i = Long.BYTES; i < size; i++) {
+            if (message[i] != (byte) (index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package tp_multithreading_sockets.udp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * Each side owns one counter and only reads the other's: the producer publishes a slot with an
+ * ordered store of {@code tail}, the consumer frees it with an ordered store of {@code head}.
+ * Each side also caches the last value it saw of the other counter, so it only touches the
+ * other side's cache line when the ring looks full (or empty).
+ *
+ * An ordered store may still be reordered with a later load. A producer that publishes and then
+ * checks whether the consumer went to sleep (or the other way round) needs a full fence in
+ * between, once per batch rather than once per element.
+ */
+final class SpscRing<E> {
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();   // next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong();   // next slot to write, written by the producer
+    private long producerHead;
+    private long consumerTail;
+
+    /** {@code capacity} is rounded up to a power of two. */
+    SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /** Producer side: returns false if the ring is full. */
+    boolean offer(E element) {
+        long t = tail.get();
+        if (t - producerHead == slots.length) {
+            producerHead = head.get();
+            if (t - producerHead == slots.length) {
+                return false;
+            }
+        }
+        slots[(int) t & mask] = element;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /** Consumer side: returns null if the ring is empty. */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head.get();
+        if (h == consumerTail) {
+            consumerTail = tail.get();
+            if (h == consumerTail) {
+                return null;
+            }
+        }
+        int index = (int) h & mask;
+        E element = (E) slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /** Either side: a snapshot, exact only when both are idle. */
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
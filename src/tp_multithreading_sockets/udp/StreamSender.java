@@ -0,0 +1,136 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Non-interactive sender for streams of small messages: messages are written one after the
+ * other, each followed by '\n', into one reused direct buffer, which goes out as a single
+ * datagram when the next message does not fit. With coalescing off every message is its own
+ * datagram (still from the same buffer).
+ *
+ * Newline framing keeps the datagrams readable by the plain {@link UDPReceiver}, which prints
+ * one datagram as a block of lines. A message longer than a datagram is split over several.
+ *
+ * The channel is connected once, so nothing is resolved or checked per send, and every datagram
+ * waits for the {@link Pacer} first.
+ */
+public final class StreamSender implements Closeable {
+    /** 1500 byte Ethernet MTU minus 20 bytes of IPv4 header and 8 of UDP header: no IP fragmentation. */
+    public static final int DEFAULT_DATAGRAM = 1472;
+
+    private final DatagramChannel channel;
+    private final ByteBuffer datagram;
+    private final Pacer pacer;
+    private final boolean coalesce;
+    private long messages;
+    private long datagrams;
+    private long bytes;
+
+    public StreamSender(SocketAddress target, int datagramSize, Pacer pacer, boolean coalesce) throws IOException {
+        this(DatagramChannel.open(), target, datagramSize, pacer, coalesce);
+    }
+
+    /** Sends through {@code channel}, already set up by the caller (for example for multicast). */
+    public StreamSender(DatagramChannel channel, SocketAddress target, int datagramSize, Pacer pacer, boolean coalesce)
+            throws IOException {
+        this.channel = channel;
+        channel.connect(target);
+        this.datagram = ByteBuffer.allocateDirect(datagramSize);
+        this.pacer = pacer;
+        this.coalesce = coalesce;
+    }
+
+    /** Queues the remaining bytes of {@code message} (without its newline); the buffer is not kept. */
+    public void send(ByteBuffer message) throws IOException {
+        int length = message.remaining();
+        if (datagram.position() > 0 && (!coalesce || datagram.remaining() < length + 1)) {
+            flush();
+        }
+        while (message.remaining() >= datagram.remaining()) {
+            // Longer than what is left of an empty datagram: fill it and carry on in the next one
+            int limit = message.limit();
+            message.limit(message.position() + datagram.remaining());
+            datagram.put(message);
+            message.limit(limit);
+            flush();
+        }
+        datagram.put(message).put((byte) '\n');
+        messages++;
+        if (!coalesce) {
+            flush();
+        }
+    }
+
+    /** Sends every line of {@code file} as a message, reading it through one reused buffer. */
+    public void sendLines(Path file) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        ByteBuffer line = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(chunk) >= 0) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    byte b = chunk.get();
+                    if (b == '\n') {
+                        line.flip();
+                        send(line);
+                        line.clear();
+                    } else if (b != '\r') {
+                        if (!line.hasRemaining()) {
+                            line.flip();
+                            send(line);             // very long line: sent as two messages
+                            line.clear();
+                        }
+                        line.put(b);
+                    }
+                }
+                chunk.clear();
+            }
+        }
+        if (line.position() > 0) {
+            line.flip();
+            send(line);
+        }
+    }
+
+    /** Sends the datagram being filled, if there is one. */
+    public void flush() throws IOException {
+        if (datagram.position() == 0) {
+            return;
+        }
+        datagram.flip();
+        pacer.acquire(datagram.remaining());
+        bytes += datagram.remaining();
+        channel.write(datagram);
+        datagrams++;
+        datagram.clear();
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
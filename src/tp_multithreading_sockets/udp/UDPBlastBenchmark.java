@@ -0,0 +1,239 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Localhost blast: sender threads write fixed-size datagrams to the receiver as fast as they can
+ * for a few seconds, then the receiver gets a moment to drain. Two receivers:
+ * - classic: the {@link UDPReceiver} loop, a new DatagramPacket and String per datagram and a
+ *   println (to a null stream, so the console does not set the pace)
+ * - channel: {@link ChannelReceiver}, with a handler that only looks at the first byte
+ *
+ * Reports datagrams sent and received per second, drops (in the kernel, when the socket buffer
+ * overflows, and in the receiver, when its worker falls behind), the CPU time and bytes allocated
+ * per datagram by the receiving threads, and garbage collections during the run. Both receivers
+ * ask for the same SO_RCVBUF.
+ *
+ * Usage: java UDPBlastBenchmark [seconds=5] [receivers=1] [payloadBytes=64] [senders=1]
+ */
+public class UDPBlastBenchmark {
+    private static final String HOST = "127.0.0.1";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length >= 1 ? Integer.parseInt(args[0]) : 5;
+        int receivers = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+        int payloadBytes = args.length >= 3 ? Integer.parseInt(args[2]) : 64;
+        int senders = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        // Warm-up pass, then the measured one
+        for (int pass = 0; pass < 2; pass++) {
+            for (String mode : new String[] {"classic", "channel"}) {
+                String line = run(mode, pass == 0 ? 1 : seconds, receivers, payloadBytes, senders);
+                if (pass == 1) {
+                    console.println(line);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static String run(String mode, int seconds, int receivers, int payloadBytes, int senders)
+            throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LongAdder sink = new LongAdder();
+        List<Thread> receiveThreads;
+        int[] ports;
+        ChannelReceiver channelReceiver = null;
+        List<ClassicReceiver> classicReceivers = new ArrayList<>();
+
+        if (mode.equals("channel")) {
+            channelReceiver = new ChannelReceiver(new int[receivers], new DatagramHandler() {
+                @Override
+                public void onDatagram(ByteBuffer payload, SocketAddress sender, int port) {
+                    sink.add(payload.get(0));
+                }
+            });
+            channelReceiver.start();
+            receiveThreads = channelReceiver.getThreads();
+            ports = channelReceiver.getPorts();
+        } else {
+            receiveThreads = new ArrayList<>();
+            ports = new int[receivers];
+            for (int i = 0; i < receivers; i++) {
+                ClassicReceiver classic = new ClassicReceiver(i);
+                classicReceivers.add(classic);
+                receiveThreads.add(classic.thread);
+                ports[i] = classic.socket.getLocalPort();
+                classic.thread.start();
+            }
+        }
+
+        long rcvbufErrorsBefore = udpCounter("RcvbufErrors");
+        long gcBefore = gcCount();
+        long allocatedBefore = allocated(threadBean, receiveThreads);
+        long cpuBefore = cpu(threadBean, receiveThreads);
+        LongAdder sent = new LongAdder();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Thread> blasters = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            int port = ports[s % ports.length];
+            blasters.add(Thread.ofPlatform().name("blaster-" + s).start(() -> blast(port, payloadBytes, deadline, sent)));
+        }
+        for (Thread blaster : blasters) {
+            blaster.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(300);                          // let the receiver drain its socket buffer
+
+        long received;
+        long dropped;
+        if (channelReceiver != null) {
+            received = channelReceiver.getReceived();
+            dropped = channelReceiver.getDropped();
+        } else {
+            received = 0;
+            for (ClassicReceiver classic : classicReceivers) {
+                received += classic.received.sum();
+            }
+            dropped = 0;
+        }
+        long allocatedBytes = allocated(threadBean, receiveThreads) - allocatedBefore;
+        long cpuNanos = cpu(threadBean, receiveThreads) - cpuBefore;
+        long gcs = gcCount() - gcBefore;
+        long rcvbufErrors = udpCounter("RcvbufErrors") - rcvbufErrorsBefore;
+
+        if (channelReceiver != null) {
+            channelReceiver.close();
+            channelReceiver.join();
+        } else {
+            for (ClassicReceiver classic : classicReceivers) {
+                classic.socket.close();
+                classic.thread.join();
+            }
+        }
+
+        long sentCount = sent.sum();
+        return String.format("mode=%s receivers=%d payload=%d sent_per_sec=%.0f received_per_sec=%.0f "
+                        + "kernel_drops=%d (%.1f%%) receiver_drops=%d receiver_cpu_ns_per_datagram=%.0f "
+                        + "alloc_bytes_per_datagram=%.1f gc_count=%d%s",
+                mode, receivers, payloadBytes, sentCount / elapsed, received / elapsed,
+                sentCount - received, 100.0 * (sentCount - received) / Math.max(1, sentCount), dropped,
+                (double) cpuNanos / Math.max(1, received), (double) allocatedBytes / Math.max(1, received), gcs,
+                rcvbufErrors >= 0 ? " udp_rcvbuf_errors=" + rcvbufErrors : "");
+    }
+
+    /** Connected channel, one direct buffer written over and over: the sender allocates nothing. */
+    private static void blast(int port, int payloadBytes, long deadline, LongAdder sent) {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress(HOST, port));
+            ByteBuffer payload = ByteBuffer.allocateDirect(payloadBytes);
+            while (payload.hasRemaining()) {
+                payload.put((byte) 'x');
+            }
+            long count = 0;
+            while ((count & 255) != 0 || System.nanoTime() < deadline) {
+                payload.rewind();
+                channel.write(payload);
+                count++;
+            }
+            sent.add(count);
+        } catch (IOException e) {
+            System.err.println("Sender error: " + e.getMessage());
+        }
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threadBean, List<Thread> threads) {
+        long total = 0;
+        for (Thread thread : threads) {
+            total += Math.max(0, threadBean.getThreadAllocatedBytes(thread.threadId()));
+        }
+        return total;
+    }
+
+    private static long cpu(com.sun.management.ThreadMXBean threadBean, List<Thread> threads) {
+        long total = 0;
+        for (Thread thread : threads) {
+            total += Math.max(0, threadBean.getThreadCpuTime(thread.threadId()));
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    /** A counter from the Udp lines of /proc/net/snmp, or -1 off Linux. */
+    private static long udpCounter(String name) {
+        try {
+            List<String> lines = Files.readAllLines(Paths.get("/proc/net/snmp"));
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith("Udp:") && lines.get(i + 1).startsWith("Udp:")) {
+                    String[] names = lines.get(i).split(" ");
+                    String[] values = lines.get(i + 1).split(" ");
+                    for (int j = 0; j < names.length && j < values.length; j++) {
+                        if (names[j].equals(name)) {
+                            return Long.parseLong(values[j]);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not available on this system
+        }
+        return -1;
+    }
+
+
+    /** The UDPReceiver loop on one port. */
+    private static class ClassicReceiver {
+        final DatagramSocket socket;
+        final Thread thread;
+        final LongAdder received = new LongAdder();
+
+        ClassicReceiver(int index) throws IOException {
+            this.socket = new DatagramSocket(0);
+            socket.setReceiveBufferSize(ChannelReceiver.DEFAULT_RECEIVE_BUFFER);
+            this.thread = Thread.ofPlatform().name("udp-classic-" + index).daemon().unstarted(this::receiveLoop);
+        }
+
+        private void receiveLoop() {
+            byte[] buffer = new byte[1024];
+            try {
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                    System.out.println("[" + packet.getAddress().getHostAddress() + ":" + packet.getPort() + "] " + message);
+                    received.increment();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+}
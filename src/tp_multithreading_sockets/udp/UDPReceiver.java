@@ -1,16 +1,58 @@
 package tp_multithreading_sockets.udp;
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
 
 public class UDPReceiver {
     private static final int PORT = 1234;
     private static final int BUFFER_SIZE = 1024;
 
+    private static final byte[] BYE = "bye".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Usage: java UDPReceiver [port]
+     *        java UDPReceiver --channel [port] [receivers=1]
+     *        java UDPReceiver --reliable [port]
+     *        java UDPReceiver --multicast <group[,group...]> [port] [interface]
+     *
+     * --channel uses {@link ChannelReceiver}: non-blocking channels on ports port .. port+receivers-1,
+     * one receive thread each, and printing on a separate worker thread.
+     * --reliable uses {@link ReliableReceiver}: messages of any length, in order, from a
+     * {@code UDPSender --reliable}.
+     * --multicast joins the groups with a {@link MulticastReceiver}; while it runs, typing
+     * "join <group> [source]", "leave <group>" or "groups" on the console manages the groups.
+     */
     public static void main(String[] args) {
+        if (args.length >= 1 && args[0].equals("--reliable")) {
+            receiveReliably(args.length >= 2 ? Integer.parseInt(args[1]) : PORT);
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("--multicast")) {
+            receiveMulticast(args[1].split(","), args.length >= 3 ? Integer.parseInt(args[2]) : PORT,
+                    args.length >= 4 ? args[3] : null);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--channel")) {
+            int port = args.length >= 2 ? Integer.parseInt(args[1]) : PORT;
+            int receivers = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+            receiveWithChannels(port, receivers);
+            return;
+        }
+
         int port = PORT;
         
         // Allow custom port via command line argument
@@ -55,5 +97,180 @@ public class UDPReceiver {
             e.printStackTrace();
         }
     }
-}
 
+    private static void receiveWithChannels(int firstPort, int receivers) {
+        int[] ports = new int[receivers];
+        for (int i = 0; i < receivers; i++) {
+            ports[i] = firstPort + i;
+        }
+        CountDownLatch bye = new CountDownLatch(1);
+        ConsolePrinter printer = new ConsolePrinter(bye);
+
+        try (ChannelReceiver receiver = new ChannelReceiver(ports, printer)) {
+            receiver.start();
+            System.out.println("📡 UDP Receiver started (non-blocking channels)");
+            System.out.println("Listening on port" + (receivers > 1 ? "s " + firstPort + "-" + (firstPort + receivers - 1) : " " + firstPort));
+            System.out.println("Send 'bye' to stop the receiver\n");
+            bye.await();
+            System.out.println("Terminating receiver...");
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static void receiveMulticast(String[] groups, int port, String interfaceName) {
+        CountDownLatch bye = new CountDownLatch(1);
+        try (MulticastReceiver receiver = new MulticastReceiver(port, MulticastReceiver.findInterface(interfaceName),
+                new ConsolePrinter(bye))) {
+            for (String group : groups) {
+                receiver.join(InetAddress.getByName(group));
+            }
+            receiver.start();
+            System.out.println("📡 UDP Receiver started (multicast)");
+            System.out.println("Listening on port " + port + " of " + receiver.getGroups()
+                    + " via " + receiver.getNetworkInterface().getName());
+            System.out.println("Commands: join <group> [source], leave <group>, groups, exit\n");
+
+            Thread console = Thread.ofPlatform().daemon().start(() -> manageGroups(receiver, bye));
+            bye.await();
+            console.interrupt();
+            System.out.println("Terminating receiver...");
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Console commands for the multicast receiver; "exit" stops it like a "bye" would. */
+    private static void manageGroups(MulticastReceiver receiver, CountDownLatch bye) {
+        Scanner scanner = new Scanner(System.in);
+        while (scanner.hasNextLine()) {
+            String[] words = scanner.nextLine().trim().split("\\s+");
+            try {
+                switch (words[0]) {
+                    case "join" -> {
+                        receiver.join(InetAddress.getByName(words[1]),
+                                words.length >= 3 ? InetAddress.getByName(words[2]) : null);
+                        System.out.println("Joined. Groups: " + receiver.getGroups());
+                    }
+                    case "leave" -> System.out.println((receiver.leave(InetAddress.getByName(words[1]))
+                            ? "Left. " : "Not a member. ") + "Groups: " + receiver.getGroups());
+                    case "groups" -> System.out.println("Groups: " + receiver.getGroups());
+                    case "exit" -> {
+                        bye.countDown();
+                        return;
+                    }
+                    case "" -> {
+                    }
+                    default -> System.out.println("Commands: join <group> [source], leave <group>, groups, exit");
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Cannot do that: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void receiveReliably(int port) {
+        CountDownLatch bye = new CountDownLatch(1);
+        try (ReliableReceiver receiver = new ReliableReceiver(port, (sender, bytes) -> {
+            String message = new String(bytes, StandardCharsets.UTF_8);
+            InetSocketAddress address = (InetSocketAddress) sender;
+            String from = address.getAddress().getHostAddress() + ":" + address.getPort();
+            if (message.equalsIgnoreCase("bye")) {
+                System.out.println("\n📨 Received 'bye' from " + from);
+                bye.countDown();
+            } else if (bye.getCount() > 0) {
+                System.out.println("[" + from + "] " + message);
+            }
+        })) {
+            receiver.start();
+            System.out.println("📡 UDP Receiver started (reliable, ordered)");
+            System.out.println("Listening on port " + port);
+            System.out.println("Send 'bye' to stop the receiver\n");
+            bye.await();
+            System.out.println("Terminating receiver...");
+        } catch (IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Prints on the worker thread without decoding: the payload bytes go to a buffered stdout as
+     * they are (the sender encodes UTF-8), and the output is flushed only when the worker runs out
+     * of datagrams.
+     */
+    private static class ConsolePrinter implements DatagramHandler {
+        private final OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+        private final byte[] copy = new byte[ChannelReceiver.DEFAULT_BUFFER_SIZE];
+        private final CountDownLatch bye;
+        private SocketAddress lastSender;
+        private byte[] lastPrefix;
+
+        ConsolePrinter(CountDownLatch bye) {
+            this.bye = bye;
+        }
+
+        @Override
+        public void onDatagram(ByteBuffer payload, SocketAddress sender, int port) {
+            int length = payload.remaining();
+            payload.get(copy, 0, length);
+            try {
+                if (bye.getCount() == 0) {
+                    return;
+                }
+                if (isBye(length)) {
+                    out.write(("\n📨 Received 'bye' from " + format(sender) + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    bye.countDown();
+                    return;
+                }
+                // The channel reuses the address object while the sender stays the same
+                if (sender != lastSender) {
+                    lastSender = sender;
+                    lastPrefix = ("[" + format(sender) + "] ").getBytes(StandardCharsets.UTF_8);
+                }
+                out.write(lastPrefix);
+                out.write(copy, 0, length);
+                out.write('\n');
+            } catch (IOException e) {
+                System.err.println("Output error: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onIdle() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // stdout is gone
+            }
+        }
+
+        private boolean isBye(int length) {
+            if (length != BYE.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (Character.toLowerCase(copy[i]) != BYE[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String format(SocketAddress sender) {
+            InetSocketAddress address = (InetSocketAddress) sender;
+            return address.getAddress().getHostAddress() + ":" + address.getPort();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package tp_multithreading_sockets.udp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Cost of sending small messages, measured on the sending thread:
+ * - classic: the {@link UDPSender} loop without the prompt, a new byte[] and DatagramPacket and
+ *   one send per message
+ * - stream: {@link StreamSender} with one message per datagram, from a reused buffer
+ * - coalesced: {@link StreamSender} packing messages into 1472-byte datagrams
+ * - paced: coalesced, held to a packet rate and to a bit rate, to see how close the pacer gets
+ *
+ * The target is a bound socket nobody reads, so only the sender's work is measured (the kernel
+ * drops what does not fit in its buffer).
+ *
+ * Usage: java UDPSendBenchmark [seconds=3] [messageBytes=64]
+ */
+public class UDPSendBenchmark {
+    private static final int BATCH = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length >= 1 ? Integer.parseInt(args[0]) : 3;
+        int messageBytes = args.length >= 2 ? Integer.parseInt(args[1]) : 64;
+
+        try (DatagramChannel sink = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            InetSocketAddress target = (InetSocketAddress) sink.getLocalAddress();
+            // Warm-up pass, then the measured one
+            for (int pass = 0; pass < 2; pass++) {
+                int runSeconds = pass == 0 ? 1 : seconds;
+                String[] lines = {
+                        runClassic(target, runSeconds, messageBytes),
+                        runStream("stream", target, runSeconds, messageBytes, Pacer.unlimited(), false),
+                        runStream("coalesced", target, runSeconds, messageBytes, Pacer.unlimited(), true),
+                        runStream("paced_20000pps", target, runSeconds, messageBytes, Pacer.packetsPerSecond(20_000), true),
+                        runStream("paced_100mbps", target, runSeconds, messageBytes, Pacer.megabitsPerSecond(100), true),
+                };
+                if (pass == 1) {
+                    for (String line : lines) {
+                        System.out.println(line);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String runClassic(InetSocketAddress target, int seconds, int messageBytes) throws IOException {
+        Meter meter = new Meter();
+        long messages = 0;
+        long bytes = 0;
+        String text = "message " + "x".repeat(Math.max(0, messageBytes - 8));
+        try (DatagramSocket socket = new DatagramSocket()) {
+            InetAddress address = target.getAddress();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < BATCH; i++) {
+                    byte[] data = text.getBytes(StandardCharsets.UTF_8);
+                    DatagramPacket packet = new DatagramPacket(data, data.length, address, target.getPort());
+                    socket.send(packet);
+                    bytes += data.length;
+                }
+                messages += BATCH;
+            }
+        }
+        return meter.report("classic", messages, messages, bytes);
+    }
+
+    private static String runStream(String label, InetSocketAddress target, int seconds, int messageBytes,
+                                    Pacer pacer, boolean coalesce) throws IOException {
+        Meter meter = new Meter();
+        try (StreamSender sender = new StreamSender(target, StreamSender.DEFAULT_DATAGRAM, pacer, coalesce)) {
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                UDPSender.generate(sender, BATCH, messageBytes);
+            }
+            sender.flush();
+            return meter.report(label, sender.getMessages(), sender.getDatagrams(), sender.getBytes());
+        }
+    }
+
+
+    /** Wall time, CPU time and allocation of the current thread since it was created. */
+    private static class Meter {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long start = System.nanoTime();
+        final long cpuStart = threads.getCurrentThreadCpuTime();
+        final long allocatedStart = threads.getCurrentThreadAllocatedBytes();
+
+        String report(String label, long messages, long datagrams, long bytes) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedStart;
+            return String.format("mode=%s messages_per_sec=%.0f datagrams_per_sec=%.0f mbit_per_sec=%.1f "
+                            + "cpu_ns_per_datagram=%.0f cpu_ns_per_message=%.0f alloc_bytes_per_message=%.1f",
+                    label, messages / seconds, datagrams / seconds, bytes * 8 / seconds / 1e6,
+                    (double) cpu / datagrams, (double) cpu / messages, (double) allocated / messages);
+        }
+    }
+}
@@ -1,20 +1,51 @@
 package tp_multithreading_sockets.udp;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
 import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 
 public class UDPSender {
     private static final int DEFAULT_PORT = 1234;
 
-    public static void main(String[] args) {
+    public static void main(String[] rawArgs) {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : rawArgs) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals),
+                        equals < 0 ? "true" : arg.substring(equals + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+        String[] args = positional.toArray(new String[0]);
+
         if (args.length < 1) {
-            System.out.println("Usage: java UDPSender <targetIP> [targetPort]");
+            System.out.println("Usage: java UDPSender <targetIP> [targetPort] [--reliable]");
+            System.out.println("       java UDPSender <targetIP> [targetPort] (--file=<path> | --generate=<count> [--size=64])");
+            System.out.println("                      [--pps=<packets/s> | --mbps=<Mbit/s>] [--datagram=1472] [--no-coalesce]");
             System.out.println("Example: java UDPSender 192.168.1.100 1234");
+            System.out.println("--reliable: ordered delivery with retransmission, messages of any length (UDPReceiver --reliable)");
+            System.out.println("--file/--generate: no prompt; lines of the file (or generated messages) packed into datagrams");
+            System.out.println("A multicast targetIP (224.0.0.0-239.255.255.255) reaches every receiver in the group;");
+            System.out.println("  --ttl=1 limits how many routers it crosses, --interface=<name> picks the outgoing interface");
             System.exit(1);
         }
 
@@ -25,7 +56,20 @@ public class UDPSender {
             targetPort = Integer.parseInt(args[1]);
         }
 
-        try (DatagramSocket socket = new DatagramSocket();
+        if (options.containsKey("reliable")) {
+            if (isMulticast(targetIP)) {
+                System.out.println("--reliable needs a unicast target: acknowledgements from many receivers are not supported");
+                System.exit(1);
+            }
+            sendReliably(targetIP, targetPort);
+            return;
+        }
+        if (options.containsKey("file") || options.containsKey("generate")) {
+            stream(targetIP, targetPort, options);
+            return;
+        }
+
+        try (DatagramSocket socket = openSocket(targetIP, options);
              Scanner scanner = new Scanner(System.in)) {
 
             System.out.println("📤 UDP Sender started");
@@ -70,5 +114,126 @@ public class UDPSender {
             e.printStackTrace();
         }
     }
-}
 
+    private static void sendReliably(String targetIP, int targetPort) {
+        try (ReliableSender sender = new ReliableSender(new InetSocketAddress(targetIP, targetPort));
+             Scanner scanner = new Scanner(System.in)) {
+
+            System.out.println("📤 UDP Sender started (reliable, ordered)");
+            System.out.println("Target: " + targetIP + ":" + targetPort);
+            System.out.println("Type your messages (type 'bye' to terminate)\n");
+
+            while (true) {
+                System.out.print("You: ");
+                if (!scanner.hasNextLine()) {
+                    break;
+                }
+                String message = scanner.nextLine().trim();
+
+                if (message.isEmpty()) {
+                    continue;
+                }
+
+                sender.send(message.getBytes(StandardCharsets.UTF_8));
+
+                if (message.equalsIgnoreCase("bye")) {
+                    break;
+                }
+            }
+            // Wait for the receiver to acknowledge everything before the sender goes away
+            sender.flush();
+            System.out.println("All messages delivered. Terminating sender...");
+        } catch (java.io.IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+    }
+
+    private static void stream(String targetIP, int targetPort, Map<String, String> options) {
+        Pacer pacer = options.containsKey("pps") ? Pacer.packetsPerSecond(Double.parseDouble(options.get("pps")))
+                : options.containsKey("mbps") ? Pacer.megabitsPerSecond(Double.parseDouble(options.get("mbps")))
+                : Pacer.unlimited();
+        int datagramSize = Integer.parseInt(options.getOrDefault("datagram", String.valueOf(StreamSender.DEFAULT_DATAGRAM)));
+        boolean coalesce = !options.containsKey("no-coalesce");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try (StreamSender sender = new StreamSender(openChannel(targetIP, options),
+                new InetSocketAddress(targetIP, targetPort), datagramSize, pacer, coalesce)) {
+            System.out.println("📤 UDP Sender started (stream)");
+            System.out.println("Target: " + targetIP + ":" + targetPort + ", rate " + pacer
+                    + ", " + (coalesce ? "up to " + datagramSize + " bytes per datagram" : "one message per datagram"));
+
+            long cpuBefore = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            if (options.containsKey("file")) {
+                sender.sendLines(Paths.get(options.get("file")));
+            } else {
+                generate(sender, Long.parseLong(options.get("generate")), Integer.parseInt(options.getOrDefault("size", "64")));
+            }
+            sender.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+
+            System.out.printf("Sent %d messages in %d datagrams (%d bytes) in %.2f s%n",
+                    sender.getMessages(), sender.getDatagrams(), sender.getBytes(), seconds);
+            System.out.printf("Rate: %.0f datagrams/s, %.0f messages/s, %.1f Mbit/s%n",
+                    sender.getDatagrams() / seconds, sender.getMessages() / seconds, sender.getBytes() * 8 / seconds / 1e6);
+            System.out.printf("CPU: %.0f ns per datagram, %.0f ns per message%n",
+                    (double) cpuNanos / Math.max(1, sender.getDatagrams()), (double) cpuNanos / Math.max(1, sender.getMessages()));
+        } catch (java.io.IOException e) {
+            System.err.println("I/O error: " + e.getMessage());
+        }
+    }
+
+    /** A MulticastSocket with the TTL and interface options for a group, a plain DatagramSocket otherwise. */
+    private static DatagramSocket openSocket(String targetIP, Map<String, String> options) throws java.io.IOException {
+        if (!isMulticast(targetIP)) {
+            return new DatagramSocket();
+        }
+        MulticastSocket socket = new MulticastSocket();
+        socket.setTimeToLive(Integer.parseInt(options.getOrDefault("ttl", String.valueOf(MulticastReceiver.DEFAULT_TTL))));
+        socket.setNetworkInterface(MulticastReceiver.findInterface(options.get("interface")));
+        return socket;
+    }
+
+    private static DatagramChannel openChannel(String targetIP, Map<String, String> options) throws java.io.IOException {
+        if (!isMulticast(targetIP)) {
+            return DatagramChannel.open();
+        }
+        return MulticastReceiver.openSender(MulticastReceiver.findInterface(options.get("interface")),
+                Integer.parseInt(options.getOrDefault("ttl", String.valueOf(MulticastReceiver.DEFAULT_TTL))));
+    }
+
+    private static boolean isMulticast(String targetIP) {
+        try {
+            return InetAddress.getByName(targetIP).isMulticastAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /** Messages "message N xxxx..." of {@code size} bytes, written into one reused buffer. */
+    static void generate(StreamSender sender, long count, int size) throws java.io.IOException {
+        ByteBuffer message = ByteBuffer.allocate(size);
+        byte[] prefix = "message ".getBytes(StandardCharsets.US_ASCII);
+        for (long i = 0; i < count; i++) {
+            message.clear();
+            message.put(prefix, 0, Math.min(prefix.length, size));
+            putDigits(message, i);
+            while (message.hasRemaining()) {
+                message.put((byte) 'x');
+            }
+            message.flip();
+            sender.send(message);
+        }
+    }
+
+    private static void putDigits(ByteBuffer buffer, long value) {
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0 && buffer.hasRemaining(); divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}